@@ -0,0 +1,58 @@
+package drismo.test.logic;
+
+import android.test.AndroidTestCase;
+import com.drismo.logic.AccelerationHandler;
+
+import java.util.Random;
+
+/**
+ * Checks that the precomputed rotation matrix gives the same result as the
+ * roll, pitch and yaw <code>rotate</code> sequence.
+ */
+public class AccelerationHandlerTest extends AndroidTestCase {
+
+    private static final float TOLERANCE = 1e-4f;
+
+    AccelerationHandler accelerationHandler;
+
+    @Override
+    protected void setUp() throws Exception {
+        accelerationHandler = new AccelerationHandler(null);
+    }
+
+    public void testRotateAllWithoutAnglesIsIdentity() {
+        float vectors[] = { 1.5f, -2.0f, 9.81f };
+        accelerationHandler.rotateAll(vectors);
+
+        assertEquals(1.5f, vectors[0], TOLERANCE);
+        assertEquals(-2.0f, vectors[1], TOLERANCE);
+        assertEquals(9.81f, vectors[2], TOLERANCE);
+    }
+
+    public void testRotateAllMatchesRotateSequence() {
+        Random random = new Random(42);
+
+        for(int n = 0; n < 1000; n++) {
+            double roll  = (random.nextDouble() - 0.5) * 2 * Math.PI;
+            double pitch = (random.nextDouble() - 0.5) * 2 * Math.PI;
+            double yaw   = (random.nextDouble() - 0.5) * 2 * Math.PI;
+
+            accelerationHandler.updateRollAngle(roll);
+            accelerationHandler.updatePitchAngle(pitch);
+            accelerationHandler.updateYawAngle(yaw);
+
+            float expected[] = { (random.nextFloat() - 0.5f) * 20,
+                                 (random.nextFloat() - 0.5f) * 20,
+                                 (random.nextFloat() - 0.5f) * 20 };
+            float actual[] = expected.clone();
+
+            AccelerationHandler.rotate(roll,  0, 2, expected);
+            AccelerationHandler.rotate(pitch, 1, 2, expected);
+            AccelerationHandler.rotate(yaw,   0, 1, expected);
+            accelerationHandler.rotateAll(actual);
+
+            for(int i = 0; i < 3; i++)
+                assertEquals(expected[i], actual[i], TOLERANCE);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package drismo.test.logic;
+
+import android.test.AndroidTestCase;
+import com.drismo.logic.GeocodingService;
+import com.drismo.logic.JsonFunctions;
+import com.drismo.utils.GeocodeCache;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Tests the batched lookups against a local stub of the geonames webservice, answering each request
+ * after a delay.
+ */
+public class GeocodingServiceTest extends AndroidTestCase {
+
+    private static final int DELAY_MS = 300;
+
+    private SlowServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new SlowServer();
+        server.start();
+        JsonFunctions.setServiceUrl("http://127.0.0.1:" + server.socket.getLocalPort() + "/");
+        GeocodeCache.getInstance(getContext()).clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        JsonFunctions.setServiceUrl("http://api.geonames.org/");
+        server.socket.close();
+        GeocodeCache.getInstance(getContext()).clear();
+    }
+
+    public void testBatchRunsInParallel() {
+        String names[] = GeocodingService.getInstance(getContext()).lookup(
+                new int[] { GeocodeCache.CITY, GeocodeCache.STREET, GeocodeCache.CITY, GeocodeCache.STREET },
+                new float[] { 60.7957f, 60.7957f, 60.1f, 60.1f }, new float[] { 10.6915f, 10.6915f, 10.1f, 10.1f },
+                5000);
+
+        assertEquals("Gjovik", names[0]);
+        assertEquals("Storgata", names[1]);
+        assertEquals("Gjovik", names[2]);
+        assertEquals("Storgata", names[3]);
+        assertEquals(4, server.requests);
+        assertEquals(4, server.maxActive);                              // One after another: 1
+    }
+
+    public void testSameCellIsLookedUpOnce() {
+        String names[] = GeocodingService.getInstance(getContext()).lookup(
+                new int[] { GeocodeCache.STREET, GeocodeCache.STREET },
+                new float[] { 60.7957f, 60.7958f }, new float[] { 10.6915f, 10.6916f }, 5000);
+
+        assertEquals("Storgata", names[0]);
+        assertEquals("Storgata", names[1]);
+        assertEquals(1, server.requests);
+    }
+
+    public void testPartialResultsAfterDeadline() throws InterruptedException {
+        String names[] = GeocodingService.getInstance(getContext()).lookup(
+                new int[] { GeocodeCache.CITY }, new float[] { 60.7957f }, new float[] { 10.6915f }, DELAY_MS / 3);
+        assertEquals(JsonFunctions.NOT_FOUND, names[0]);
+
+        Thread.sleep(2 * DELAY_MS);                                     // The lookup still finishes, and is cached.
+        assertEquals("Gjovik", GeocodeCache.getInstance(getContext()).get(GeocodeCache.CITY, 60.7957f, 10.6915f));
+    }
+
+    /**
+     * Answers every request on its own thread after <code>DELAY_MS</code>, with a fixed city or street, and
+     * counts the most requests it was answering at once.
+     */
+    private static class SlowServer extends Thread {
+
+        private final ServerSocket socket;
+        private volatile int requests = 0;
+        private volatile int active = 0;
+        private volatile int maxActive = 0;
+
+        private SlowServer() throws IOException {
+            socket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while(true) {
+                    final Socket client = socket.accept();
+                    new Thread() {
+                        public void run() {
+                            try {
+                                answer(client);
+                            } catch (Exception e) {
+                                // Client gone
+                            }
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                // Closed by tearDown()
+            }
+        }
+
+        private void answer(Socket client) throws Exception {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            String request = in.readLine();
+            String header;
+            while((header = in.readLine()) != null && header.length() > 0);
+            synchronized (this) {
+                requests++;
+                active++;
+                maxActive = Math.max(maxActive, active);
+            }
+            try {
+                Thread.sleep(DELAY_MS);
+            } finally {
+                synchronized (this) {
+                    active--;
+                }
+            }
+
+            String body = request.contains("findNearbyPlaceNameJSON")
+                        ? "{\"geonames\":[{\"adminName2\":\"Gjovik\"}]}"
+                        : "{\"streetSegment\":[{\"name\":\"Storgata\"}]}";
+            OutputStream out = client.getOutputStream();
+            out.write(("HTTP/1.0 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length()
+                       + "\r\n\r\n" + body).getBytes("UTF-8"));
+            out.flush();
+            client.close();
+        }
+    }
+}
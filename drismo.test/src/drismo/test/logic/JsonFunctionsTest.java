@@ -0,0 +1,112 @@
+package drismo.test.logic;
+
+import android.test.AndroidTestCase;
+import com.drismo.logic.JsonFunctions;
+import com.drismo.utils.GeocodeCache;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Tests the cached reverse geocoding against a local stub of the geonames webservice.
+ */
+public class JsonFunctionsTest extends AndroidTestCase {
+
+    private StubServer server;
+    private GeocodeCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new StubServer();
+        server.start();
+        JsonFunctions.setServiceUrl("http://127.0.0.1:" + server.socket.getLocalPort() + "/");
+        cache = GeocodeCache.getInstance(getContext());
+        cache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        JsonFunctions.setServiceUrl("http://api.geonames.org/");
+        server.socket.close();
+        cache.clear();
+    }
+
+    public void testRepeatedLookupsUseTheCache() {
+        assertEquals("Gjovik", JsonFunctions.getCity(getContext(), 60.7957f, 10.6915f));
+        assertEquals("Storgata", JsonFunctions.getStreet(getContext(), 60.7957f, 10.6915f));
+        assertEquals(2, server.requests);
+
+        assertEquals("Gjovik", JsonFunctions.getCity(getContext(), 60.7957f, 10.6915f));
+        assertEquals("Storgata", JsonFunctions.getStreet(getContext(), 60.7958f, 10.6916f));  // Same cell
+        assertEquals(2, server.requests);
+        assertEquals(2, cache.getMemoryHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testEvictedFromMemoryFoundOnDisk() {
+        JsonFunctions.getStreet(getContext(), 60.7957f, 10.6915f);
+        for(int i = 1; i <= 100; i++)                                   // Pushes the first one out of memory
+            JsonFunctions.getStreet(getContext(), 60.7957f + i * 0.01f, 10.6915f);
+        assertEquals(101, server.requests);
+
+        assertEquals("Storgata", JsonFunctions.getStreet(getContext(), 60.7957f, 10.6915f));
+        assertEquals(101, server.requests);
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    public void testFailedLookupIsNotCached() {
+        assertEquals(JsonFunctions.NOT_FOUND, JsonFunctions.getCity(getContext(), 0.5f, 0.5f));
+        assertEquals(JsonFunctions.NOT_FOUND, JsonFunctions.getCity(getContext(), 0.5f, 0.5f));
+        assertEquals(2, server.requests);
+    }
+
+    /**
+     * Answers every request with a fixed city or street, or with an empty result for latitude 0.5.
+     */
+    private static class StubServer extends Thread {
+
+        private final ServerSocket socket;
+        private volatile int requests = 0;
+
+        private StubServer() throws IOException {
+            socket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while(true) {
+                    Socket client = socket.accept();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                    String request = in.readLine();
+                    int contentLength = 0;
+                    String header;
+                    while((header = in.readLine()) != null && header.length() > 0) {
+                        if(header.toLowerCase().startsWith("content-length:"))
+                            contentLength = Integer.parseInt(header.substring(15).trim());
+                    }
+                    for(int i = 0; i < contentLength; i++)
+                        in.read();
+
+                    String body;
+                    if(request.contains("lat=0.5"))
+                        body = "{}";
+                    else if(request.contains("findNearbyPlaceNameJSON"))
+                        body = "{\"geonames\":[{\"adminName2\":\"Gjovik\",\"name\":\"Gjovik\"}]}";
+                    else
+                        body = "{\"streetSegment\":[{\"name\":\"Storgata\",\"line\":\"10.69 60.79\"}]}";
+                    requests++;
+
+                    OutputStream out = client.getOutputStream();
+                    out.write(("HTTP/1.0 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length()
+                               + "\r\n\r\n" + body).getBytes("UTF-8"));
+                    out.flush();
+                    client.close();
+                }
+            } catch (IOException e) {
+                // Closed by tearDown()
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package drismo.test.logic;
+
+import android.test.AndroidTestCase;
+import com.drismo.logic.MinMaxWindow;
+
+import java.util.Random;
+
+/**
+ * Checks the min/max of the window against a scan of the samples that should be in it.
+ */
+public class MinMaxWindowTest extends AndroidTestCase {
+
+    private static final int AXES = 3;
+
+    /**
+     * Adds random samples, and after each one compares the window with a brute force scan of the samples from
+     * the last <code>lengthMs</code>, at most <code>capacity</code> of them.
+     * @param levels Number of distinct values, so a low number gives many equal values.
+     * @param maxStepMs Max time between samples (0 to 2 x the window length, so the window is sometimes emptied).
+     */
+    private static void compareWithScan(int count, int capacity, long lengthMs, int levels, int maxStepMs, long seed) {
+        final Random random = new Random(seed);
+        final MinMaxWindow window = new MinMaxWindow(AXES, capacity, lengthMs);
+        final long times[] = new long[count];
+        final float values[][] = new float[count][AXES];
+        final float min[] = new float[AXES], max[] = new float[AXES], newest[] = new float[AXES];
+        long time = 0;
+
+        for(int n = 0; n < count; n++){
+            time += random.nextInt(maxStepMs + 1);
+            times[n] = time;
+            for(int i = 0; i < AXES; i++)
+                values[n][i] = (random.nextInt(levels) - levels / 2) * 0.25f;
+            window.add(time, values[n]);
+
+            int first = Math.max(0, n + 1 - capacity);
+            while(times[first] < time - lengthMs)
+                first++;
+            assertEquals(n + 1 - first, window.size());
+            assertEquals(time, window.getNewestTimestamp());
+
+            window.getMin(min);
+            window.getMax(max);
+            window.getNewest(newest);
+            for(int i = 0; i < AXES; i++){
+                float scanMin = Float.MAX_VALUE, scanMax = -Float.MAX_VALUE;
+                for(int k = first; k <= n; k++){
+                    scanMin = Math.min(scanMin, values[k][i]);
+                    scanMax = Math.max(scanMax, values[k][i]);
+                }
+                assertEquals(scanMin, min[i]);
+                assertEquals(scanMax, max[i]);
+                assertEquals(values[n][i], newest[i]);
+            }
+        }
+    }
+
+    public void testTimeExpiry() {
+        compareWithScan(200000, 1024, 2000, 10000, 100, 1);        // About 40 samples in the window
+    }
+
+    public void testCapacityCap() {
+        compareWithScan(200000, 16, 60000, 10000, 100, 2);         // The time never expires anything
+    }
+
+    public void testEqualValues() {
+        compareWithScan(200000, 64, 1000, 3, 50, 3);
+    }
+
+    public void testEmptiedByGaps() {
+        compareWithScan(20000, 64, 1000, 100, 2000, 4);
+    }
+
+    public void testExpireAndClear() {
+        final MinMaxWindow window = new MinMaxWindow(1, 8, 1000);
+        final float value[] = new float[1];
+        for(int t = 0; t < 5; t++){
+            value[0] = t;
+            window.add(t * 100, value);
+        }
+        window.expire(1150);                                    // Drops 0 and 100 ms
+        assertEquals(3, window.size());
+        window.getMin(value);
+        assertEquals(2f, value[0]);
+        window.getMax(value);
+        assertEquals(4f, value[0]);
+
+        window.expire(10000);
+        assertTrue(window.isEmpty());
+
+        window.add(10000, value);
+        window.clear();
+        assertTrue(window.isEmpty());
+        assertEquals(0, window.size());
+    }
+}
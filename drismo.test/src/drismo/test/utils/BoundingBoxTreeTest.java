@@ -0,0 +1,61 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.utils.BoundingBoxTree;
+
+import java.util.Random;
+
+/**
+ * Checks the culled leaves against the segments that are in the viewport.
+ */
+public class BoundingBoxTreeTest extends AndroidTestCase {
+
+    public void testQueryFindsEveryVisibleSegment() {
+        final int count = 1001;
+        final int xs[] = new int[count], ys[] = new int[count];
+        final Random random = new Random(7);
+        for(int i = 1; i < count; i++){                         // A random walk
+            xs[i] = xs[i - 1] + random.nextInt(41) - 20;
+            ys[i] = ys[i - 1] + random.nextInt(41) - 20;
+        }
+        final BoundingBoxTree tree = new BoundingBoxTree(xs, ys, count, 8);
+        assertEquals(125, tree.getLeafCount());
+
+        final int leaves[] = new int[tree.getLeafCount()];
+        for(int q = 0; q < 100; q++){
+            final int left = random.nextInt(400) - 200, top = random.nextInt(400) - 200;
+            final int right = left + 50, bottom = top + 80;
+            final int found = tree.query(left, top, right, bottom, leaves);
+
+            final boolean visible[] = new boolean[tree.getLeafCount()];
+            for(int l = 0; l < found; l++){
+                if(l > 0)
+                    assertTrue(leaves[l] > leaves[l - 1]);      // In the order of the route
+                visible[leaves[l]] = true;
+            }
+            for(int i = 0; i < count; i++){
+                if(xs[i] < left || xs[i] > right || ys[i] < top || ys[i] > bottom)
+                    continue;
+                if(i > 0)
+                    assertTrue(visible[(i - 1) / 8]);           // The segment ending here
+                if(i < count - 1)
+                    assertTrue(visible[i / 8]);                 // The segment starting here
+            }
+        }
+    }
+
+    public void testOffScreen() {
+        final BoundingBoxTree tree = new BoundingBoxTree(new int[] { 0, 10, 20 }, new int[] { 0, 0, 0 }, 3, 1);
+        final int leaves[] = new int[2];
+        assertEquals(0, tree.query(30, -5, 40, 5, leaves));
+        assertEquals(1, tree.query(15, -5, 40, 5, leaves));
+        assertEquals(1, leaves[0]);
+        assertEquals(2, tree.query(0, 0, 20, 0, leaves));
+    }
+
+    public void testEmpty() {
+        final BoundingBoxTree tree = new BoundingBoxTree(new int[] { 5 }, new int[] { 5 }, 1, 8);
+        assertEquals(0, tree.getLeafCount());
+        assertEquals(0, tree.query(0, 0, 10, 10, new int[0]));
+    }
+}
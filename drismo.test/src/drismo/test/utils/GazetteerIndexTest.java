@@ -0,0 +1,85 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.utils.GazetteerIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Builds a small gazetteer index, and looks up the nearest points in it.
+ */
+public class GazetteerIndexTest extends AndroidTestCase {
+
+    private static final String GAZETTEER =
+            "# name\tlatitude\tlongitude\n"
+          + "Storgata\t60.7957\t10.6915\n"
+          + "Storgata\t60.7962\t10.6921\n"
+          + "Kirkegata\t60.7990\t10.6890\n"
+          + "Hunnsvegen\t60.8030\t10.6700\n"
+          + "\t60.7958\t10.6916\n"                                     // No name: skipped
+          + "Torggata\t59.9150\t10.7500\n";
+
+    private File file;
+    private GazetteerIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = getContext().getFileStreamPath("drismo-test.idx");
+        assertEquals(5, GazetteerIndex.build(new StringReader(GAZETTEER), file, 30));
+        index = new GazetteerIndex(file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testNearestPoint() {
+        assertEquals("Storgata", index.find(60.7960, 10.6919, 200));
+        assertEquals("Kirkegata", index.find(60.7985, 10.6893, 200));
+        assertEquals("Torggata", index.find(59.9151, 10.7502, 200));
+    }
+
+    public void testNothingWithinDistance() {
+        assertNull(index.find(60.8025, 10.6740, 200));                  // 230 m from Hunnsvegen
+        assertNull(index.find(-33.86, 151.21, 200));
+        assertEquals("Hunnsvegen", index.find(60.8025, 10.6740, 300));
+    }
+
+    public void testRejectsOtherFiles() throws IOException {
+        File other = getContext().getFileStreamPath("drismo-test.dtf");
+        FileOutputStream out = new FileOutputStream(other);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            new GazetteerIndex(other);
+            fail("Opened a file that isn't an index");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            other.delete();
+        }
+    }
+
+    /**
+     * North of 68 degrees, cells of 20 bits are 0.35 degrees or less than 15 km wide, so a point 14.7 km east or
+     * west can be two cells away.
+     */
+    public void testNarrowCellsInTheNorth() throws IOException {
+        File north = getContext().getFileStreamPath("drismo-test-north.idx");
+        try {
+            GazetteerIndex.build(new StringReader("West\t69.5\t23.18\nEast\t70.0\t24.29\n"), north, 20);
+            GazetteerIndex cities = new GazetteerIndex(north);
+            assertTrue(cities.getCellHeightMeters() > 15000);
+            assertEquals("East", cities.find(70.0, 23.905, 15000));
+            assertEquals("West", cities.find(69.5, 23.56, 15000));
+            assertNull(cities.find(70.0, 23.905, 13000));
+            assertNull(cities.find(69.8, 23.905, 15000));                // 22 km south of East
+        } finally {
+            north.delete();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.utils.GeoDistance;
+
+/**
+ * Checks the distances against reference values for the WGS84 ellipsoid (from Vincenty's formulae).
+ */
+public class GeoDistanceTest extends AndroidTestCase {
+
+    public void testShortSegments() {
+        assertEquals(111.319, GeoDistance.distanceE6(0, 0, 0, 1000), 0.001);               // 0.001 deg east
+        assertEquals(110.574, GeoDistance.distanceE6(-500, 0, 500, 0), 0.001);             // 0.001 deg north
+        assertEquals(111.694, GeoDistance.distanceE6(89999500, 0, 90000000, 0) * 2, 0.001); // At the pole
+        assertEquals(GeoDistance.distanceE6(60795700, 10691500, 60796200, 10692100),
+                     GeoDistance.equirectangular(60.7957, 10.6915, 60.7962, 10.6921), 1e-6);
+        assertEquals(0, GeoDistance.distanceE6(60795700, 10691500, 60795700, 10691500), 0);
+    }
+
+    public void testAcrossTheDateLine() {
+        assertEquals(GeoDistance.distanceE6(0, -500, 0, 500),
+                     GeoDistance.distanceE6(0, 179999500, 0, -179999500), 1e-6);
+    }
+
+    public void testLongSegments() {
+        // Oslo - Bergen, 306.2 km on the ellipsoid; the sphere is within 0.6 % of it
+        assertEquals(306165, GeoDistance.distance(59.9139, 10.7522, 60.3913, 5.3221), 306165 * 0.006);
+        assertEquals(GeoDistance.haversine(59.9139, 10.7522, 60.3913, 5.3221),
+                     GeoDistance.distance(59.9139, 10.7522, 60.3913, 5.3221), 1e-6);
+    }
+
+    public void testPathSkipsMissingFixes() {
+        int latitudes[] = { 60000000, 0, 60001000, 60002000 };
+        int longitudes[] = { 10000000, 0, 10000000, 10000000 };
+        assertEquals(GeoDistance.distanceE6(60000000, 10000000, 60002000, 10000000),
+                     GeoDistance.pathLengthE6(latitudes, longitudes, 0, 4), 1e-6);
+    }
+}
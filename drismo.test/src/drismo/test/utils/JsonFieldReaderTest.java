@@ -0,0 +1,36 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.utils.JsonFieldReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Reads single values out of geonames style responses.
+ */
+public class JsonFieldReaderTest extends AndroidTestCase {
+
+    private static final Object CITY_PATH[] = { "geonames", 0, "adminName2" };
+
+    private static String find(String json, Object path[]) throws IOException {
+        return new JsonFieldReader(new StringReader(json)).find(path);
+    }
+
+    public void testSkipsOtherValues() throws IOException {
+        String json = "{ \"status\" : {\"message\":\"ok \\\"]}\", \"value\":0},\n"
+                    + "  \"geonames\" : [ { \"name\":\"Gj\\u00f8vik\", \"bbox\":{\"east\":10.7,\"west\":10.6},"
+                    + " \"alternateNames\":[{\"name\":\"x\"}], \"adminName2\" : \"Gj\\u00f8vik\\/Toten\" },"
+                    + " {\"adminName2\":\"Hamar\"} ] }";
+        assertEquals("Gjøvik/Toten", find(json, CITY_PATH));
+        assertEquals("Hamar", find(json, new Object[] { "geonames", 1, "adminName2" }));
+        assertEquals("10.7", find(json, new Object[] { "geonames", 0, "bbox", "east" }));
+    }
+
+    public void testMissingValue() throws IOException {
+        assertNull(find("{}", CITY_PATH));
+        assertNull(find("{\"geonames\":[]}", CITY_PATH));
+        assertNull(find("{\"geonames\":[{\"adminName2\":null}]}", CITY_PATH));
+        assertNull(find("{\"geonames\":{\"adminName2\":\"Gjovik\"}}", CITY_PATH));
+    }
+}
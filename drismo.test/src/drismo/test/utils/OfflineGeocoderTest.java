@@ -0,0 +1,85 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.utils.GeocodeCache;
+import com.drismo.utils.OfflineGeocoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Installs gazetteers through the offline geocoder, and looks up places in them.
+ */
+public class OfflineGeocoderTest extends AndroidTestCase {
+
+    private static final String CITIES =
+            "Gjovik\t60.7957\t10.6915\n"
+          + "Oslo\t59.9139\t10.7522\n"
+          + "Tromso\t69.6492\t18.9553\n";
+
+    private static final String STREETS =
+            "Storgata\t60.7957\t10.6915\n"
+          + "Kirkegata\t60.7990\t10.6890\n";
+
+    private OfflineGeocoder geocoder;
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        geocoder = OfflineGeocoder.getInstance(getContext());
+        geocoder.uninstall(GeocodeCache.CITY);
+        geocoder.uninstall(GeocodeCache.STREET);
+        directory = getContext().getFileStreamPath("drismo-test-gazetteers");
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        geocoder.uninstall(GeocodeCache.CITY);
+        geocoder.uninstall(GeocodeCache.STREET);
+        for(String name : OfflineGeocoder.SOURCE_NAMES)
+            new File(directory, name).delete();
+        directory.delete();
+    }
+
+    private void writeSource(int type, String gazetteer) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(directory, OfflineGeocoder.SOURCE_NAMES[type]));
+        out.write(gazetteer.getBytes("UTF-8"));
+        out.close();
+    }
+
+    public void testInstallAndFind() throws IOException {
+        assertFalse(geocoder.isInstalled(GeocodeCache.CITY));
+        assertNull(geocoder.find(GeocodeCache.CITY, 60.80f, 10.70f));
+
+        assertEquals(3, geocoder.install(GeocodeCache.CITY, new ByteArrayInputStream(CITIES.getBytes("UTF-8"))));
+        assertTrue(geocoder.isInstalled(GeocodeCache.CITY));
+        assertFalse(geocoder.isInstalled(GeocodeCache.STREET));
+        assertEquals("Gjovik", geocoder.find(GeocodeCache.CITY, 60.80f, 10.70f));
+        assertEquals("Oslo", geocoder.find(GeocodeCache.CITY, 59.95f, 10.80f));
+        assertEquals("Tromso", geocoder.find(GeocodeCache.CITY, 69.68f, 19.20f));  // 10 km away
+        assertNull(geocoder.find(GeocodeCache.CITY, 61.50f, 10.70f));               // 78 km north
+        assertNull(geocoder.find(GeocodeCache.STREET, 60.7958f, 10.6916f));
+
+        geocoder.uninstall(GeocodeCache.CITY);
+        assertFalse(geocoder.isInstalled(GeocodeCache.CITY));
+        assertNull(geocoder.find(GeocodeCache.CITY, 60.80f, 10.70f));
+    }
+
+    public void testInstallFromDirectory() throws IOException {
+        assertEquals(-1, geocoder.installFrom(directory));
+
+        writeSource(GeocodeCache.STREET, STREETS);
+        assertEquals(2, geocoder.installFrom(directory));
+        assertFalse(geocoder.isInstalled(GeocodeCache.CITY));
+        assertEquals("Storgata", geocoder.find(GeocodeCache.STREET, 60.7958f, 10.6916f));
+        assertEquals("Kirkegata", geocoder.find(GeocodeCache.STREET, 60.7988f, 10.6892f));
+
+        writeSource(GeocodeCache.CITY, CITIES);
+        assertEquals(5, geocoder.installFrom(directory));                            // Streets again, and cities
+        assertEquals("Gjovik", geocoder.find(GeocodeCache.CITY, 60.80f, 10.70f));
+        assertEquals("Storgata", geocoder.find(GeocodeCache.STREET, 60.7958f, 10.6916f));
+    }
+}
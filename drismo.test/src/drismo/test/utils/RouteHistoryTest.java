@@ -0,0 +1,76 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.model.RouteHistory;
+
+/**
+ * Checks which locations the history keeps as it wraps, and that a reader never keeps a torn read.
+ */
+public class RouteHistoryTest extends AndroidTestCase {
+
+    public void testDropsOldest() {
+        final RouteHistory history = new RouteHistory(4, 60000);
+        for(int i = 0; i < 10; i++)
+            history.add(i * 1000, i, -i, 0xFF000000 | i);
+
+        assertEquals(4, history.size());
+        assertEquals(10, history.getAddedCount());
+        for(int k = 0; k < 4; k++){
+            final int slot = history.getSlot(k);
+            assertEquals((6 + k) * 1000, history.getTime(slot));
+            assertEquals(6 + k, history.getLatitudeE6(slot));
+            assertEquals(-(6 + k), history.getLongitudeE6(slot));
+            assertEquals(0xFF000000 | (6 + k), history.getColor(slot));
+        }
+    }
+
+    public void testDropsTooOld() {
+        final RouteHistory history = new RouteHistory(100, 5000);
+        for(int i = 0; i <= 20; i++)
+            history.add(i * 1000, i, i, 0);
+        assertEquals(6, history.size());                            // 15 s to 20 s
+        assertEquals(15000, history.getTime(history.getSlot(0)));
+
+        history.add(60000, 60, 60, 0);                              // After a gap, only the latest
+        assertEquals(1, history.size());
+        assertEquals(60, history.getLatitudeE6(history.getSlot(0)));
+    }
+
+    public void testSequence() {
+        final RouteHistory history = new RouteHistory(8, 60000);
+        int started = history.beginRead();
+        assertTrue(history.endRead(started));
+
+        started = history.beginRead();
+        history.add(0, 1, 1, 0);
+        assertFalse(history.endRead(started));
+        assertTrue(history.endRead(history.beginRead()));
+    }
+
+    public void testConcurrentReads() throws InterruptedException {
+        final RouteHistory history = new RouteHistory(16, Long.MAX_VALUE);
+        final Thread writer = new Thread() {
+            public void run(){
+                for(int i = 1; i <= 200000; i++)
+                    history.add(i, i, -i, i);
+            }
+        };
+        writer.start();
+        int consistent = 0;
+        while(writer.isAlive() || consistent == 0){
+            final int started = history.beginRead();
+            final int size = history.size();
+            final long added = history.getAddedCount();
+            final int last = size > 0 ? history.getSlot(size - 1) : 0;
+            final int latitude = history.getLatitudeE6(last), longitude = history.getLongitudeE6(last);
+            final int color = history.getColor(last);
+            if(!history.endRead(started) || size == 0)
+                continue;
+            assertEquals(added, latitude);                          // The latest location, all of it
+            assertEquals(-latitude, longitude);
+            assertEquals(latitude, color);
+            consistent++;
+        }
+        writer.join();
+    }
+}
@@ -0,0 +1,71 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.utils.RouteSimplifier;
+
+import java.util.Random;
+
+/**
+ * Checks that each level of the simplified route stays within the tolerance of the route, with short segments.
+ */
+public class RouteSimplifierTest extends AndroidTestCase {
+
+    private static final int COUNT = 5000;
+
+    private int xs[] = new int[COUNT], ys[] = new int[COUNT];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Random random = new Random(3);
+        double heading = 0;
+        xs[0] = 1 << 29;
+        ys[0] = 1 << 29;
+        for(int i = 1; i < COUNT; i++){                         // About 15 m between the points, at zoom 22
+            heading += random.nextGaussian() * 0.2;
+            xs[i] = xs[i - 1] + (int) (Math.cos(heading) * 400);
+            ys[i] = ys[i - 1] + (int) (Math.sin(heading) * 400);
+        }
+    }
+
+    public void testLevelsWithinTolerance() {
+        final byte zoomLevels[] = RouteSimplifier.getZoomLevels(xs, ys, COUNT);
+        assertEquals(0, zoomLevels[0]);
+        assertEquals(0, zoomLevels[COUNT - 1]);
+
+        final int indexes[] = new int[COUNT];
+        int lastCount = 0;
+        for(int zoom = 0; zoom <= RouteSimplifier.PROJECTED_ZOOM; zoom++){
+            final double pixel = 1 << (RouteSimplifier.PROJECTED_ZOOM - zoom);
+            final int count = RouteSimplifier.select(zoomLevels, zoom, indexes);
+            assertTrue(count >= lastCount);                     // Each level adds points
+            lastCount = count;
+
+            for(int k = 1; k < count; k++){
+                final int a = indexes[k - 1], b = indexes[k];
+                if(b > a + 1)
+                    assertTrue(Math.hypot(xs[b] - xs[a], ys[b] - ys[a]) <= 8 * pixel);
+                for(int i = a + 1; i < b; i++)
+                    assertTrue(distanceToSegment(i, a, b) <= pixel);
+            }
+        }
+        assertTrue(RouteSimplifier.select(zoomLevels, 10, indexes) < COUNT / 20);
+    }
+
+    public void testStraightLine() {
+        final int line[] = new int[100];
+        for(int i = 0; i < line.length; i++)
+            line[i] = i * 100;
+        final byte zoomLevels[] = RouteSimplifier.getZoomLevels(line, new int[line.length], line.length);
+        final int indexes[] = new int[line.length];
+        assertEquals(2, RouteSimplifier.select(zoomLevels, 10, indexes));        // 9900 units: 2.4 pixels
+        assertEquals(line.length, RouteSimplifier.select(zoomLevels, 20, indexes));
+    }
+
+    private double distanceToSegment(int i, int a, int b) {
+        final double dx = xs[b] - xs[a], dy = ys[b] - ys[a];
+        double t = ((xs[i] - xs[a]) * dx + (ys[i] - ys[a]) * dy) / (dx * dx + dy * dy);
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(xs[i] - xs[a] - t * dx, ys[i] - ys[a] - t * dy);
+    }
+}
@@ -0,0 +1,65 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.utils.ScorePyramid;
+
+import java.util.Random;
+
+/**
+ * Checks the extremes of every bucket against the samples, and the number of buckets drawn per pixel.
+ */
+public class ScorePyramidTest extends AndroidTestCase {
+
+    private static int[] randomScores(int size) {
+        final Random random = new Random(size);
+        final int scores[] = new int[size];
+        for(int i = 0; i < size; i++)
+            scores[i] = 1250 + random.nextInt(421);
+        return scores;
+    }
+
+    public void testExtremesInOrder() {
+        final int scores[] = randomScores(1000);                   // Not a power of two
+        final ScorePyramid pyramid = new ScorePyramid(scores);
+        assertEquals(11, pyramid.getLevelCount());
+
+        for(int level = 0; level < pyramid.getLevelCount(); level++){
+            final int size = ScorePyramid.getBucketSize(level);
+            assertEquals((scores.length + size - 1) / size, pyramid.getBucketCount(level));
+            for(int b = 0; b < pyramid.getBucketCount(level); b++){
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, minIndex = 0, maxIndex = 0;
+                for(int i = b * size; i < Math.min((b + 1) * size, scores.length); i++){
+                    if(scores[i] < min){ min = scores[i]; minIndex = i; }
+                    if(scores[i] > max){ max = scores[i]; maxIndex = i; }
+                }
+                assertEquals(minIndex <= maxIndex ? min : max, pyramid.getFirst(level, b));
+                assertEquals(minIndex <= maxIndex ? max : min, pyramid.getSecond(level, b));
+            }
+        }
+    }
+
+    public void testEqualSamples() {
+        final ScorePyramid pyramid = new ScorePyramid(new int[] { 1500, 1500, 1500 });
+        assertEquals(1500, pyramid.getFirst(1, 0));
+        assertEquals(1500, pyramid.getSecond(1, 0));
+        assertEquals(1500, pyramid.getFirst(1, 1));
+        assertEquals(1500, pyramid.getSecond(2, 0));
+    }
+
+    public void testLevelBoundedByPixels() {
+        final ScorePyramid pyramid = new ScorePyramid(randomScores(100000));
+        assertEquals(0, pyramid.getLevel(400, 480));                // Zoomed in: every sample
+        for(int samples = 480; samples <= 100000; samples += 997){
+            final int level = pyramid.getLevel(samples, 480);
+            final float buckets = samples / (float) ScorePyramid.getBucketSize(level);
+            assertTrue(buckets >= 480 && buckets < 2 * 480);
+        }
+    }
+
+    public void testEmpty() {
+        final ScorePyramid pyramid = new ScorePyramid(new int[0]);
+        assertEquals(0, pyramid.size());
+        assertEquals(1, pyramid.getLevelCount());
+        assertEquals(0, pyramid.getLevel(0, 480));
+    }
+}
@@ -0,0 +1,159 @@
+package drismo.test.utils;
+
+import android.test.AndroidTestCase;
+import com.drismo.model.TripRecords;
+import com.drismo.utils.TripCsvParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * Parses legacy CSV trips, and compares every record with the fields parsed by <code>Long.parseLong</code>,
+ * <code>Integer.parseInt</code>, <code>Double.parseDouble</code> and <code>Float.parseFloat</code>, as the
+ * old reader did.
+ */
+public class TripCsvParserTest extends AndroidTestCase {
+
+    private static final String HEADER = "Trip started 2011-04-12 14:33:01:2000";
+
+    /**
+     * A stream that returns at most <code>chunk</code> bytes per read, so the records are split across the
+     * parser's read window at every position.
+     */
+    private static InputStream chunked(String csv, final int chunk) {
+        return new ByteArrayInputStream(csv.getBytes()) {
+            @Override
+            public synchronized int read(byte b[], int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+
+    private static TripRecords parse(InputStream in) throws IOException {
+        final TripCsvParser parser = new TripCsvParser(in);
+        final TripRecords records = new TripRecords();
+        records.setHeader(parser.readHeader(), 0);
+        parser.parse(records);
+        return records;
+    }
+
+    /**
+     * Checks the records against the data lines of the file, parsed by the JDK.
+     */
+    private static void assertRecords(String csv, TripRecords records) {
+        final ArrayList<String> lines = new ArrayList<String>();
+        final StringTokenizer st = new StringTokenizer(csv, "\r\n");
+        st.nextToken();                                             // The header
+        while(st.hasMoreTokens()){
+            final String line = st.nextToken();
+            if(!line.startsWith("#"))
+                lines.add(line);
+        }
+
+        assertEquals(lines.size(), records.size());
+        for(int i = 0; i < lines.size(); i++){
+            final String fields[] = lines.get(i).split(",");
+            assertEquals(Long.parseLong(fields[0]), records.getTime(i));
+            assertEquals(Integer.parseInt(fields[1]), records.getScore(i));
+            assertEquals(Math.round(Double.parseDouble(fields[2]) * 1e6), records.getLatitudeE6(i));
+            assertEquals(Math.round(Double.parseDouble(fields[3]) * 1e6), records.getLongitudeE6(i));
+            assertEquals(Float.parseFloat(fields[4]), records.getSpeed(i));
+        }
+    }
+
+    public void testHeader() throws IOException {
+        assertEquals(2000, new TripCsvParser(chunked(HEADER + "\r\n", 3)).readHeader());
+        assertEquals(-1, new TripCsvParser(chunked("", 3)).readHeader());
+        try {
+            new TripCsvParser(chunked("Trip started\n", 3)).readHeader();
+            fail("No refresh rate");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testFields() throws IOException {
+        final String csv = HEADER + "\r\n"
+                         + "# Comment\r\n"
+                         + "0,1500,60.791234,10.691234,12.5\r\n"
+                         + "\r\n"
+                         + "2000,1499,-33.8688197,-151.2092956,1.0E-4\r\n"
+                         + "# Another comment\n"
+                         + "4000,-12,0.0,0.0,0\n"
+                         + "6000,1501,-0.000001,179.999999,3.5E2\n"
+                         + "8000,1502,1.5e1,-1.23456789E1,2.5E-3";      // No line end
+        for(int chunk = 1; chunk <= 64; chunk++)
+            assertRecords(csv, parse(chunked(csv, chunk)));
+
+        final TripRecords records = parse(chunked(csv, 7));
+        assertEquals(2000, records.getRefreshRate());
+        assertEquals(-33868820, records.getLatitudeE6(1));
+        assertEquals(-151209296, records.getLongitudeE6(1));
+        assertEquals(-12, records.getScore(2));
+        assertEquals(-1, records.getLatitudeE6(3));
+        assertEquals(179999999, records.getLongitudeE6(3));
+        assertEquals(350f, records.getSpeed(3));
+        assertEquals(15000000, records.getLatitudeE6(4));
+        assertEquals(-12345679, records.getLongitudeE6(4));
+    }
+
+    /**
+     * Ties are rounded half up on the decimal digits, where <code>Math.round(Double.parseDouble(s) * 1e6)</code>
+     * goes either way, depending on the rounding error of the double.
+     */
+    public void testRoundingTies() throws IOException {
+        final TripRecords records = parse(chunked(HEADER + "\n0,1500,179.9999995,-151.2092955,0\n", 8192));
+        assertEquals(180000000, records.getLatitudeE6(0));
+        assertEquals(-151209295, records.getLongitudeE6(0));
+    }
+
+    public void testRandomRecords() throws IOException {
+        final Random random = new Random(12);
+        final StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for(int i = 0; i < 20000; i++){
+            if(i % 1000 == 0)
+                csv.append("# ").append(i).append('\n');
+            final double latitude = (random.nextDouble() - 0.5) * 180;
+            final double longitude = (random.nextDouble() - 0.5) * 360;
+            final float speed = random.nextInt(4) == 0 ? random.nextFloat() * 1e-3f : random.nextFloat() * 60;
+            csv.append(i * 2000L).append(',').append(1000 + random.nextInt(1000)).append(',')
+               .append(i % 10 == 0 ? 0.0 : latitude).append(',').append(i % 10 == 0 ? 0.0 : longitude).append(',')
+               .append(speed).append(i % 3 == 0 ? "\r\n" : "\n");        // Small speeds print with exponents
+        }
+        final String text = csv.toString();
+        assertTrue(text.contains("E-"));
+        assertTrue(text.length() > 3 * 8192);
+
+        assertRecords(text, parse(chunked(text, 8192)));
+        assertRecords(text, parse(chunked(text, 1000)));
+        assertRecords(text, parse(new ByteArrayInputStream(text.getBytes())));
+
+        final TripCsvParser parser = new TripCsvParser(chunked(text, 777));
+        parser.readHeader();
+        assertEquals(20000, parser.countRecords());
+    }
+
+    public void testMalformedLine() throws IOException {
+        final String lines[] = {
+                "2000,1500,60.79,x10.69,12.5",
+                "2000,1500,60.79,10.69",
+                "2000,1500,60.79,10.69,",
+                "2000,,60.79,10.69,12.5",
+                "2000,1500,60.79,10.69,1.0E",
+                "2000;1500;60.79;10.69;12.5"
+        };
+        for(String line : lines){
+            final String csv = HEADER + "\n0,1500,60.79,10.69,12.5\n# Comment\n" + line + "\n";
+            try {
+                parse(chunked(csv, 5));
+                fail("Parsed " + line);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().endsWith("line 4"));
+            }
+        }
+    }
+}
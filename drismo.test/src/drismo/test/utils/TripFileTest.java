@@ -0,0 +1,141 @@
+package drismo.test.utils;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import com.drismo.model.TripRecords;
+import com.drismo.model.TripStatistics;
+import com.drismo.utils.MappedTripFile;
+import com.drismo.utils.TripFileWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a binary trip file, and reads it back through the memory mapped reader.
+ */
+public class TripFileTest extends AndroidTestCase {
+
+    private static final String FILE_NAME = "drismo-test.dtf";
+    private static final String UNCLOSED_FILE_NAME = "drismo-test-unclosed.dtf";
+    private static final String CORRUPT_FILE_NAME = "drismo-test-corrupt.dtf";
+    private static final int RECORDS = 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        FileOutputStream out = getContext().openFileOutput(FILE_NAME, Context.MODE_PRIVATE);
+        TripFileWriter writer = new TripFileWriter(out, 2000, 1000L);
+        for(int i = 0; i < RECORDS; i++)
+            writer.append(i * 2000L, 1300 + i % 500, i % 10 == 0 ? 0 : 60.79 + i * 1e-5,
+                          i % 10 == 0 ? 0 : 10.69 + i * 1e-5, i % 30);
+        writer.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteFile(FILE_NAME);
+        getContext().deleteFile(UNCLOSED_FILE_NAME);
+        getContext().deleteFile(CORRUPT_FILE_NAME);
+    }
+
+    /**
+     * Copies the file, with the first block's payload length set to one byte more than a block can hold.
+     */
+    private void writeCorruptCopy(String fileName) throws IOException {
+        FileInputStream in = getContext().openFileInput(fileName);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte buffer[] = new byte[4096];
+        for(int n; (n = in.read(buffer)) > 0; )
+            bytes.write(buffer, 0, n);
+        in.close();
+
+        byte data[] = bytes.toByteArray();
+        assertTrue(data[21] < 0 && data[22] >= 0);                  // Two byte length, after the header and count
+        data[21] = (byte) (0x80 | (961 & 0x7F));                    // 32 records x 30 bytes, + 1
+        data[22] = (byte) (961 >> 7);
+
+        FileOutputStream out = getContext().openFileOutput(CORRUPT_FILE_NAME, Context.MODE_PRIVATE);
+        out.write(data);
+        out.close();
+    }
+
+    public void testReadRange() throws Exception {
+        MappedTripFile file = MappedTripFile.open(getContext(), FILE_NAME);
+        assertTrue(file.hasFooter());
+        assertEquals(RECORDS, file.getRecordCount());
+        assertEquals((RECORDS - 1) * 2000L, file.getLastTime());
+        assertEquals(500, file.findRecord(999000L));
+
+        TripRecords records = new TripRecords();
+        file.readTimeRange(100000L, 200000L, records);
+        assertEquals(50, records.size());
+        assertEquals(100000L, records.getTime(0));
+        assertEquals(1350, records.getScore(0));
+        assertEquals(60790550, records.getLatitudeE6(5));
+
+        records.clear();
+        file.sample(0, RECORDS, 100, records);
+        assertEquals(100, records.size());
+        assertEquals(20000L, records.getTime(1));
+    }
+
+    public void testFooterStatistics() throws Exception {
+        TripStatistics footer = MappedTripFile.open(getContext(), FILE_NAME).getStatistics();
+        TripStatistics streamed = new TripStatistics();
+        MappedTripFile.load(getContext(), FILE_NAME, Integer.MAX_VALUE, streamed);
+
+        assertNotNull(footer);
+        assertEquals(streamed.getRecordCount(), footer.getRecordCount());
+        assertEquals(streamed.getAverageScore(), footer.getAverageScore());
+        assertEquals(1300, footer.getMinScore());
+        assertEquals(1799, footer.getMaxScore());
+        assertEquals(streamed.getBadCount(), footer.getBadCount());
+        assertEquals(streamed.getMaxSpeed(), footer.getMaxSpeed());
+        assertEquals(streamed.getAverageSpeed(), footer.getAverageSpeed());
+        assertEquals(streamed.getDistanceMeters(), footer.getDistanceMeters());
+        assertEquals(1000L, footer.getStartTime());
+    }
+
+    public void testIsClosed() throws Exception {
+        assertTrue(MappedTripFile.isClosed(getContext(), FILE_NAME));
+        assertTrue(MappedTripFile.isClosed(getContext(), "drismo-test"));
+        assertFalse(MappedTripFile.isClosed(getContext(), "drismo-test.csv"));
+        assertFalse(MappedTripFile.isClosed(getContext(), "drismo-missing.dtf"));
+
+        FileOutputStream out = getContext().openFileOutput(UNCLOSED_FILE_NAME, Context.MODE_PRIVATE);
+        TripFileWriter writer = new TripFileWriter(out, 2000, 1000L);
+        for(int i = 0; i < RECORDS; i++)
+            writer.append(i * 2000L, 1500, 60.79, 10.69, 10);
+        writer.flush();                                             // As if the app was killed while logging
+        out.close();
+        assertFalse(MappedTripFile.isClosed(getContext(), UNCLOSED_FILE_NAME));
+        assertFalse(MappedTripFile.open(getContext(), UNCLOSED_FILE_NAME).hasFooter());
+        assertEquals(RECORDS, MappedTripFile.open(getContext(), UNCLOSED_FILE_NAME).getRecordCount());
+    }
+
+    public void testCorruptBlockLength() throws Exception {
+        writeCorruptCopy(FILE_NAME);                                // Indexed, so the block is read when decoded
+        MappedTripFile file = MappedTripFile.open(getContext(), CORRUPT_FILE_NAME);
+        try {
+            file.read(0, 1, new TripRecords());
+            fail("Decoded a block longer than the payload");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        FileOutputStream out = getContext().openFileOutput(UNCLOSED_FILE_NAME, Context.MODE_PRIVATE);
+        TripFileWriter writer = new TripFileWriter(out, 2000, 1000L);
+        for(int i = 0; i < RECORDS; i++)
+            writer.append(i * 2000L, 1500, 60.79, 10.69, 10);
+        writer.flush();
+        out.close();
+        writeCorruptCopy(UNCLOSED_FILE_NAME);                       // No index, so the blocks are scanned on open
+        try {
+            MappedTripFile.open(getContext(), CORRUPT_FILE_NAME);
+            fail("Scanned a block longer than the payload");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -7,21 +7,26 @@ import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
 import com.drismo.R;
+import com.drismo.model.TripMetadata;
 import com.drismo.utils.FileController;
+import com.drismo.utils.TripIndex;
 
 import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 
 public class ArchiveListAdapter extends ArrayAdapter<String> {
 
     private Context context;
     private FileController controller;
+    private TripIndex index;
     private LayoutInflater layoutInflater;
 
     public ArchiveListAdapter(Context context, FileController controller) {
         super(context, 0, controller.listFiles());
         this.context = context;
         this.controller = controller;
+        index = TripIndex.getInstance(context);
         layoutInflater = LayoutInflater.from(context);
     }
 
@@ -34,7 +39,7 @@ public class ArchiveListAdapter extends ArrayAdapter<String> {
     }
 
     private String appendFileExtensionIfNecessary(String trip) {
-        if(!trip.endsWith(FileController.FILE_EXTENSION))
+        if(!FileController.isTripFile(trip))
             trip += FileController.FILE_EXTENSION;
         return trip;
     }
@@ -59,9 +64,18 @@ public class ArchiveListAdapter extends ArrayAdapter<String> {
         else {
             holder = (ViewHolder) convertView.getTag();
         }
-        holder.tripNameView.setText(getItem(position));
-        holder.tripDurationView.setText(getTripDuration(getItem(position)));
-        holder.tripDateView.setText(controller.getTimestamp(getItem(position)));
+        String fileName = getItem(position);
+        TripMetadata metadata = index.get(fileName);     // From memory, the files aren't touched here
+
+        holder.tripNameView.setText(fileName);
+        if(metadata != null) {
+            holder.tripDurationView.setText(formattedDuration(metadata.getDurationSeconds()));
+            holder.tripDateView.setText(new Date(metadata.getLastModified()).toString());
+        }
+        else {                                           // Not indexed yet, filled in by IndexTripsTask
+            holder.tripDurationView.setText(context.getString(R.string.tripLength) + " --");
+            holder.tripDateView.setText("");
+        }
 
         return convertView;
     }
@@ -73,10 +87,6 @@ public class ArchiveListAdapter extends ArrayAdapter<String> {
     }
 
 
-    public String getTripDuration(String fileName) {
-        return formattedDuration(controller.getSecondDurationFromTripFile(fileName));
-    }
-
     private String formattedDuration(int seconds) {
         int minutes  = seconds / 60;
         int hours    = minutes / 60;
@@ -24,7 +24,6 @@ import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Typeface;
-import android.net.Uri;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -39,7 +38,10 @@ import com.drismo.gui.quickaction.QuickActionMenu;
 import com.drismo.model.Trip;
 import com.drismo.task.DeleteAllTask;
 import com.drismo.task.DeleteOneTask;
+import com.drismo.task.ExportTask;
+import com.drismo.task.IndexTripsTask;
 import com.drismo.task.RenameTask;
+import com.drismo.task.ShareTripTask;
 import com.drismo.task.callback.TaskCompleteCallback;
 import com.drismo.utils.FileComparator;
 import com.drismo.utils.FileController;
@@ -94,6 +96,15 @@ public class ArchiveActivity extends BaseActivity implements TaskCompleteCallbac
         quickActionMenu = new QuickActionMenu(this);
         setListItemListeners();
         showEmptyLayoutIfNoTrips();
+        updateTripIndex();
+    }
+
+    private void updateTripIndex() {
+        new IndexTripsTask(this, fileController, new TaskCompleteCallback() {
+            public void onComplete(boolean summarised) {
+                if(summarised) archiveAdapter.notifyDataSetChanged();
+            }
+        }).execute();
     }
 
     private void setListItemListeners() {
@@ -133,10 +144,7 @@ public class ArchiveActivity extends BaseActivity implements TaskCompleteCallbac
     private View.OnClickListener createExportListener(final String fileName) {
         return new View.OnClickListener() {
             public void onClick(View v) {
-                Intent intent = new Intent(Intent.ACTION_SEND);
-                intent.setType("text/csv");
-                intent.putExtra(Intent.EXTRA_STREAM, Uri.parse("file://" + fileController.getDirectoryString() + fileName));
-                startActivity( Intent.createChooser(intent, "Export file..") );
+                new ExportTask(ArchiveActivity.this, fileController).execute(fileName);
                 quickActionMenu.dismiss();
             }
         };
@@ -148,14 +156,8 @@ public class ArchiveActivity extends BaseActivity implements TaskCompleteCallbac
                 try {
                     Trip trip = new Trip(fileName, ArchiveActivity.this);
                     Intent intent = new Intent(ArchiveActivity.this, ShareOnFacebook.class);
-                    intent.putExtra("facebookMessage", trip.getTripSummary());
                     intent.putExtra("shareImage", false);
-
-                    try {
-                        startActivity(intent);
-                    } catch(Exception e){
-                        Toast.makeText(ArchiveActivity.this, "Failed to post to facebook.", Toast.LENGTH_LONG).show();
-                    }
+                    new ShareTripTask(ArchiveActivity.this, intent).execute(trip);   // Adds the summary, and starts it.
                 } catch(IOException e) {
                     e.printStackTrace();
                 } finally {
@@ -223,7 +225,7 @@ public class ArchiveActivity extends BaseActivity implements TaskCompleteCallbac
 
     private EditText createRenameEditText(String fileName) {
         EditText editText = new EditText(this);
-        editText.setText(fileName.substring(0, fileName.length() - FileController.FILE_EXTENSION.length()));
+        editText.setText(fileName.substring(0, fileName.length() - FileController.getExtension(fileName).length()));
         editText.setImeOptions(EditorInfo.IME_ACTION_DONE);
         editText.setSelection(editText.getText().length());
         return editText;
@@ -231,8 +233,9 @@ public class ArchiveActivity extends BaseActivity implements TaskCompleteCallbac
 
     private void tryRenameFile(EditText fileNameInput, String oldFile) {
         String newFileName = fileNameInput.getText().toString();
-        if(!newFileName.endsWith(FileController.FILE_EXTENSION))
-            newFileName += FileController.FILE_EXTENSION;
+        String extension = FileController.getExtension(oldFile);   // Keep the format of the old file
+        if(!newFileName.endsWith(extension))
+            newFileName += extension;
 
         File file = fileController.getFile(newFileName);
 
@@ -23,15 +23,19 @@ package com.drismo.gui;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import com.drismo.R;
+import com.drismo.model.Trip;
+import com.drismo.task.LoadRouteTask;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
-import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapController;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.ScaleBarOverlay;
 import org.osmdroid.views.util.constants.MapViewConstants;
 
+import java.io.IOException;
+
 /**
- * Used to display a archived trip on the map.
+ * Used to display a archived trip on the map. The whole route is loaded and simplified for each zoom level
+ * off the UI thread, and cached with the trip, so long trips open and draw as fast as short ones.
  * @see ViewTrip
  */
 public class BasicMap extends BaseActivity implements MapViewConstants {
@@ -42,15 +46,9 @@ public class BasicMap extends BaseActivity implements MapViewConstants {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.map_layout);
 
-        Bundle extras = getIntent().getExtras();
-        final float[] lats =  extras.getFloatArray("lat");
-        final float[] longs = extras.getFloatArray("long");
-        final int[] colors=  extras.getIntArray("colors");
                                                                         //create the overlay used to draw the trip
         TripOverlay currentTrip = new TripOverlay(getApplicationContext(), BitmapFactory.decodeResource(getResources(), R.drawable.img_map_drismobile));
 
-        currentTrip.updateTripHistory(lats, longs, colors);             //sends the route to the overlay
-
         MapView mapView = (MapView) this.findViewById(R.id.mapview);
         mapView.setTileSource(TileSourceFactory.MAPNIK);
         mapView.setBuiltInZoomControls(true);
@@ -59,11 +57,16 @@ public class BasicMap extends BaseActivity implements MapViewConstants {
         MapController mapController = mapView.getController();
 
         mapController.setZoom(15);
-        final int size = lats.length-1;
-        mapController.setCenter(new GeoPoint(lats[size], longs[size])); // TODO: NoSuchElementException
 
         ScaleBarOverlay mScaleBarOverlay = new ScaleBarOverlay(this);
 	    mapView.getOverlays().add(mScaleBarOverlay);
         mapView.getOverlays().add(currentTrip);
+
+        try {                                                           //sends the route to the overlay, once it's loaded
+            new LoadRouteTask(mapView, currentTrip).execute(
+                    new Trip(getIntent().getStringExtra(ViewTrip.EXTRA_FILENAME), getApplicationContext()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
-}
\ No newline at end of file
+}
@@ -23,26 +23,63 @@ package com.drismo.gui;
 import android.content.Context;
 import android.graphics.*;
 import android.graphics.Paint.Align;
+import android.view.MotionEvent;
 import android.view.View;
 import com.drismo.R;
 import com.drismo.model.Quality;
+import com.drismo.utils.ScorePyramid;
+
+import java.util.Arrays;
 
 /**
  * The class is taken from http://android.arnodenhond.com/components/graphview
  * and modified by us.
  * Used to display the qualitygraph of a trip.
+ * <p>
+ * The graph is laid out once per size change, pan or zoom: every segment goes into one vertex buffer, drawn by
+ * a single <code>drawLines</code>, and the whole plot is rendered into a cached bitmap that is redrawn only when
+ * the layout or the thresholds change. The segments are taken from a {@link ScorePyramid} at the level with
+ * about one bucket per pixel, so the cost is bounded by the width of the view, not the length of the trip.
+ * Since the colors follow the scores, the segments share one vertical gradient, built from the colors at the
+ * scores, instead of a gradient per segment. Nothing is allocated in <code>onDraw()</code>.
  * @see ViewTrip
  */
 public class GraphView extends View {
 
-	private Paint paint;
-	private Paint lastPaint;
+    private static final float BORDER = 20;
+    private static final float HORSTART = BORDER * 2;
+    private static final float LINE_WIDTH = 3;
+    private static final int COLOR_LEVELS = 128;        //score levels of the gradient
+
+	private final Paint paint;
+	private final Paint linePaint;
 	private int[] values;
 	private String[] verlabels;
 	private String title;
     private int[] color;
     private Context c;
 
+    private static final int MIN_VISIBLE = 16;          //samples across the graph at the max zoom
+
+    private final ScorePyramid pyramid;
+    private float first = 0;                            //sample at the left edge of the graph
+    private float visible;                              //samples across the graph
+    private float graphWidth, graphHeight;
+
+    private float lastX;                                //touch state for panning and zooming
+    private boolean pinching = false, repan = false;
+    private float pinchSpan, pinchVisible, pinchSample;
+
+    private float[] lines = new float[0];               //x0, y0, x1, y1 of each segment
+    private float[] grid = new float[0];                //y of each label line
+    private float[] thresholds = new float[3];          //y of the ok, good and excellent thresholds
+    private int lineCount = 0;
+
+    private Bitmap cache;
+    private Canvas cacheCanvas;
+    private boolean cacheValid = false;
+    private int cacheThresholds = -1;
+
     /**
      * Used to set up the graph
      * @param context the context
@@ -56,11 +93,11 @@ public class GraphView extends View {
         color = colors;
 
 		if (values == null)
-			values = new int[0];
+			this.values = new int[0];
 		else
 			this.values = values;
 		if (title == null)
-			title = "";
+			this.title = "";
 		else
 			this.title = title;
                                     //labels for the graph
@@ -68,82 +105,293 @@ public class GraphView extends View {
                                    c.getString(R.string.ok),
                                    c.getString(R.string.bad)};
 
+        pyramid = new ScorePyramid(this.values);
+        visible = Math.max(this.values.length, 1);
 
 		paint = new Paint();
-        lastPaint = new Paint();
-        lastPaint.setColor(Color.GREEN);
+        linePaint = new Paint();
+        linePaint.setColor(Color.LTGRAY);
+        linePaint.setStrokeWidth(LINE_WIDTH);
+        linePaint.setStrokeCap(Paint.Cap.ROUND);
+        linePaint.setAntiAlias(true);
 	}
 
     /**
-     * Draws the graph
-     * @param canvas the canvas to draw on.
+     * Lays out the graph for the new size, and drops the cached plot.
      */
-	@Override
-	protected void onDraw(Canvas canvas) {
-		final float border = 20;
-		final float horstart = border * 2;
-		final float height = getHeight();
-		final float width = getWidth() - 1;
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        synchronized (this){
+            layoutGraph(w, h);
+            releaseCache();
+            cacheValid = false;
+        }
+    }
+
+    /**
+     * Computes the grid and threshold lines, the gradient and the vertex buffer of the graph.
+     * @param w the width of the view
+     * @param h the height of the view
+     */
+    private void layoutGraph(int w, int h) {
+		final float width = w - 1;
         final float max = Quality.MAX_SCORE;
 		final float min = Quality.MIN_SCORE;
 		final float diff = max - min;
-		final float graphheight = height - (2 * border);
-		final float graphwidth = width - (2 * border);
+		final float graphheight = h - (2 * BORDER);
 
-        synchronized (this){
+        int vers = verlabels.length - 1;
+        grid = new float[verlabels.length];
+        for (int i = 0; i < verlabels.length; i++)
+            grid[i] = ((graphheight / vers) * i) + BORDER;
 
-            paint = new Paint();
-            paint.setTextAlign(Align.LEFT);
-            int vers = verlabels.length - 1;
-            for (int i = 0; i < verlabels.length; i++) {
-                paint.setColor(Color.DKGRAY);
-                float y = ((graphheight / vers) * i) + border;
-                canvas.drawLine(horstart, y, width, y, paint);
-                paint.setColor(Color.WHITE);
-                canvas.drawText(verlabels[i], 0, y, paint);
+        thresholds[0] = BORDER - ((Quality.OK_SCORE - min) / diff) * graphheight + graphheight;
+        thresholds[1] = BORDER - ((Quality.GOOD_SCORE - min) / diff) * graphheight + graphheight;
+        thresholds[2] = BORDER - ((Quality.EXCELLENT_SCORE - min) / diff) * graphheight + graphheight;
+
+        graphWidth = width - (2 * BORDER);
+        graphHeight = graphheight;
+        int maxPoints = 2 * (2 * (int) Math.ceil(graphWidth) + 3);  //two per bucket, fewer than 2 buckets per pixel
+        if(lines.length < maxPoints * 4)
+            lines = new float[maxPoints * 4];
+        layoutLines();
+
+        setGradient(BORDER + graphheight, BORDER);
+    }
+
+    /**
+     * Fills the vertex buffer with the visible part of the graph, through the extremes of the pyramid level with
+     * about one bucket per pixel. Zoomed in to less than a sample per pixel, that is one point per sample.
+     */
+    private void layoutLines() {
+        final float min = Quality.MIN_SCORE;
+        final float diff = Quality.MAX_SCORE - min;
+        final float colwidth = graphWidth / visible;
+
+        lineCount = 0;
+        if (values.length == 0 || graphWidth <= 0)
+            return;
+        final int level = pyramid.getLevel(visible, graphWidth);
+        final int size = ScorePyramid.getBucketSize(level);
+        final int firstBucket = Math.max((int) (first / size) - 1, 0);     //one bucket beyond each edge
+        final int lastBucket = Math.min((int) ((first + visible) / size) + 1, pyramid.getBucketCount(level) - 1);
+
+        float lastx = 0, lasty = 0;
+        boolean hasLast = false;
+        for (int b = firstBucket; b <= lastBucket; b++) {
+            final float center = b * size + Math.min(size, values.length - b * size) / 2f;
+            final float x = (center - first) * colwidth + (HORSTART + 1);
+            final int a = pyramid.getFirst(level, b);
+            final int z = pyramid.getSecond(level, b);
+            for (int k = 0; k < (a == z ? 1 : 2); k++) {
+                final float y = (BORDER - graphHeight * (((k == 0 ? a : z) - min) / diff)) + graphHeight;
+                if (hasLast) {
+                    int v = lineCount * 4;
+                    lines[v] = lastx;
+                    lines[v + 1] = lasty;
+                    lines[v + 2] = x;
+                    lines[v + 3] = y;
+                    lineCount++;
+                }
+                lastx = x;
+                lasty = y;
+                hasLast = true;
+            }
+        }
+    }
+
+    /**
+     * Sets a vertical gradient on the line paint, fading through the colors of the values by their score, so
+     * every point of the graph gets the color of its score.
+     * The color of the value nearest the middle of each of <code>COLOR_LEVELS</code> score levels is used.
+     * @param minY the y of <code>Quality.MIN_SCORE</code>
+     * @param maxY the y of <code>Quality.MAX_SCORE</code>
+     */
+    private void setGradient(float minY, float maxY) {
+        final float min = Quality.MIN_SCORE;
+        final float diff = Quality.MAX_SCORE - min;
+        final int[] levelColors = new int[COLOR_LEVELS];
+        final float[] levelRatios = new float[COLOR_LEVELS];
+        final float[] levelDistances = new float[COLOR_LEVELS];
+        Arrays.fill(levelDistances, Float.MAX_VALUE);
+
+        for (int i = 0; i < values.length; i++) {
+            float rat = Math.min(Math.max((values[i] - min) / diff, 0), 1);
+            int level = Math.min((int) (rat * COLOR_LEVELS), COLOR_LEVELS - 1);
+            float distance = Math.abs(rat * COLOR_LEVELS - (level + 0.5f));
+            if (distance < levelDistances[level]) {
+                levelDistances[level] = distance;
+                levelRatios[level] = rat;
+                levelColors[level] = color[i];
             }
+        }
+
+        int stops = 0;
+        for (int level = 0; level < COLOR_LEVELS; level++) {
+            if (levelDistances[level] == Float.MAX_VALUE)
+                continue;
+            levelColors[stops] = levelColors[level];
+            levelRatios[stops] = levelRatios[level];
+            stops++;
+        }
+
+        if (stops < 2) {                                    //one color (or none): no gradient needed
+            linePaint.setShader(null);
+            if (stops == 1)
+                linePaint.setColor(levelColors[0]);
+            return;
+        }
+        final int[] colors = new int[stops];
+        final float[] positions = new float[stops];
+        System.arraycopy(levelColors, 0, colors, 0, stops);
+        System.arraycopy(levelRatios, 0, positions, 0, stops);
+        linePaint.setShader(new LinearGradient(0, minY, 0, maxY, colors, positions, Shader.TileMode.CLAMP));
+    }
 
-            paint.setTextAlign(Align.CENTER);
-            canvas.drawText(title, (graphwidth / 2) + horstart, border - 4, paint);
+    /**
+     * Pans the graph by dragging, and zooms it by pinching.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        synchronized (this){
+            if (values.length == 0 || graphWidth <= 0)
+                return super.onTouchEvent(event);
+            switch (event.getAction() & MotionEvent.ACTION_MASK) {
+                case MotionEvent.ACTION_DOWN:
+                    lastX = event.getX();
+                    repan = false;
+                    return true;
+                case MotionEvent.ACTION_POINTER_DOWN:
+                    if (event.getPointerCount() == 2) {
+                        pinching = true;
+                        pinchSpan = Math.max(Math.abs(event.getX(0) - event.getX(1)), 1);
+                        pinchVisible = visible;
+                        pinchSample = toSample((event.getX(0) + event.getX(1)) / 2);
+                    }
+                    return true;
+                case MotionEvent.ACTION_POINTER_UP:
+                    pinching = false;
+                    repan = true;                           //pan from wherever the remaining finger is
+                    return true;
+                case MotionEvent.ACTION_MOVE:
+                    if (pinching && event.getPointerCount() >= 2) {
+                        float span = Math.max(Math.abs(event.getX(0) - event.getX(1)), 1);
+                        float middle = (event.getX(0) + event.getX(1)) / 2;
+                        float pinched = pinchVisible * pinchSpan / span;
+                        setViewport(pinchSample - (middle - (HORSTART + 1)) / graphWidth * pinched, pinched);
+                    }
+                    else if (!repan)
+                        setViewport(first - (event.getX() - lastX) / graphWidth * visible, visible);
+                    lastX = event.getX();
+                    repan = false;
+                    return true;
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    pinching = false;
+                    return true;
+            }
+        }
+        return super.onTouchEvent(event);
+    }
 
-            if(ViewTrip.showThresholds() == 1){             //draw the quality thresholds
-                paint.setColor(Quality.BAD_COLOR);
-                canvas.drawLine(border, (border - ((Quality.OK_SCORE -min) / diff)*graphheight  + graphheight),
-                                width, (border - ((Quality.OK_SCORE -min) / diff)*graphheight  + graphheight), paint);
+    /**
+     * @return the sample at x on the graph
+     */
+    private float toSample(float x) {
+        return first + (x - (HORSTART + 1)) / graphWidth * visible;
+    }
 
-                paint.setColor(Quality.GOOD_COLOR);
-                canvas.drawLine(border, (border - ((Quality.GOOD_SCORE -min) / diff)*graphheight  + graphheight),
-                                width, (border - ((Quality.GOOD_SCORE -min) / diff)*graphheight  + graphheight), paint);
+    /**
+     * Shows <code>visible</code> samples from <code>first</code>, within the trip, and redraws the graph.
+     */
+    private void setViewport(float first, float visible) {
+        this.visible = Math.max(Math.min(visible, values.length), Math.min(MIN_VISIBLE, values.length));
+        this.first = Math.max(Math.min(first, values.length - this.visible), 0);
+        layoutLines();
+        cacheValid = false;
+        invalidate();
+    }
 
-                paint.setColor(Quality.EXCELLENT_COLOR);
-                canvas.drawLine(border, (border - ((Quality.EXCELLENT_SCORE -min) / diff)*graphheight  + graphheight),
-                                width, (border - ((Quality.EXCELLENT_SCORE -min) / diff)*graphheight  + graphheight), paint);
+    /**
+     * Draws the graph, from the cached plot
+     * @param canvas the canvas to draw on.
+     */
+	@Override
+	protected void onDraw(Canvas canvas) {
+        synchronized (this){
+            if(cache == null){
+                if(getWidth() <= 0 || getHeight() <= 0)
+                    return;
+                cache = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+                cacheCanvas = new Canvas(cache);
+                cacheValid = false;
             }
-            paint.setColor(Color.LTGRAY);
-            paint.setStrokeWidth(3);
-
-            paint.setStrokeCap(Paint.Cap.ROUND);
-            paint.setAntiAlias(true);
-
-            float datalength = values.length;
-            float colwidth = (width - (2 * border)) / datalength;
-            float halfcol = colwidth / 2;
-            float lasth = 0;
-            for (int i = 0; i < values.length; i++) {           //calculate all the graphpoints and draw the graph
-                float val = values[i] - min;
-                float rat = val / diff;
-                float h = graphheight * rat;
-
-                paint.setColor(color[i]);                       //set the shader to fade from the last quality to the current color.
-                paint.setShader(new LinearGradient(((i - 1) * colwidth) + (horstart + 1) + halfcol, (border - lasth) + graphheight,
-                                                    (i * colwidth) + (horstart + 1) + halfcol, (border - h) + graphheight ,lastPaint.getColor(), paint.getColor(), Shader.TileMode.CLAMP));
-
-                if (i > 0)                                     //draw the line between 2 points
-                    canvas.drawLine(((i - 1) * colwidth) + (horstart + 1) + halfcol, (border - lasth) + graphheight,
-                                    (i * colwidth) + (horstart + 1) + halfcol, (border - h) + graphheight, paint);
-                lasth = h;
-                lastPaint.setColor(paint.getColor());
+            if(!cacheValid || cacheThresholds != ViewTrip.showThresholds()){
+                cache.eraseColor(Color.TRANSPARENT);
+                drawGraph(cacheCanvas);
+                cacheValid = true;
+                cacheThresholds = ViewTrip.showThresholds();
             }
+            canvas.drawBitmap(cache, 0, 0, null);
         }
 	}
+
+    /**
+     * Draws the laid out graph
+     * @param canvas the canvas to draw on.
+     */
+    private void drawGraph(Canvas canvas) {
+		final float width = getWidth() - 1;
+		final float graphwidth = width - (2 * BORDER);
+
+        paint.setTextAlign(Align.LEFT);
+        for (int i = 0; i < verlabels.length; i++) {
+            paint.setColor(Color.DKGRAY);
+            canvas.drawLine(HORSTART, grid[i], width, grid[i], paint);
+            paint.setColor(Color.WHITE);
+            canvas.drawText(verlabels[i], 0, grid[i], paint);
+        }
+
+        paint.setTextAlign(Align.CENTER);
+        canvas.drawText(title, (graphwidth / 2) + HORSTART, BORDER - 4, paint);
+
+        if(ViewTrip.showThresholds() == 1){             //draw the quality thresholds
+            paint.setColor(Quality.BAD_COLOR);
+            canvas.drawLine(BORDER, thresholds[0], width, thresholds[0], paint);
+
+            paint.setColor(Quality.GOOD_COLOR);
+            canvas.drawLine(BORDER, thresholds[1], width, thresholds[1], paint);
+
+            paint.setColor(Quality.EXCELLENT_COLOR);
+            canvas.drawLine(BORDER, thresholds[2], width, thresholds[2], paint);
+        }
+
+        if (lineCount > 0) {                            //draw all the lines between 2 points at once
+            canvas.save();
+            canvas.clipRect(HORSTART, 0, width, getHeight());
+            canvas.drawLines(lines, 0, lineCount * 4, linePaint);
+            canvas.restore();
+        }
+    }
+
+    /**
+     * Frees the cached plot.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        synchronized (this){
+            releaseCache();
+        }
+    }
+
+    private void releaseCache() {
+        if(cache != null){
+            cache.recycle();
+            cache = null;
+            cacheCanvas = null;
+        }
+    }
 }
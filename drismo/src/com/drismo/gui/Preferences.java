@@ -30,12 +30,19 @@ import android.preference.Preference.OnPreferenceClickListener;
 import com.drismo.R;
 import com.drismo.model.Config;
 import com.drismo.logic.sms.MessageHandler;
+import com.drismo.task.InstallGazetteerTask;
+import com.drismo.task.callback.TaskCompleteCallback;
+import com.drismo.utils.GeocodeCache;
+import com.drismo.utils.OfflineGeocoder;
 
 /**
  * Set up the preferences, and handle changes.
  */
 public class Preferences extends PreferenceActivity
                          implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private Preference geocodeOnline;
+    private PreferenceCategory monitor;
+
     /**
      * Load the current preferences, and disable some preference items accordingly.
      * @param savedInstanceState Not beeing used, as <code>onSaveInstanceState(Bundle)</code> is not implemented.
@@ -73,6 +80,27 @@ public class Preferences extends PreferenceActivity
             activatePref(logGps);
         }
 
+        monitor = (PreferenceCategory) findPreference("monitorCategory");
+        geocodeOnline = findPreference("geocodeOnline");
+        OfflineGeocoder offline = OfflineGeocoder.getInstance(this);
+        if(!offline.isInstalled(GeocodeCache.CITY) && !offline.isInstalled(GeocodeCache.STREET)) {
+            monitor.removePreference(geocodeOnline);                    // Every name is looked up online
+        }                                                               //  until a gazetteer is installed.
+
+        // Build the offline place name indexes from the files on the SD card.
+        Preference installGazetteer = findPreference("installGazetteer");
+        installGazetteer.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            public boolean onPreferenceClick(Preference preference) {
+                new InstallGazetteerTask(Preferences.this, new TaskCompleteCallback() {
+                    public void onComplete(boolean success) {
+                        if(success && monitor.findPreference("geocodeOnline") == null)
+                            monitor.addPreference(geocodeOnline);
+                    }
+                }).execute();
+                return true;
+            }
+        });
+
 //        findPreference("languageSelection").setSummary(Config.getLangSummaryText());
 
         // Popup modal window to display information about this feature.
@@ -132,6 +160,12 @@ public class Preferences extends PreferenceActivity
         if (key.equals("logGps")) {
             Config.setLogGps(sp.getBoolean(key, true));
         }
+        if (key.equals("geocodeOnline")) {
+            Config.setGeocodeOnline(sp.getBoolean(key, true));
+        }
+        if (key.equals("mapHistory")) {
+            Config.setMapHistorySeconds(Integer.parseInt(sp.getString(key, "60")));
+        }
         if (key.equals("monitorChoice")) {
             Config.setPrefMonitor(Integer.parseInt(sp.getString(key, "2").trim()));
         }
@@ -22,24 +22,56 @@ package com.drismo.gui;
 
 import android.content.Context;
 import android.graphics.*;
-import com.drismo.model.MapPoint;
-import org.osmdroid.util.GeoPoint;
+import com.drismo.model.RouteHistory;
+import com.drismo.utils.BoundingBoxTree;
+import com.drismo.utils.RouteSimplifier;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.Overlay;
-import java.util.LinkedList;
 
 /**
  * Overlay for the BasicMap an mapMonitor, draws the route.
+ * <p>
+ * The route is projected once to map pixels at the max zoom level. For each zoom level it is drawn at, the
+ * points of that level of the simplified route (if it's given) are put in a bounding box hierarchy, and their
+ * segments grouped into paths of one color per leaf; panning only moves those paths, and only the leaves on the
+ * screen are drawn. Colors are rounded to 5 bits per channel, so a run of similar scores becomes one path.
+ * <p>
+ * A live route is read in place from a {@link RouteHistory}; only the locations added since the last frame are
+ * projected.
  */
 public class TripOverlay extends Overlay {
 
-    private MapPoint[] mapPoints;
+    private static final int LEAF_SEGMENTS = 32;
+    private static final int COLOR_MASK = 0xFFF8F8F8;
+    private static final float STROKE_WIDTH = 10;
+
     private float[] lat;
     private float[] longs;
     private int[] color;
+    private byte[] zoomLevels;                          //lowest zoom level of each point, null to draw them all
+    private RouteHistory history;                       //the live route, instead of the arrays
+    private long historyAdded;                          //locations of the history added when it was last read
+    private int historyFirst;                           //slot of the oldest location, when it was last read
+    private int pointCount = 0;
     private Bitmap drismobil;
     private Paint paint;
-    private int lastPaint;
+
+    private int[] projectedX, projectedY;               //map pixels at PROJECTED_ZOOM by slot, null until projected
+    private int[] levelPoints, levelX, levelY;          //the points drawn at cachedZoom
+    private int levelCount;
+    private BoundingBoxTree tree;
+    private int[] visibleLeaves = new int[0];
+
+    private int cachedZoom = -1;                        //the zoom level the paths are built for
+    private int originX, originY;                       //map pixels of the first point, at cachedZoom
+    private Path[] paths = new Path[0];                 //relative to the origin, grouped by leaf
+    private int[] pathColors = new int[0];
+    private int[] leafPaths = new int[1];               //first path of each leaf, and the path count
+    private int pathCount = 0;
+
+    private final Point zero = new Point();
+    private final Point offset = new Point();
+    private final Point point = new Point();
 
     /**
      * @param applicationContext The context
@@ -49,14 +81,14 @@ public class TripOverlay extends Overlay {
         super(applicationContext);
         drismobil = drawable;
         paint = new Paint();
-        lastPaint =0;
         lat = new float[0];
         longs =new float[0];
         color =new int[0];
-        paint.setStrokeWidth(10);
+        paint.setStrokeWidth(STROKE_WIDTH);
         paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStyle(Paint.Style.STROKE);
         paint.setAntiAlias(true);
-        mapPoints = new MapPoint[0];
     }
 
     /**
@@ -67,51 +99,165 @@ public class TripOverlay extends Overlay {
      */
     @Override
     protected void draw(Canvas canvas, MapView mapView, boolean b) {
+        synchronized (this){
+            final MapView.Projection projection = mapView.getProjection();
+            if(history != null)
+                readHistory(projection);
+            else if(projectedX == null)
+                project(projection);
+            if(pointCount < 2)
+                return;
 
-        lastPaint = Color.GREEN;
-        paint.setColor(Color.GREEN);
+            final int zoom = projection.getZoomLevel();
+            if(zoom != cachedZoom)
+                buildPaths(zoom);
 
-        Point from = new Point();
-        Point to = new Point();
-        synchronized (this){
-            Rect rect = mapView.getProjection().getScreenRect();     //used to find out if points are on the screen
+            final int shift = RouteSimplifier.PROJECTED_ZOOM - zoom;
+            projection.toMapPixelsTranslated(zero, offset);        //map pixels of the projected origin, on the screen
+            final int dx = originX + offset.x;
+            final int dy = originY + offset.y;
+
+            Rect rect = projection.getScreenRect();                 //cull the leaves that are off the screen
+            final int margin = (int) STROKE_WIDTH;
+            final int leaves = tree.query((rect.left - margin - offset.x) << shift, (rect.top - margin - offset.y) << shift,
+                                          (rect.right + margin - offset.x) << shift, (rect.bottom + margin - offset.y) << shift,
+                                          visibleLeaves);
+
+            canvas.save();
+            canvas.translate(dx, dy);
+            for(int l = 0; l < leaves; l++){
+                final int leaf = visibleLeaves[l];
+                for(int p = leafPaths[leaf]; p < leafPaths[leaf + 1]; p++){
+                    paint.setColor(pathColors[p]);
+                    canvas.drawPath(paths[p], paint);
+                }
+            }
+            canvas.restore();
+
+            final float endX = (levelX[levelCount - 1] >> shift) + offset.x;
+            final float endY = (levelY[levelCount - 1] >> shift) + offset.y;
+            canvas.drawBitmap(drismobil, endX - (60*mScale), endY - (20*mScale), null);
+        }
+    }
+
+    /**
+     * Projects the route to map pixels at <code>PROJECTED_ZOOM</code>.
+     */
+    private void project(MapView.Projection projection) {
+        final int size = lat.length;
+        projectedX = new int[size];
+        projectedY = new int[size];
+        for(int i = 0; i < size; i++){
+            projection.toMapPixelsProjected((int) (lat[i] * 1e6), (int) (longs[i] * 1e6), point);
+            projectedX[i] = point.x;
+            projectedY[i] = point.y;
+        }
+        levelPoints = new int[size];
+        levelX = new int[size];
+        levelY = new int[size];
+        pointCount = size;
+        cachedZoom = -1;
+    }
+
+    /**
+     * Projects the locations added to the history since it was last read, into the slots they're held in.
+     */
+    private void readHistory(MapView.Projection projection) {
+        long added;
+        int size, first, started;
+        do {
+            started = history.beginRead();
+            added = history.getAddedCount();
+            size = history.size();
+            first = history.getSlot(0);
+            for(int k = size - (int) Math.min(added - historyAdded, size); k < size; k++){
+                final int slot = history.getSlot(k);
+                projection.toMapPixelsProjected(history.getLatitudeE6(slot), history.getLongitudeE6(slot), point);
+                projectedX[slot] = point.x;
+                projectedY[slot] = point.y;
+                color[slot] = history.getColor(slot);
+            }
+        } while(!history.endRead(started));
 
-            final int size = lat.length;
-            if(lat != null && size >1){
+        if(added != historyAdded){
+            historyAdded = added;
+            historyFirst = first;
+            pointCount = size;
+            cachedZoom = -1;
+        }
+    }
 
-                for(int i =1; i < size; i++){
-                    mapView.getProjection().toPixels(new GeoPoint(lat[i-1], longs[i-1]), from);
-                    mapView.getProjection().toPixels(new GeoPoint(lat[i], longs[i]), to);
+    /**
+     * Selects the points of a zoom level, builds their bounding box hierarchy, and the paths of each leaf: one
+     * path per color, relative to the first point. Each segment gets the color of the point it ends at.
+     */
+    private void buildPaths(int zoom) {
+        final int shift = RouteSimplifier.PROJECTED_ZOOM - zoom;
+        if(history == null && zoomLevels != null && zoomLevels.length == pointCount)
+            levelCount = RouteSimplifier.select(zoomLevels, zoom, levelPoints);
+        else {
+            final int capacity = projectedX.length;
+            for(int i = 0; i < pointCount; i++)
+                levelPoints[i] = (historyFirst + i) % capacity;     //the slots, from the oldest
+            levelCount = pointCount;
+        }
+        for(int k = 0; k < levelCount; k++){
+            levelX[k] = projectedX[levelPoints[k]];
+            levelY[k] = projectedY[levelPoints[k]];
+        }
+        tree = new BoundingBoxTree(levelX, levelY, levelCount, LEAF_SEGMENTS);
+        if(visibleLeaves.length < tree.getLeafCount())
+            visibleLeaves = new int[tree.getLeafCount()];
+
+        final int leafCount = tree.getLeafCount();
+        originX = levelX[0] >> shift;
+        originY = levelY[0] >> shift;
+        if(leafPaths.length < leafCount + 1)
+            leafPaths = new int[leafCount + 1];
 
-                    if(rect.contains(to.x ,to.y)){                  //if the point is on the screen, draw it.
-                        paint.setColor(color[i]);
-                        paint.setShader(new LinearGradient(from.x, from.y, to.x, to.y, lastPaint, paint.getColor(), Shader.TileMode.CLAMP));
-                        canvas.drawLine(from.x, from.y, to.x, to.y, paint);
-                        lastPaint = paint.getColor();
-                    }
+        pathCount = 0;
+        for(int leaf = 0; leaf < leafCount; leaf++){
+            leafPaths[leaf] = pathCount;
+            final int first = leaf * LEAF_SEGMENTS;
+            final int last = Math.min(first + LEAF_SEGMENTS, levelCount - 1);
+            int current = -1;                                       //the path the last segment went into
+            for(int i = first + 1; i <= last; i++){
+                final int segmentColor = color[levelPoints[i]] & COLOR_MASK;
+                final boolean continues = current >= 0 && pathColors[current] == segmentColor;
+                if(!continues){
+                    current = -1;
+                    for(int p = leafPaths[leaf]; p < pathCount && current < 0; p++)
+                        if(pathColors[p] == segmentColor)
+                            current = p;
+                    if(current < 0)
+                        current = newPath(segmentColor);
+                    paths[current].moveTo((levelX[i - 1] >> shift) - originX, (levelY[i - 1] >> shift) - originY);
                 }
-                canvas.drawBitmap(drismobil, to.x - (60*mScale), to.y - (20*mScale), null);
+                paths[current].lineTo((levelX[i] >> shift) - originX, (levelY[i] >> shift) - originY);
             }
         }
+        leafPaths[leafCount] = pathCount;
+        cachedZoom = zoom;
     }
 
     /**
-     * updates the trip from a linkedlist of MapPoints.
-     * @see com.drismo.gui.monitor.MapMonitor
-     * @param mapP the linkedlist
+     * @return A new, empty path of the color, reusing the paths of the last zoom level.
      */
-    public void updateTripHistory(LinkedList<MapPoint> mapP) {
-        mapPoints = mapP.toArray(mapPoints);
-        final int size = mapPoints.length;
-        lat =new float[size];
-        longs =new float[size];
-        color =new int[size];
-
-        for(int i =0; i<size; i++){
-            lat[i]   = mapPoints[i].latitude;
-            longs[i] = mapPoints[i].longitude;
-            color[i] = mapPoints[i].color;
+    private int newPath(int pathColor) {
+        if(pathCount == paths.length){
+            final Path grown[] = new Path[Math.max(2 * pathCount, 16)];
+            System.arraycopy(paths, 0, grown, 0, pathCount);
+            final int grownColors[] = new int[grown.length];
+            System.arraycopy(pathColors, 0, grownColors, 0, pathCount);
+            paths = grown;
+            pathColors = grownColors;
         }
+        if(paths[pathCount] == null)
+            paths[pathCount] = new Path();
+        else
+            paths[pathCount].rewind();
+        pathColors[pathCount] = pathColor;
+        return pathCount++;
     }
 
     /**
@@ -121,9 +267,48 @@ public class TripOverlay extends Overlay {
      * @param long1 array with longitudes
      * @param colors array with all the colors, matching the lats/long1
      */
-    public void updateTripHistory(float[] lats, float[] long1, int[] colors) {
+    public synchronized void updateTripHistory(float[] lats, float[] long1, int[] colors) {
         lat = lats.clone();
         longs = long1.clone();
         color = colors.clone();
+        zoomLevels = null;
+        history = null;
+        historyFirst = 0;
+        projectedX = projectedY = null;
+    }
+
+    /**
+     * Used to update the trip from arrays, with its simplification: only the points of the current zoom level
+     * are drawn.
+     * @see com.drismo.task.LoadRouteTask
+     * @param lats array with all the latitudes
+     * @param long1 array with longitudes
+     * @param colors array with all the colors, matching the lats/long1
+     * @param zoomLevels the lowest zoom level of each point, from <code>RouteSimplifier</code>
+     */
+    public synchronized void updateTripHistory(float[] lats, float[] long1, int[] colors, byte[] zoomLevels) {
+        updateTripHistory(lats, long1, colors);
+        this.zoomLevels = zoomLevels;
+    }
+
+    /**
+     * Used to draw a live route, read from the history as locations are added to it.
+     * @see com.drismo.gui.monitor.MapMonitor
+     * @param routeHistory the history of the route
+     */
+    public synchronized void setRouteHistory(RouteHistory routeHistory) {
+        history = routeHistory;
+        historyAdded = 0;
+        historyFirst = 0;
+        pointCount = 0;
+        zoomLevels = null;
+        final int capacity = routeHistory.getCapacity();
+        projectedX = new int[capacity];
+        projectedY = new int[capacity];
+        color = new int[capacity];
+        levelPoints = new int[capacity];
+        levelX = new int[capacity];
+        levelY = new int[capacity];
+        cachedZoom = -1;
     }
 }
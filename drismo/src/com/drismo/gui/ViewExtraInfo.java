@@ -25,14 +25,23 @@ import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
 import com.drismo.R;
+import com.drismo.logic.JsonFunctions;
 import com.drismo.model.Config;
 import com.drismo.model.Quality;
+import com.drismo.model.TripStatistics;
+import com.drismo.task.LoadTripTask;
+import com.drismo.task.LookupPlacesTask;
+import com.drismo.task.callback.TaskCompleteCallback;
+import com.drismo.utils.MappedTripFile;
 
+import java.io.IOException;
 import java.text.DecimalFormat;
 
 /**
  * TODO: FK
- * Used to give a text presentation of the trip quality
+ * Used to give a text presentation of the trip quality. The statistics are read from the footer of the trip
+ * file, or summed up while the file is streamed by in the background for trips without them, without loading
+ * the trip.
  * @see ViewTrip
  */
 public class ViewExtraInfo extends BaseActivity {
@@ -46,6 +55,32 @@ public class ViewExtraInfo extends BaseActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.infoview);
 
+        final String filename = getIntent().getStringExtra(ViewTrip.EXTRA_FILENAME);
+        if(MappedTripFile.isClosed(this, filename)){
+            TripStatistics statistics = new TripStatistics();
+            try {
+                statistics = MappedTripFile.loadStatistics(this, filename);     // From the footer
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            showStatistics(statistics);
+            return;
+        }
+
+        final TripStatistics statistics = new TripStatistics();
+        new LoadTripTask(getParent() != null ? getParent() : this, statistics, Integer.MAX_VALUE,
+                         new TaskCompleteCallback() {
+            public void onComplete(boolean success) {
+                showStatistics(statistics);
+            }
+        }).execute(filename);
+    }
+
+    /**
+     * Fills in all the values.
+     * @param statistics The statistics of the trip.
+     */
+    private void showStatistics(TripStatistics statistics){
         TextView avgSpeed = (TextView) findViewById(R.id.avgspeedvalue);
         TextView maxSpeed = (TextView) findViewById(R.id.maxspeedvalue);
         TextView badDur = (TextView) findViewById(R.id.badrivingvalue);
@@ -59,13 +94,9 @@ public class ViewExtraInfo extends BaseActivity {
         TextView fromLocation = (TextView) findViewById(R.id.fromLocation);
         TextView toLocation = (TextView) findViewById(R.id.toLocation);
 
-        Bundle extras = getIntent().getExtras();
-
-        final float[] speed = extras.getFloatArray("speed");
-        final int[] score=  extras.getIntArray("score");
-        final int updateS=  extras.getInt("ms")/1000;
-        final float tripM = extras.getFloat("tripM");
-        final float tripKM = extras.getFloat("tripKM");
+        final int updateS=  statistics.getRefreshRate()/1000;
+        final float tripM = statistics.getDistanceMeters();
+        final float tripKM = tripM/1000f;
 
         String speedUnit;
         String speedUnitPref = Config.getSpeedUnit();
@@ -73,53 +104,26 @@ public class ViewExtraInfo extends BaseActivity {
         else if (speedUnitPref.equals("mph"))  speedUnit = getString(R.string.mph);
         else                                   speedUnit = getString(R.string.m_s);
 
-        float speedBuff=0;
-        float maxSpeedBuff =0;
         float tripLength;
         String tripLengthString;
-        final int size =speed.length;
-        int badCount=0;
-        int okCount=0;
-        int goodCount=0;
-        int excellentCount=0;
-        int avgBuff=0;
+        final int size = statistics.getRecordCount();
         int totSec = updateS * size;
         int minutes = totSec/ 60;
         int hour = minutes/60;
         minutes %= 60;
         totSec %= 60;
-        int nulls=0;
 
         if(size >0){
+            final int avgBuff = statistics.getAverageScore();
+            final float avgSpeedBuff = statistics.getAverageSpeed();
+            final float maxSpeedBuff = statistics.getMaxSpeed();
 
-            for(int i = 0; i < size; i++){
-                speedBuff += speed[i];
-                avgBuff += score[i];
-
-                if(speed[i] > maxSpeedBuff)
-                    maxSpeedBuff = speed[i];
-
-                if(score[i] > Quality.EXCELLENT_SCORE)
-                    excellentCount++;
-                else if(score[i] <= Quality.EXCELLENT_SCORE && score[i] > Quality.GOOD_SCORE)
-                    goodCount++;
-                else if(score[i] <= Quality.GOOD_SCORE && score[i] > Quality.OK_SCORE)
-                    okCount++;
-                else
-                    badCount++;
-
-                if(speed[i] == 0){
-                    nulls++;
-                }
-            }
-
-            avgBuff/=size;
-            avgSpeed.setText((size - nulls > 0) ? ((int) ((speedBuff / (size-nulls))* Config.getSpeedConv())) +" "+ speedUnit : "--");
+            avgSpeed.setText((avgSpeedBuff > 0) ? ((int) (avgSpeedBuff * Config.getSpeedConv())) +" "+ speedUnit : "--");
             maxSpeed.setText((maxSpeedBuff > 0) ? ((int) (maxSpeedBuff * Config.getSpeedConv())) +" "+speedUnit : "--" );
-            badDur.setText(getPercent(badCount,size)+"%");
-            okDur.setText(getPercent(okCount, size)+"%");
-            goodDur.setText(getPercent(goodCount, size)+"%");
-            exelDur.setText(getPercent(excellentCount,size)+"%");
+            badDur.setText(getPercent(statistics.getBadCount(), size)+"%");
+            okDur.setText(getPercent(statistics.getOkCount(), size)+"%");
+            goodDur.setText(getPercent(statistics.getGoodCount(), size)+"%");
+            exelDur.setText(getPercent(statistics.getExcellentCount(), size)+"%");
 
             avgScore.setText(Integer.toString(avgBuff));
             avgScore.setTextColor(Quality.getColorFromScore(avgBuff));
@@ -144,8 +148,7 @@ public class ViewExtraInfo extends BaseActivity {
 
             if(!avgSpeed.getText().equals("--")) {
                 distanceText.setText(tripLengthString);
-                fromLocation.setText(extras.getString("fromStreet") + ", " + extras.getString("fromCity"));
-                toLocation.setText(extras.getString("toStreet") + ", " + extras.getString("toCity"));
+                showLocationNames(statistics, fromLocation, toLocation);
             }
             else {                             // No interesting GPS-readings, so we don't show those rows.
                 findViewById(R.id.gpsunavailable).setVisibility(View.VISIBLE);
@@ -166,6 +169,21 @@ public class ViewExtraInfo extends BaseActivity {
             Toast.makeText(getApplicationContext(), R.string.noInfo, Toast.LENGTH_SHORT).show(); //todo
     }
 
+    /**
+     * Shows "street, city" of the start and the end of the trip, once they are looked up in the background.
+     */
+    private void showLocationNames(TripStatistics statistics, TextView fromLocation, TextView toLocation){
+        if(!statistics.hasLocation()){
+            final String unknown = getString(R.string.unknown) + ", " + getString(R.string.unknown);
+            fromLocation.setText(unknown);
+            toLocation.setText(unknown);
+            return;
+        }
+        fromLocation.setText(JsonFunctions.NOT_FOUND);
+        toLocation.setText(JsonFunctions.NOT_FOUND);
+        new LookupPlacesTask(this, fromLocation, toLocation).execute(statistics);
+    }
+
     private final int getPercent(final int x, final int total){
         return (int)(((float)x/(float) total)*100);
     }
@@ -20,14 +20,11 @@
 
 package com.drismo.gui;
 
-import android.app.ProgressDialog;
 import android.app.TabActivity;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -37,19 +34,33 @@ import android.widget.Toast;
 import com.drismo.R;
 import com.drismo.facebook.ShareOnFacebook;
 import com.drismo.model.Config;
+import com.drismo.model.Quality;
 import com.drismo.model.Trip;
+import com.drismo.model.TripRecords;
+import com.drismo.task.LoadTripTask;
+import com.drismo.task.ShareTripTask;
+import com.drismo.task.callback.TaskCompleteCallback;
+import com.drismo.utils.MappedTripFile;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 /**
- * Handles displaying of a trip and shows the different info in different views.
+ * Handles displaying of a trip and shows the different info in different views. The trip file is not loaded:
+ * the graph is drawn from records sampled through a memory mapping of the file, and the map and info tabs read
+ * the file themselves when they are opened. Trips that have to be read whole (legacy CSV trips, and trips that
+ * were not closed) are read in the background.
  */
 public class ViewTrip extends TabActivity {
 
     public static final String EXTRA_FILENAME = "EXTRA_FILENAME";
 
+    /** Max number of records sampled for the graph, enough to zoom in to seconds on a trip of hours. */
+    private static final int GRAPH_RECORDS = 32768;
+
     private static int showThresholds;
+    private String filename;
+    private TripRecords samples;
     private Trip trip;
     private GraphView graphView;
 
@@ -66,10 +77,16 @@ public class ViewTrip extends TabActivity {
             Config.setConfigLocale(getBaseContext(), Config.getLanguageCode());
         } catch(Exception e){}
 
-        final String filename = getIntent().getStringExtra(EXTRA_FILENAME);     //gets the name of the file to display
+        filename = getIntent().getStringExtra(EXTRA_FILENAME);     //gets the name of the file to display
 
         tabHost = getTabHost();
 
+        if(MappedTripFile.isClosed(getApplicationContext(), filename)){
+            readTripFile(filename);         // Samples a bounded number of records, so this is quick for any trip.
+            populateActivity();
+            return;
+        }
+
         /**
          * The following 9 lines of code is a workaround to get a spinner while loading a trip on Android v2.1.
          *   The app crashes if the tabHost is empty when returning from onCreate.
@@ -84,39 +101,12 @@ public class ViewTrip extends TabActivity {
         tabHost.addTab(empty);
         getTabWidget().getChildAt(0).getLayoutParams().height =1;
 
-
-
-        final ProgressDialog dialog = new ProgressDialog(this);
-        dialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
-        dialog.setIndeterminateDrawable(getResources().getDrawable(R.anim.loading));
-        dialog.setCancelable(false);
-        dialog.setMessage("Loading.. please wait..");
-        dialog.show();
-
-        final Handler handler = new Handler() {
-            public final static int POPULATE_ACTIVITY = 0;
-            public void handleMessage(Message msg){
-                if(msg.what == POPULATE_ACTIVITY)
-                    populateActivity();
-            }
-        };
-
-        /**
-         * Reads trip while displaying a loader. Populates the activity when done reading the trip file.
-         */
-        new Thread(){
-            public void run(){
-                synchronized (this){
-                    try{
-                        readTripFile(filename);
-                        dialog.dismiss();
-                        handler.sendEmptyMessage(0);
-                    }catch(Exception e){
-                        e.printStackTrace();
-                    }
-                }
+        samples = new TripRecords();
+        new LoadTripTask(this, samples, GRAPH_RECORDS, new TaskCompleteCallback() {
+            public void onComplete(boolean success) {
+                populateActivity();
             }
-        }.start();
+        }).execute(filename);
     }
 
     /**
@@ -128,17 +118,32 @@ public class ViewTrip extends TabActivity {
     }
 
     /**
-     * Reads one trip, based of the given file name.
+     * Samples the records of one trip for the graph, based of the given file name. Reads legacy CSV trips whole.
      * @param filename File to read.
      */
     public void readTripFile(String filename){
+        samples = new TripRecords();
         try {
-            trip = new Trip(filename, getApplicationContext());
+            MappedTripFile.load(getApplicationContext(), filename, GRAPH_RECORDS, samples);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return The trip, opened the first time it's needed (for the Facebook summary).
+     */
+    private Trip getTrip(){
+        if(trip == null){
+            try {
+                trip = new Trip(filename, getApplicationContext());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return trip;
+    }
+
     /**
      * Populates the activity's tabs & views.
      */
@@ -149,9 +154,20 @@ public class ViewTrip extends TabActivity {
         showThresholds = 0;
 
         TabHost.TabSpec graphSpec, mapSpec, infoSpec;       // TabSpecs for each tab
+
+        final int size = samples.size();
+        final int scores[] = new int[size];
+        final int colors[] = new int[size];
+        boolean gpsCordsAvailable = false;
+        for(int i = 0; i < size; i++){
+            scores[i] = samples.getScore(i);
+            colors[i] = Quality.getDynamicColorFromScore(scores[i]);
+            if(samples.getLongitudeE6(i) != 0)
+                gpsCordsAvailable = true;
+        }
                                                                 //the score graph
         graphView = new GraphView(
-                ViewTrip.this, trip.getScoreArray() , getString(R.string.trip) +" ", trip.getColorArray()
+                ViewTrip.this, scores, getString(R.string.trip) +" ", colors
         );
 
         graphSpec = tabHost.newTabSpec(getString(R.string.graph)).setIndicator(getString(R.string.graph)).setContent(new TabHost.TabContentFactory() {
@@ -160,23 +176,13 @@ public class ViewTrip extends TabActivity {
             }} );
 
         Intent intent = new Intent(getApplicationContext(), BasicMap.class);
-        intent.putExtra("lat", trip.getLatitudeArray());
-        intent.putExtra("long", trip.getLongitudeArray());
-        intent.putExtra("colors", trip.getShortColorArray());
+        intent.putExtra(EXTRA_FILENAME, filename);
 
         mapSpec = tabHost.newTabSpec(getString(R.string.map))
                 .setIndicator(getString(R.string.map)).setContent(intent);
 
         intent = new Intent(getApplicationContext(), ViewExtraInfo.class);
-        intent.putExtra("speed", trip.getSpeedArray());
-        intent.putExtra("score", trip.getScoreArray());
-        intent.putExtra("ms", trip.getRefreshRate());
-        intent.putExtra("tripM", trip.getTripLengthInMeters());
-        intent.putExtra("tripKM", trip.getTripLengthInKM());
-        intent.putExtra("fromStreet", trip.getStartStreet());
-        intent.putExtra("fromCity", trip.getStartCity());
-        intent.putExtra("toStreet", trip.getDestinationStreet());
-        intent.putExtra("toCity", trip.getDestinationCity());
+        intent.putExtra(EXTRA_FILENAME, filename);
 
         infoSpec = tabHost.newTabSpec(getString(R.string.shortInfo))
                 .setIndicator(getString(R.string.shortInfo)).setContent(intent);
@@ -189,7 +195,7 @@ public class ViewTrip extends TabActivity {
         getTabWidget().getChildAt(1).getLayoutParams().height =50;
         getTabWidget().getChildAt(2).getLayoutParams().height =50;
 
-        if(!trip.isGpsCordsAvailable() ){
+        if(!gpsCordsAvailable){
             getTabWidget().getChildAt(1).setFocusable(false);
             getTabWidget().getChildAt(1).setOnClickListener(new View.OnClickListener() {
                 public void onClick(View view) {
@@ -241,12 +247,17 @@ public class ViewTrip extends TabActivity {
                 }
                 return true;
             case R.id.postFacebook:
+                final Trip summaryTrip = getTrip();
+                if(summaryTrip == null){                                // The trip file couldn't be read.
+                    Toast.makeText(this, "Failed to post to facebook.", Toast.LENGTH_LONG).show();
+                    return true;
+                }
+
                 String tabTag = getTabHost().getCurrentTabTag();
 
                 Intent myIntent = new Intent(ViewTrip.this, ShareOnFacebook.class);
 
                 myIntent.putExtra("shareTripImage", true);
-                myIntent.putExtra("facebookMessage", trip.getTripSummary());
 
                 if(tabTag.equals(getString(R.string.graph))){
                     myIntent.putExtra("tripImage", saveGraph(graphView).toByteArray());
@@ -255,12 +266,7 @@ public class ViewTrip extends TabActivity {
                    myIntent.putExtra("tripImage", saveGraph(getTabWidget().getChildAt(1).getRootView()).toByteArray());
                 }
 
-                try{
-                    startActivity(myIntent);            // Start activity to share the summary on Facebook.
-                }catch(Exception e){
-                    e.printStackTrace();
-                    Toast.makeText(ViewTrip.this, "Failed to post to facebook.", Toast.LENGTH_LONG).show();
-                }
+                new ShareTripTask(this, myIntent).execute(summaryTrip);  // Share the summary on Facebook, once it's built.
 
                 return true;
             default:
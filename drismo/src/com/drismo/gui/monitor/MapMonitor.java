@@ -29,9 +29,10 @@ import android.view.View;
 import android.widget.ImageView;
 import com.drismo.R;
 import com.drismo.gui.TripOverlay;
-import com.drismo.model.MapPoint;
 import com.drismo.logic.NewLocationListener;
+import com.drismo.model.Config;
 import com.drismo.model.Quality;
+import com.drismo.model.RouteHistory;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapController;
@@ -39,18 +40,19 @@ import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.ScaleBarOverlay;
 import org.osmdroid.views.util.constants.MapViewConstants;
 
-import java.util.LinkedList;
-
 public class MapMonitor extends MonitorActivityTemplate implements MapViewConstants, NewLocationListener {
 
     private MapView mapView;
     private MapController mapController;
     private ScaleBarOverlay mScaleBarOverlay;
     private TripOverlay currentTrip;
-    private int historySeconds;
-    private LinkedList<MapPoint> mapPoints;
+    private RouteHistory history;
+    private final GeoPoint center = new GeoPoint(0, 0);
     private int score;
 
+    /** Max GPS fixes per second the history has room for (they come about once a second). */
+    private static final int MAX_FIXES_PER_SECOND = 2;
+
     /**
      * Handler required to communicate between the thread firing <code>onQualityUpdate()</code> and
      * the current thread.
@@ -72,10 +74,11 @@ public class MapMonitor extends MonitorActivityTemplate implements MapViewConsta
     protected void setUpLayout() {
         setContentView(R.layout.map_layout);
 
-        mapPoints = new LinkedList<MapPoint>();
-        historySeconds = 50;
+        final int historySeconds = Config.getMapHistorySeconds();
+        history = new RouteHistory(historySeconds * MAX_FIXES_PER_SECOND + 1, historySeconds * 1000L);
 
         currentTrip = new TripOverlay(getApplicationContext(),BitmapFactory.decodeResource(getResources(), R.drawable.img_map_drismobile));
+        currentTrip.setRouteHistory(history);
 
         mapView = (MapView) this.findViewById(R.id.mapview);
         mapView.setTileSource(TileSourceFactory.MAPNIK);
@@ -123,21 +126,20 @@ public class MapMonitor extends MonitorActivityTemplate implements MapViewConsta
 
 
     /**
-     * When there is a new location, add it to the mapPoint list, if it is a real location.
+     * When there is a new location, add it to the route history, dropping the locations older than the history length.
      * @param loc the new location
      */
     public void onNewLocation(Location loc) {
 
         try{
-            if(mapPoints.size() > 0) {
+            if(history.size() > 0) {
                 findViewById(R.id.loadingScreen).setVisibility(View.GONE);
                 findViewById(R.id.changeMonitor).setVisibility(View.GONE);
                 findViewById(R.id.mapview).setVisibility(View.VISIBLE);
             }
 
-            mapPoints.add(new MapPoint((float) loc.getLatitude(), (float) loc.getLongitude(), Quality.getDynamicColorFromScore(score), 0, loc.getSpeed()));
-            if(mapPoints.size() == historySeconds)
-                mapPoints.removeFirst();
+            history.add(loc.getTime(), (int) (loc.getLatitude() * 1e6), (int) (loc.getLongitude() * 1e6),
+                        Quality.getDynamicColorFromScore(score));
             refreshTripMap();
 
         }catch (Exception e){
@@ -146,14 +148,16 @@ public class MapMonitor extends MonitorActivityTemplate implements MapViewConsta
     }
 
     /**
-     * sends the previous map points to the currentTrip overlay.
-     * Centers the map on the current location.
-     * redraws.
+     * Centers the map on the current location. Scrolling the map redraws it (and the currentTrip overlay reads
+     * the new location from the history), so it's only invalidated if it didn't move.
      */
     public void refreshTripMap(){
-        currentTrip.updateTripHistory(mapPoints);
-        mapController.setCenter(new GeoPoint(mapPoints.getLast().latitude, mapPoints.getLast().longitude));
-        mapView.invalidate();
+        final int last = history.getSlot(history.size() - 1);
+        final int scrollX = mapView.getScrollX(), scrollY = mapView.getScrollY();
+        center.setCoordsE6(history.getLatitudeE6(last), history.getLongitudeE6(last));
+        mapController.setCenter(center);
+        if(mapView.getScrollX() == scrollX && mapView.getScrollY() == scrollY)
+            mapView.invalidate();
     }
 
     /**
@@ -24,6 +24,7 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Debug;
 import android.util.Log;
 
 //import org.openintents.sensorsimulator.hardware.Sensor;
@@ -47,9 +48,38 @@ public class AccelerationHandler implements SensorEventListener {
     private double roll;
     private double yaw;
 
+    /**
+     * The combined roll, pitch and yaw rotation. Rebuilt when an angle is updated, and read without locking
+     * by <code>rotateAll</code>.
+     */
+    private volatile RotationMatrix rotationMatrix = RotationMatrix.IDENTITY;
+
     private MAQueue maQueue;
     private final ArrayList<FilteredAccelerationListener> filteredAccelerationListeners = new ArrayList<FilteredAccelerationListener>();
 
+    /**
+     * Snapshot of the listeners to deliver to. Replaced (never modified) on register/unregister, so the sensor
+     * thread can iterate it without locking or creating an iterator. Listeners that retain the values are wrapped
+     * in a <code>CopyingListener</code>.
+     */
+    private volatile FilteredAccelerationListener[] deliveryListeners = new FilteredAccelerationListener[0];
+
+    /**
+     * Output buffers reused for every event. Only valid during the listener callbacks.
+     * @see FilteredAccelerationListener
+     */
+    private final float filteredAcceleration[] = new float[3];
+    private final float rotatedAcceleration[] = new float[3];
+
+    /**
+     * Set to true to log the number of bytes allocated per delivered event. Used to verify that the steady state
+     * sensor-to-listener path doesn't allocate. Should be false in release builds.
+     */
+    private static final boolean DEBUG_ALLOCATIONS = false;
+    private static final int DEBUG_ALLOCATIONS_INTERVAL = 1000;
+    private long debugAllocatedBytes = 0;
+    private int debugDeliveredEvents = 0;
+
     /**
      * Set up the sensor manager and the moving average queue.
      * @param sm The sensor manager used to register a accelerometer data listener.
@@ -65,6 +95,9 @@ public class AccelerationHandler implements SensorEventListener {
      * Start listening for acceleration data.
      */
     public void startListening() {
+        if(DEBUG_ALLOCATIONS)
+            Debug.startAllocCounting();
+
         sensorManager.registerListener(this,
                 sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
 //                SensorManagerSimulator.SENSOR_DELAY_FASTEST);
@@ -76,27 +109,57 @@ public class AccelerationHandler implements SensorEventListener {
      */
     public void stopListening() {
         sensorManager.unregisterListener(this);
+
+        if(DEBUG_ALLOCATIONS)
+            Debug.stopAllocCounting();
     }
 
     /**
-     * Add an object to listen for filtered acceleration data.
+     * Add an object to listen for filtered acceleration data. The listener gets the handlers internal buffers,
+     * which is only valid during the callback.
      * @param listener The listener to add.
+     * @see #registerFilteredAccelerationListener(FilteredAccelerationListener, boolean)
      */
     public void registerFilteredAccelerationListener(FilteredAccelerationListener listener){
+        registerFilteredAccelerationListener(listener, false);
+    }
+
+    /**
+     * Add an object to listen for filtered acceleration data.
+     * @param listener The listener to add.
+     * @param retainsValues True if the listener keeps the given arrays after the callback returns. The listener
+     *         then gets its own copies of the values on every event (which allocates).
+     */
+    public synchronized void registerFilteredAccelerationListener(FilteredAccelerationListener listener, boolean retainsValues){
         if(filteredAccelerationListeners.size() == 0){
             startListening();
         }
 
-        if(!filteredAccelerationListeners.contains(listener))
+        if(!filteredAccelerationListeners.contains(listener)){
             filteredAccelerationListeners.add(listener);
+
+            FilteredAccelerationListener[] listeners = new FilteredAccelerationListener[deliveryListeners.length + 1];
+            System.arraycopy(deliveryListeners, 0, listeners, 0, deliveryListeners.length);
+            listeners[deliveryListeners.length] = retainsValues ? new CopyingListener(listener) : listener;
+            deliveryListeners = listeners;
+        }
     }
 
     /**
      * Remove an added listener from the list.
      * @param listener The listener to remove.
      */
-    public void unregisterFilteredAccelerationListener(FilteredAccelerationListener listener){
-        filteredAccelerationListeners.remove(listener);
+    public synchronized void unregisterFilteredAccelerationListener(FilteredAccelerationListener listener){
+        final int index = filteredAccelerationListeners.indexOf(listener);
+
+        if(index >= 0){
+            filteredAccelerationListeners.remove(index);
+
+            FilteredAccelerationListener[] listeners = new FilteredAccelerationListener[deliveryListeners.length - 1];
+            System.arraycopy(deliveryListeners, 0, listeners, 0, index);
+            System.arraycopy(deliveryListeners, index + 1, listeners, index, listeners.length - index);
+            deliveryListeners = listeners;
+        }
 
         if(filteredAccelerationListeners.size() == 0){
             stopListening() ;
@@ -105,7 +168,8 @@ public class AccelerationHandler implements SensorEventListener {
 
     /**
      * Filters the incoming acceleration data using the WMA or EMA algorithm, and fires the
-     * callback method of all the listeners.
+     * callback method of all the listeners. No objects are created here once the queue is filled; the
+     * listeners get the same (reused) output buffers on every event.
      * @param event Sensor event. Only using Sensor.TYPE_ACCELEROMETER.
      * @see FilteredAccelerationListener#onFilteredAccelerationChange(float[], float[])
      */
@@ -114,58 +178,86 @@ public class AccelerationHandler implements SensorEventListener {
         int sensorType = event.sensor.getType();
 //        int sensorType = event.type;
         if (sensorType == Sensor.TYPE_ACCELEROMETER) {
-            maQueue.put(event.values.clone());
-            float[] filteredAcceleration = maQueue.getEMAValues();
+            final int allocatedBefore = DEBUG_ALLOCATIONS ? Debug.getThreadAllocSize() : 0;
+
+            maQueue.put(event.values);
+            final FilteredAccelerationListener[] listeners = deliveryListeners;
 
             /**
              * If vectors are noise reduced, and listeners is registered:
              */
-            if(filteredAcceleration != null && filteredAccelerationListeners.size() > 0){
+            if(maQueue.getEMAValues(filteredAcceleration) && listeners.length > 0){
 
-                float[] rotatedAcceleration = filteredAcceleration.clone();
+                rotatedAcceleration[0] = filteredAcceleration[0];
+                rotatedAcceleration[1] = filteredAcceleration[1];
+                rotatedAcceleration[2] = filteredAcceleration[2];
                 rotateAll(rotatedAcceleration);
 
-                for(FilteredAccelerationListener listener : filteredAccelerationListeners)
-                    listener.onFilteredAccelerationChange(filteredAcceleration, rotatedAcceleration);
+                for(int i = 0; i < listeners.length; i++)
+                    listeners[i].onFilteredAccelerationChange(filteredAcceleration, rotatedAcceleration);
             }
 
+            if(DEBUG_ALLOCATIONS)
+                countAllocations(Debug.getThreadAllocSize() - allocatedBefore);
         }
 
     }
 
+    /**
+     * Sums up the bytes allocated while handling sensor events, and logs the average per event.
+     * @param bytes Bytes allocated while handling the last event.
+     */
+    private void countAllocations(int bytes){
+        debugAllocatedBytes += bytes;
+
+        if(++debugDeliveredEvents == DEBUG_ALLOCATIONS_INTERVAL){
+            Log.d("AccelerationHandler", "Allocated " + (debugAllocatedBytes / debugDeliveredEvents) +
+                                         " bytes per event (last " + debugDeliveredEvents + " events)");
+            debugAllocatedBytes = 0;
+            debugDeliveredEvents = 0;
+        }
+    }
+
     /**
      * Updates the pitch angle relative to the vehicle.
      * @param YZ The new angle (radians)
      */
-    public void updatePitchAngle(double YZ){
+    public synchronized void updatePitchAngle(double YZ){
         pitch = YZ;
+        rotationMatrix = new RotationMatrix(roll, pitch, yaw);
     }
 
     /**
      * Updates the yaw angle relative to the vehicle.
      * @param XY The new angle (radians)
      */
-    public void updateYawAngle(double XY){
+    public synchronized void updateYawAngle(double XY){
         yaw = XY;
+        rotationMatrix = new RotationMatrix(roll, pitch, yaw);
     }
 
     /**
      * Updates the roll angle relative to the vehicle.
      * @param XZ The new angle (radians)
      */
-    public void updateRollAngle(double XZ){
+    public synchronized void updateRollAngle(double XZ){
         roll = XZ;
+        rotationMatrix = new RotationMatrix(roll, pitch, yaw);
     }
 
     /**
      * Rotates all the acceleration vectors given as parameter, according to the <code>roll</code>,
-     * <code>pitch</code> and <code>yaw</code> angles.
+     * <code>pitch</code> and <code>yaw</code> angles. Uses the precomputed rotation matrix, so this is
+     * 9 multiply-adds and no locking.
      * @param vectors The acceleration vectors
      */
-    public synchronized void rotateAll(float[] vectors){
-        rotate(roll,  0, 2, vectors);
-        rotate(pitch, 1, 2, vectors);
-        rotate(yaw,   0, 1, vectors);
+    public void rotateAll(float[] vectors){
+        final RotationMatrix m = rotationMatrix;
+        final float x = vectors[0], y = vectors[1], z = vectors[2];
+
+        vectors[0] = m.m00 * x + m.m01 * y + m.m02 * z;
+        vectors[1] = m.m10 * x + m.m11 * y + m.m12 * z;
+        vectors[2] = m.m20 * x + m.m21 * y + m.m22 * z;
     }
 
     /**
@@ -182,93 +274,234 @@ public class AccelerationHandler implements SensorEventListener {
     }
 
     /**
-     * An inner static class used to remove noise from the acceleration values. Keeps a simple FIFO queue of N
-     *  acceleration values, used to filter out noise using the Weighted/Exponential Moving Average algorithm.
+     * Immutable 3x3 matrix equal to rotating by <code>roll</code> in the XZ plane, then <code>pitch</code> in
+     * the YZ plane and finally <code>yaw</code> in the XY plane, as done by <code>rotate</code>.
+     * The result of <code>rotateAll</code> differs from three <code>rotate</code> calls only by float rounding.
+     */
+    private static final class RotationMatrix {
+
+        private static final RotationMatrix IDENTITY = new RotationMatrix(0, 0, 0);
+
+        private final float m00, m01, m02;
+        private final float m10, m11, m12;
+        private final float m20, m21, m22;
+
+        /**
+         * Builds the matrix by rotating each of the unit vectors, giving one column each.
+         * @param roll The roll angle (radians)
+         * @param pitch The pitch angle (radians)
+         * @param yaw The yaw angle (radians)
+         */
+        private RotationMatrix(double roll, double pitch, double yaw){
+            final double columns[][] = new double[3][3];
+
+            for(int c = 0; c < 3; c++){
+                final double v[] = columns[c];
+                v[c] = 1;
+                rotate(roll,  0, 2, v);
+                rotate(pitch, 1, 2, v);
+                rotate(yaw,   0, 1, v);
+            }
+
+            m00 = (float) columns[0][0]; m01 = (float) columns[1][0]; m02 = (float) columns[2][0];
+            m10 = (float) columns[0][1]; m11 = (float) columns[1][1]; m12 = (float) columns[2][1];
+            m20 = (float) columns[0][2]; m21 = (float) columns[1][2]; m22 = (float) columns[2][2];
+        }
+
+        /**
+         * Same as <code>AccelerationHandler.rotate</code>, in double precision.
+         */
+        private static void rotate(double radAngle, int indexX, int indexY, double[] vectors){
+            final double sin = Math.sin(radAngle), cos = Math.cos(radAngle);
+            final double tempY = vectors[indexY];
+            vectors[indexY] = vectors[indexX] * sin + tempY * cos;
+            vectors[indexX] = vectors[indexX] * cos - tempY * sin;
+        }
+    }
+
+    /**
+     * An inner static class used to remove noise from the acceleration values. Keeps a fixed size FIFO ring buffer of
+     *  the N last acceleration values, used to filter out noise using the Weighted/Exponential Moving Average algorithm.
+     *  The XYZ vectors are stored interleaved in one primitive array, so no objects are created when new values arrive.
      */
     private static final class MAQueue {
 
         /**
          * N elements in the queue.
          */
-        private final int N = 31;
+        private static final int N = 31;
 
         /**
-         * The queue of vectors.
+         * Position of the centre element (the one with the highest weight), counted from the oldest element.
          */
-        private LinkedList<float[]> list = new LinkedList<float[]>();
+        private static final int CENTRE = N / 2;
 
         /**
-         * Puts the acceleration vector in the FIFO queue, and removes excessive vectors.
-         * @param v The XYZ acceleration vectors.
+         * Number of puts between each full recalculation of the running WMA sums, to keep rounding errors from
+         *  accumulating during long trips.
          */
-        public synchronized void put(float v[]) {
-            list.addLast(v);
-            if(list.size() > N)
-                list.removeFirst();
+        private static final int RESYNC_INTERVAL = 4096;
+
+        /**
+         * Precomputed EMA weights, indexed from the oldest (0) to the newest (N-1) element in the queue.
+         */
+        private static final float EMA_WEIGHTS[] = new float[N];
+        private static final float EMA_DENOMINATOR;
+        private static final float WMA_DENOMINATOR;
+
+        static {
+            int i = (N / 2) + (N % 2);                                  // The current element position
+            int emaDenominator = 0;
+            int wmaDenominator = 0;
+
+            for(int j = -(N / 2); j < i; j++){                          // Go from element i-(N/2) to i+(N/2):
+                int emaMultiplier = (j < 0) ? N/(1+-j) : N/(j+1);           // The exponential multiplier
+                int wmaMultiplier = (j < 0) ? i + j : i - j;                // The weighted (triangular) multiplier
+                EMA_WEIGHTS[(i+j)-1] = emaMultiplier;
+                emaDenominator += emaMultiplier;
+                wmaDenominator += wmaMultiplier;
+            }
+
+            EMA_DENOMINATOR = emaDenominator;
+            WMA_DENOMINATOR = wmaDenominator;
         }
 
         /**
-         * Calculates the WMA value of the element i in the queue, based on the <b>Weighted Moving Average</b> algorithm.
-         * @return The weighted moving average value of the element i.
+         * The queue of vectors, stored as {X0, Y0, Z0, X1, Y1, Z1, ...}.
+         */
+        private final float ring[] = new float[3 * N];
+
+        /**
+         * Slot of the oldest element in the ring, and the number of elements in it.
+         */
+        private int head = 0;
+        private int size = 0;
+
+        /**
+         * Running sums used to keep the WMA up to date in constant time. The triangular weights rise from 1 at the
+         *  oldest element to CENTRE+1 at the centre, then fall back to 1 at the newest element.
          */
-        public float[] getWMAValues(){
-            float returnValue[] = new float[3];
+        private final double weightedSum[] = new double[3];          // Sum of weight * element
+        private final double risingSum[] = new double[3];            // Sum of the elements up to and including CENTRE
+        private final double fallingSum[] = new double[3];           // Sum of the elements after CENTRE
+        private int putsSinceResync = 0;
 
-            if(list.size() < N)   {                                     // If the list is not complete, we
-                return null;                                            //   can't calculate the moving average.
+        /**
+         * Copies the acceleration vector into the FIFO queue, replacing the oldest vector when the queue is full.
+         * @param v The XYZ acceleration vectors. Not retained by the queue.
+         */
+        public synchronized void put(float v[]) {
+            if(size < N){                                               // Still filling up the queue:
+                int slot = ((head + size) % N) * 3;
+                ring[slot]     = v[0];
+                ring[slot + 1] = v[1];
+                ring[slot + 2] = v[2];
+
+                if(++size == N)
+                    resync();
+                return;
             }
 
-            else{                                                       // If enough elements to get calculate WMA:
-                int i = (N / 2) + (N % 2);                              //  get the current element position
+            final int oldest = head * 3;                                // The element leaving the queue, and the
+            final int crossing = ((head + CENTRE + 1) % N) * 3;         //  element moving from the falling half
+                                                                        //  to the rising half.
+            for(int vector = 0; vector < 3; vector++){
+                final float leaving = ring[oldest + vector];
+                final float moving = ring[crossing + vector];
 
-                for(int vector = 0; vector < 3; vector++){              // For each acceleration vector:
+                weightedSum[vector] += fallingSum[vector] - risingSum[vector] + v[vector];
+                risingSum[vector]   += moving - leaving;
+                fallingSum[vector]  += v[vector] - moving;
 
-                    int denominator = 0;
-                    float avgSum = 0;
+                ring[oldest + vector] = v[vector];                      // The new vector takes the oldest slot.
+            }
+            head = (head + 1) % N;
+
+            if(++putsSinceResync >= RESYNC_INTERVAL)
+                resync();
+        }
 
-                    for(int j = -(N / 2); j < i; j++){                  // Go from element i-(N/2) to i+(N/2):
-                        int multiplier = (j < 0) ? i + j : i - j;           // Get the multiplier / weight
-                        denominator += multiplier;                          // Add multiplier to the denominator
-                        avgSum += multiplier * list.get((i+j)-1)[vector];   // Add the weighted element to the avg sum
-                    }
+        /**
+         * Recalculates the running WMA sums from the elements in the queue.
+         */
+        private void resync(){
+            for(int vector = 0; vector < 3; vector++){
+                weightedSum[vector] = risingSum[vector] = fallingSum[vector] = 0;
+            }
 
-                    returnValue[vector] = avgSum / denominator;         // Calculate the WMA of this vector.
+            for(int k = 0; k < N; k++){
+                final int slot = ((head + k) % N) * 3;
+                final int weight = (k <= CENTRE) ? k + 1 : N - k;
+
+                for(int vector = 0; vector < 3; vector++){
+                    final float value = ring[slot + vector];
+                    weightedSum[vector] += weight * value;
+                    if(k <= CENTRE) risingSum[vector] += value;
+                    else            fallingSum[vector] += value;
                 }
             }
+            putsSinceResync = 0;
+        }
+
+        /**
+         * Gets the WMA value of the centre element in the queue, based on the <b>Weighted Moving Average</b> algorithm.
+         *  Runs in constant time, using the running sums maintained by <code>put</code>.
+         * @param out Array of (at least) 3 elements, filled with the weighted moving average XYZ values.
+         * @return False if the queue is not complete (and the moving average can't be calculated), true otherwise.
+         */
+        public synchronized boolean getWMAValues(float out[]){
+            if(size < N)                                                // If the list is not complete, we
+                return false;                                           //   can't calculate the moving average.
 
-            return returnValue;
+            for(int vector = 0; vector < 3; vector++)
+                out[vector] = (float) (weightedSum[vector] / WMA_DENOMINATOR);
+
+            return true;
         }
 
         /**
-         * Calculates the EMA value of the element i in the queue, based on the <b>Exponential Moving Average</b> algorithm.
-         * @return The exponential moving average value of the element i.
+         * Calculates the EMA value of the centre element in the queue, based on the <b>Exponential Moving Average</b>
+         *  algorithm. Uses one pass over the queue with the precomputed <code>EMA_WEIGHTS</code>.
+         * @param out Array of (at least) 3 elements, filled with the exponential moving average XYZ values.
+         * @return False if the queue is not complete (and the moving average can't be calculated), true otherwise.
          */
-        private synchronized float[] getEMAValues(){
-            float returnValue[] = new float[3];
+        public synchronized boolean getEMAValues(float out[]){
+            if(size < N)                                                // If the list is not complete, we
+                return false;                                           //   can't calculate the moving average.
+
+            float sumX = 0, sumY = 0, sumZ = 0;
+            int slot = head * 3;
+
+            for(int k = 0; k < N; k++){                                 // From the oldest to the newest element:
+                final float weight = EMA_WEIGHTS[k];
+                sumX += weight * ring[slot];
+                sumY += weight * ring[slot + 1];
+                sumZ += weight * ring[slot + 2];
 
-            if(list.size() < N)   {                                     // If the list is not complete, we
-                return null;                                            //   can't calculate the moving average.
+                slot += 3;
+                if(slot == ring.length) slot = 0;                       // Wrap around the end of the ring.
             }
 
-            else{                                                       // If enough elements to get calculate EMA:
-                int i = (N / 2) + (N % 2);                              //  get the current element position
+            out[0] = sumX / EMA_DENOMINATOR;
+            out[1] = sumY / EMA_DENOMINATOR;
+            out[2] = sumZ / EMA_DENOMINATOR;
+            return true;
+        }
+    }
 
-                for(int vector = 0; vector < 3; vector++){              // For each acceleration vector:
+    /**
+     * Wraps a listener that keeps the acceleration arrays after the callback, giving it its own copies.
+     */
+    private static final class CopyingListener implements FilteredAccelerationListener {
 
-                    int denominator = 0;
-                    float avgSum = 0;
-                    int multiplier = 0;
+        private final FilteredAccelerationListener listener;
 
-                    for(int j = -(N / 2); j < i; j++){                  // Go from element i-(N/2) to i+(N/2):
-                        multiplier = (j < 0) ? N/(1+-j) : N/(j+1) ;         // Calculate the exponential multiplier
-                        denominator += multiplier;                          // Add multiplier to the denominator
-                        avgSum += multiplier *  list.get((i+j)-1)[vector];  // Sum the exponential weighted elements
-                    }
+        private CopyingListener(FilteredAccelerationListener listener){
+            this.listener = listener;
+        }
 
-                    returnValue[vector] = avgSum / denominator;         // Calculate the EMA of this vector.
-                }
-            }
-            return returnValue;
+        public void onFilteredAccelerationChange(float[] filteredAccelerationValues, float[] rotatedAccelerationValues) {
+            listener.onFilteredAccelerationChange(filteredAccelerationValues.clone(), rotatedAccelerationValues.clone());
         }
     }
 
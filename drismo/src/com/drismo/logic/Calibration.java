@@ -42,6 +42,8 @@ public class Calibration extends Thread implements FilteredAccelerationListener
     private double averageBuffer = 0;                       // Some buffer variables used to calculate average.
     private int averageCounter = 0;
 
+    private final float levelVectors[] = new float[3];      // Copy of the filtered vectors, rotated while leveling.
+
     /**
      * Stores the acceleration handler and the calibration listener. Starts the calibration thread.
      *
@@ -93,11 +95,12 @@ public class Calibration extends Thread implements FilteredAccelerationListener
         if(!offsetFound){                           // If driving offset not found, we need to find it.
 
             if(!levelCalibrated ){                                   // If we just started calibrating
-                /** We need to find the ROLL and PITCH and rotate the given values. */
-                double roll = StrictMath.atan2(filteredVectors[0], filteredVectors[2]);
-                AccelerationHandler.rotate(roll, 0, 2, filteredVectors);
-                double pitch = StrictMath.atan2(filteredVectors[1], filteredVectors[2]);
-                AccelerationHandler.rotate(pitch, 1, 2, filteredVectors);
+                /** We need to find the ROLL and PITCH and rotate a copy of the given values (they are read only). */
+                System.arraycopy(filteredVectors, 0, levelVectors, 0, 3);
+                double roll = StrictMath.atan2(levelVectors[0], levelVectors[2]);
+                AccelerationHandler.rotate(roll, 0, 2, levelVectors);
+                double pitch = StrictMath.atan2(levelVectors[1], levelVectors[2]);
+                AccelerationHandler.rotate(pitch, 1, 2, levelVectors);
 
                 accHandler.updateRollAngle(roll);                            // Update tilt angles:
                 accHandler.updatePitchAngle(pitch);
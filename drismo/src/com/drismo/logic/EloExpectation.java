@@ -0,0 +1,84 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drismo.logic;
+
+/**
+ * Lookup table for the Elo expected outcome used by the quality rating:
+ * <pre>
+ *     E(d) = 1 / (1 + 10^(d / 100))      where d = relativeScore - currentRating
+ * </pre>
+ * The table holds E(d) for every whole rating difference in <code>[-MAX_DIFFERENCE, MAX_DIFFERENCE]</code>,
+ * and values in between are linearly interpolated. Since ratings and relative scores are whole numbers, the
+ * rater almost always hits an exact table entry. For fractional differences the interpolation error is at most
+ * <code>h^2/8 * max|E''| = (ln(10)/100)^2 / (48 * sqrt(3)) = 6.4e-6</code> (step h = 1), plus float rounding
+ * (measured max 6.44e-6). Outside the table the
+ * expectation is clamped to exactly 0 or 1; the true value there is closer than 1e-10.
+ * @see QualityRater#calculateDeltaScore(float, float)
+ */
+public final class EloExpectation {
+
+    /**
+     * The largest rating difference in the table. E(1000) = 1e-10.
+     */
+    public static final int MAX_DIFFERENCE = 1000;
+
+    private static final float TABLE[] = new float[2 * MAX_DIFFERENCE + 2];
+
+    static {
+        for(int i = 0; i <= 2 * MAX_DIFFERENCE; i++)
+            TABLE[i] = (float) (1 / (1 + Math.pow(10.0, (i - MAX_DIFFERENCE) / 100.0)));
+
+        TABLE[2 * MAX_DIFFERENCE + 1] = TABLE[2 * MAX_DIFFERENCE];     // Padding, so interpolating at the
+    }                                                                   //  last entry stays in bounds.
+
+    /**
+     * This class is not instantiated!
+     */
+    private EloExpectation(){ }
+
+    /**
+     * Get the expected outcome for the given rating difference.
+     * @param difference The relative score minus the current rating.
+     * @return The expected outcome, between 0 and 1.
+     */
+    public static float expectedOutcome(float difference){
+        if(difference >= MAX_DIFFERENCE)  return 0f;
+        if(difference <= -MAX_DIFFERENCE) return 1f;
+        if(difference != difference)      return Float.NaN;
+
+        final float position = difference + MAX_DIFFERENCE;
+        final int index = (int) position;
+        final float fraction = position - index;
+
+        return TABLE[index] + fraction * (TABLE[index + 1] - TABLE[index]);
+    }
+
+    /**
+     * Get the expected outcomes for many rating differences at once, i.e. when rescoring a recorded trace.
+     * @param differences The relative scores minus the current ratings.
+     * @param out Array to fill with the expected outcomes. May be the same array as <code>differences</code>.
+     * @param count Number of values to look up.
+     */
+    public static void expectedOutcomes(float differences[], float out[], int count){
+        for(int i = 0; i < count; i++)
+            out[i] = expectedOutcome(differences[i]);
+    }
+}
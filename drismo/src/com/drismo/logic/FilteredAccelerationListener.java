@@ -23,14 +23,20 @@ package com.drismo.logic;
 /**
  * Used by objects who listens for noise reduced acceleration. Listeners of this type is added to, and
  * updated by the <code>AccelerationHandler</code>.
+ * <p>
+ * The arrays given to the listener are buffers owned by the <code>AccelerationHandler</code>, and are reused
+ * for every event. They are <b>only valid during the callback</b>, and must not be modified or kept. Listeners
+ * that need to keep the values must copy them, or be registered with
+ * <code>registerFilteredAccelerationListener(listener, true)</code> to receive their own copies.
  * @see AccelerationHandler
+ * @see AccelerationHandler#registerFilteredAccelerationListener(FilteredAccelerationListener, boolean)
  */
 public interface FilteredAccelerationListener {
     /**
-     * Fires whenever there is a new acceleration entry.
-     * @param filteredAccelerationValues Noise reduced acceleration vectors.
+     * Fires whenever there is a new acceleration entry. The arrays are only valid during this call.
+     * @param filteredAccelerationValues Noise reduced acceleration vectors. Read only.
      * @param rotatedAccelerationValues Same as the <code>filteredAccelerationValues</code>, only rotated relative to
-     *         the vehicle (if the tilt angles is set).
+     *         the vehicle (if the tilt angles is set). Read only.
      */
     public void onFilteredAccelerationChange(float filteredAccelerationValues[], float[] rotatedAccelerationValues);
 }
@@ -0,0 +1,191 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.drismo.logic;
+
+import android.content.Context;
+import android.util.Log;
+import com.drismo.utils.GeocodeCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Looks up batches of city/street names in parallel, so a trip summary waits for the slowest of its lookups
+ * instead of the sum of them. The lookups go through <code>JsonFunctions</code>, and so through the
+ * <code>GeocodeCache</code>.
+ * <p>
+ * Lookups of the same type in the same cache cell are merged: within a batch, and with lookups of earlier
+ * batches that are still running. At most <code>concurrency</code> lookups run at a time; the rest are queued.
+ * A lookup still running when its caller stops waiting is not cancelled, so its result ends up in the cache
+ * for the next time.
+ * @see JsonFunctions
+ * @see com.drismo.model.Trip#getPlaceNames
+ */
+public class GeocodingService {
+
+    private static final String TAG = "GeocodingService";
+
+    /**
+     * Default number of lookups running at a time; matches the connections kept by <code>JsonFunctions</code>.
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private static GeocodingService instance;
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Lookups queued or running, by cache key. Guarded by <code>this</code>.
+     */
+    private final HashMap<String, Future<String>> pending = new HashMap<String, Future<String>>();
+
+    private GeocodingService(Context c){
+        context = c;
+        executor = new ThreadPoolExecutor(DEFAULT_CONCURRENCY, DEFAULT_CONCURRENCY, 0, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r){
+                final Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static synchronized GeocodingService getInstance(Context c){
+        if(instance == null)
+            instance = new GeocodingService(c.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Changes the number of lookups running at a time.
+     * @param concurrency Max number of parallel lookups, at least 1.
+     */
+    public synchronized void setConcurrency(int concurrency){
+        if(concurrency > executor.getMaximumPoolSize()){            // The core size can't exceed the max size.
+            executor.setMaximumPoolSize(concurrency);
+            executor.setCorePoolSize(concurrency);
+        }
+        else {
+            executor.setCorePoolSize(concurrency);
+            executor.setMaximumPoolSize(concurrency);
+        }
+    }
+
+    public synchronized int getConcurrency(){
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Starts looking up a batch of names.
+     * @param types <code>GeocodeCache.CITY</code> or <code>GeocodeCache.STREET</code> for each location.
+     * @param latitudes Latitude of each location.
+     * @param longitudes Longitude of each location.
+     * @return The result of each location, in the same order. Locations with the same type and cache cell share
+     *         one future. A future gives <code>JsonFunctions.NOT_FOUND</code> if the lookup failed.
+     */
+    public synchronized List<Future<String>> submit(int types[], float latitudes[], float longitudes[]){
+        final List<Future<String>> futures = new ArrayList<Future<String>>(types.length);
+        for(int i = 0; i < types.length; i++){
+            final String key = GeocodeCache.getKey(types[i], latitudes[i], longitudes[i]);
+            Future<String> future = pending.get(key);
+            if(future == null){
+                future = new Lookup(key, types[i], latitudes[i], longitudes[i]);
+                pending.put(key, future);
+                executor.execute((Lookup) future);
+            }
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    /**
+     * Looks up a batch of names, and waits for them until a deadline.
+     * @param types <code>GeocodeCache.CITY</code> or <code>GeocodeCache.STREET</code> for each location.
+     * @param latitudes Latitude of each location.
+     * @param longitudes Longitude of each location.
+     * @param timeoutMs Time to wait for the whole batch.
+     * @return The name of each location, in the same order. <code>JsonFunctions.NOT_FOUND</code> for the
+     *         lookups that failed or didn't finish in time.
+     */
+    public String[] lookup(int types[], float latitudes[], float longitudes[], long timeoutMs){
+        final List<Future<String>> futures = submit(types, latitudes, longitudes);
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        final String names[] = new String[futures.size()];
+        for(int i = 0; i < names.length; i++)
+            names[i] = await(futures.get(i), deadline);
+        return names;
+    }
+
+    /**
+     * @return The result of the future, or <code>JsonFunctions.NOT_FOUND</code> if it isn't done by the deadline.
+     */
+    public static String await(Future<String> future, long deadline){
+        try {
+            return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Lookup not done in time");
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Lookup failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return JsonFunctions.NOT_FOUND;
+    }
+
+    /**
+     * A lookup of one cache cell, removed from the pending lookups when it's done.
+     */
+    private final class Lookup extends FutureTask<String> {
+
+        private final String key;
+
+        private Lookup(String key, final int type, final float latitude, final float longitude){
+            super(new Callable<String>() {
+                public String call(){
+                    return type == GeocodeCache.CITY ? JsonFunctions.getCity(context, latitude, longitude)
+                                                     : JsonFunctions.getStreet(context, latitude, longitude);
+                }
+            });
+            this.key = key;
+        }
+
+        @Override
+        protected void done(){
+            synchronized (GeocodingService.this){
+                if(pending.get(key) == this)
+                    pending.remove(key);
+            }
+        }
+    }
+}
@@ -20,70 +20,187 @@
 
 package com.drismo.logic;
 
+import android.content.Context;
 import android.util.Log;
-import com.drismo.R;
+import com.drismo.model.Config;
+import com.drismo.utils.GeocodeCache;
+import com.drismo.utils.JsonFieldReader;
+import com.drismo.utils.OfflineGeocoder;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
 
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Used to get the city/street name from a location.
- * Uses 2 different webservices from www.geonames.org
+ * Uses 2 different webservices from www.geonames.org. The lookups taking a <code>Context</code> go through
+ * the <code>GeocodeCache</code> and the <code>OfflineGeocoder</code> first, and only ask the webservice when
+ * neither has the name.
  * @see com.drismo.gui.ViewTrip
+ * @see GeocodeCache
+ * @see OfflineGeocoder
  */
 public class JsonFunctions {
 
     /**
-     * Borrowed from:
-     * http://p-xr.com/android-tutorial-how-to-parse-read-json-data-into-a-android-listview/
-     * and slightly modified.
-     * @param url the url to get JSON data from
-     * @return the JSONObject containing all the info.
+     * Returned when the name can't be found.
+     */
+    public static final String NOT_FOUND = "--";
+
+    private static String serviceUrl = "http://api.geonames.org/";
+
+    /**
+     * Changes the address of the webservice, to test against a local server.
+     * @param url The base url, ending with a slash.
+     */
+    public static void setServiceUrl(String url){
+        serviceUrl = url;
+    }
+
+    private static final String TAG = "JsonFunctions";
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int IDLE_TIMEOUT_S = 20;
+
+    private static final Object CITY_PATH[] = { "geonames", 0, "adminName2" };
+    private static final Object STREET_PATH[] = { "streetSegment", 0, "name" };
+
+    private static ThreadSafeClientConnManager connections;
+    private static HttpClient client;
+
+    /**
+     * @return The client shared by all lookups. Its connections are pooled and kept alive, so lookups after the
+     *         first to the same host skip the TCP (and DNS) setup. Connections idle for longer than
+     *         <code>IDLE_TIMEOUT_S</code> are closed instead of reused, as the server has likely dropped them; the
+     *         stale check is left off (it costs a blocking read per request), since a GET is retried anyway if the
+     *         server closed the connection.
      */
-    public static JSONObject getJSONfromURL(String url){
-        //initialize
-        InputStream is = null;
-        String result = "";
-        JSONObject jArray = null;
-        //http post
-        try{
-            HttpClient httpclient = new DefaultHttpClient();
-            HttpPost httppost = new HttpPost(url);
-            HttpResponse response = httpclient.execute(httppost);
-            HttpEntity entity = response.getEntity();
-            is = entity.getContent();
-        }catch(Exception e){
-            Log.e("log_tag", "Error in http connection " + e.toString());
+    private static synchronized HttpClient getClient(){
+        if(client == null){
+            final HttpParams params = new BasicHttpParams();
+            HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+            HttpProtocolParams.setContentCharset(params, "UTF-8");
+            HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT_MS);
+            HttpConnectionParams.setSoTimeout(params, READ_TIMEOUT_MS);
+            HttpConnectionParams.setStaleCheckingEnabled(params, false);
+            ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+            ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+            ConnManagerParams.setTimeout(params, CONNECT_TIMEOUT_MS);
+
+            final SchemeRegistry schemes = new SchemeRegistry();
+            schemes.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+            connections = new ThreadSafeClientConnManager(params, schemes);
+            client = new DefaultHttpClient(connections, params);
         }
-        //convert response to string
-        try{
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is),8);
-            StringBuilder sb = new StringBuilder();
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line + "\n");
+        connections.closeIdleConnections(IDLE_TIMEOUT_S, TimeUnit.SECONDS);
+        return client;
+    }
+
+    /**
+     * Asks the webservice, and reads one value of the JSON response while it's streamed. The response is
+     * requested gzipped, and is always read to the end, so the connection goes back to the pool.
+     * @param url the url to get JSON data from
+     * @param path Keys and indexes leading to the value, see <code>JsonFieldReader</code>.
+     * @return The value, or null if the lookup failed or the response doesn't have it.
+     */
+    private static String lookup(String url, Object path[]){
+        final HttpGet get = new HttpGet(url);
+        get.setHeader("Accept-Encoding", "gzip");
+        HttpEntity entity = null;
+        try {
+            final HttpResponse response = getClient().execute(get);
+            entity = response.getEntity();
+            if(response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || entity == null){
+                Log.e(TAG, "Lookup failed: " + response.getStatusLine());
+                return null;
+            }
+
+            InputStream in = entity.getContent();
+            final Header encoding = entity.getContentEncoding();
+            if(encoding != null && encoding.getValue().equalsIgnoreCase("gzip"))
+                in = new GZIPInputStream(in);
+            return new JsonFieldReader(new InputStreamReader(in, "UTF-8")).find(path);
+        } catch (IOException e) {
+            Log.e(TAG, "Lookup failed: " + e.toString());
+            get.abort();                                        // Don't pool a connection in an unknown state.
+            entity = null;
+            return null;
+        } finally {
+            if(entity != null){
+                try {
+                    entity.consumeContent();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to release connection: " + e.toString());
+                }
             }
-            is.close();
-            result=sb.toString();
-        }catch(Exception e){
-            Log.e("log_tag", "Error converting result "+e.toString());
         }
-        //try parse the string to a JSON object
-        try{
-            jArray = new JSONObject(result);
-        }catch(JSONException e){
-            Log.e("log_tag", "Error parsing data "+e.toString());
+    }
+
+    /**
+     * Get the city from a position, from the cache if it's been looked up near the position before.
+     * @param c Context of the cache.
+     * @param lat the latitude
+     * @param lon longitude
+     * @return returns the City name or -- if something went wrong
+     */
+    public static String getCity(Context c, float lat, float lon){
+        return getCached(c, GeocodeCache.CITY, lat, lon);
+    }
+
+    /**
+     * Gets the streetname from a position, from the cache if it's been looked up near the position before.
+     * @param c Context of the cache.
+     * @param lat the latitude
+     * @param lon longitude
+     * @return   returns the street name or -- if something went wrong
+     */
+    public static String getStreet(Context c, float lat, float lon){
+        return getCached(c, GeocodeCache.STREET, lat, lon);
+    }
+
+    /**
+     * Looks a name up in the cache, then in the gazetteer installed on the device, and then online (unless
+     * online lookups are turned off, which only applies when there is a gazetteer to look in). Only online
+     * results are cached; the gazetteer is about as fast as the cache.
+     */
+    private static String getCached(Context c, int type, float lat, float lon){
+        final GeocodeCache cache = GeocodeCache.getInstance(c);
+        String name = cache.get(type, lat, lon);
+        if(name == null){
+            final OfflineGeocoder offline = OfflineGeocoder.getInstance(c);
+            name = offline.find(type, lat, lon);
+            if(name != null)
+                return name;
+            if(!Config.geocodeOnline() && offline.isInstalled(type))
+                return NOT_FOUND;
+
+            name = (type == GeocodeCache.CITY) ? getCity(lat, lon) : getStreet(lat, lon);
+            if(!name.equals(NOT_FOUND))                         // Failed lookups are tried again next time.
+                cache.put(type, lat, lon, name);
         }
-        return jArray;
+        return name;
     }
 
     /**
@@ -93,15 +210,8 @@ public class JsonFunctions {
      * @return returns the City name or -- if something went wrong
      */
     public static String getCity(float lat, float lon){
-        try {
-            JSONObject json = getJSONfromURL("http://api.geonames.org/findNearbyPlaceNameJSON?lat=" + lat + "&lng=" + lon + "&username=drismo&style=full");
-            JSONArray city = json.getJSONArray("geonames");
-
-            return city.getJSONObject(0).getString("adminName2");
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "--";
-        }
+        final String city = lookup(serviceUrl + "findNearbyPlaceNameJSON?lat=" + lat + "&lng=" + lon + "&username=drismo&style=full", CITY_PATH);
+        return city != null ? city : NOT_FOUND;
     }
 
     /**
@@ -111,14 +221,7 @@ public class JsonFunctions {
      * @return   returns the street name or -- if something went wrong
      */
     public static String getStreet(float lat, float lon){
-        try {
-            JSONObject json = getJSONfromURL("http://api.geonames.org/findNearbyStreetsOSMJSON?lat=" + lat + "&lng=" + lon + "&username=drismo");
-            JSONArray street = json.getJSONArray("streetSegment");
-
-            return street.getJSONObject(0).getString("name");
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "--";
-        }
+        final String street = lookup(serviceUrl + "findNearbyStreetsOSMJSON?lat=" + lat + "&lng=" + lon + "&username=drismo", STREET_PATH);
+        return street != null ? street : NOT_FOUND;
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drismo.logic;
+
+/**
+ * A sliding time window over a stream of vectors, keeping track of the min and max value of each axis.
+ * The time stamps of the samples are kept in a primitive ring buffer, and each axis has one monotonic deque
+ * for the min values and one for the max values, also backed by primitive ring buffers. Adding and expiring
+ * samples is amortised O(1), and the min/max values can be read in O(1), no matter how many samples the
+ * window holds. No objects are created after construction.
+ * <p>
+ * The window is not thread safe; synchronize on the owner when it's shared between threads.
+ * @see QualityRater
+ */
+public class MinMaxWindow {
+
+    private final int axes;
+    private final int capacity;
+    private final long lengthMs;
+
+    private final MonotonicDeque minDeques[];
+    private final MonotonicDeque maxDeques[];
+
+    /**
+     * Every sample gets a sequence number. The time stamp of sample <code>n</code> is stored at
+     * <code>timestamps[n % capacity]</code>, and the samples from <code>oldestSequence</code> up to (but
+     * not including) <code>nextSequence</code> are in the window.
+     */
+    private final long timestamps[];
+    private long oldestSequence = 0;
+    private long nextSequence = 0;
+
+    private final float newestValues[];
+
+    /**
+     * Creates an empty window.
+     * @param axes Number of values in each sample (3 for XYZ acceleration).
+     * @param capacity Max number of samples in the window. If more samples than this arrives within
+     *         <code>lengthMs</code>, the oldest samples are dropped.
+     * @param lengthMs Length of the window. Samples older than this (relative to the newest sample) are expired.
+     */
+    public MinMaxWindow(int axes, int capacity, long lengthMs){
+        this.axes = axes;
+        this.capacity = capacity;
+        this.lengthMs = lengthMs;
+
+        timestamps = new long[capacity];
+        minDeques = new MonotonicDeque[axes];
+        maxDeques = new MonotonicDeque[axes];
+        for(int i = 0; i < axes; i++){
+            minDeques[i] = new MonotonicDeque(capacity, false);
+            maxDeques[i] = new MonotonicDeque(capacity, true);
+        }
+        newestValues = new float[axes];
+    }
+
+    /**
+     * Adds a sample to the window, and expires the samples that are older than the window length.
+     * @param timestamp Time stamp of the sample (ms). Must not be lower than the previous time stamp.
+     * @param values The sample values, one for each axis. Copied.
+     */
+    public void add(long timestamp, float values[]){
+        if(nextSequence - oldestSequence == capacity)       // Full: drop the oldest sample.
+            oldestSequence++;
+        expire(timestamp);
+
+        final long sequence = nextSequence++;
+        timestamps[(int) (sequence % capacity)] = timestamp;
+
+        for(int i = 0; i < axes; i++){
+            minDeques[i].push(sequence, values[i]);
+            maxDeques[i].push(sequence, values[i]);
+            newestValues[i] = values[i];
+        }
+    }
+
+    /**
+     * Removes all the samples that are more than the window length older than the given time.
+     * @param now The current time (ms).
+     */
+    public void expire(long now){
+        final long oldest = now - lengthMs;
+
+        while(oldestSequence < nextSequence && timestamps[(int) (oldestSequence % capacity)] < oldest)
+            oldestSequence++;
+
+        for(int i = 0; i < axes; i++){
+            minDeques[i].expire(oldestSequence);
+            maxDeques[i].expire(oldestSequence);
+        }
+    }
+
+    /**
+     * Removes all the samples.
+     */
+    public void clear(){
+        for(int i = 0; i < axes; i++){
+            minDeques[i].clear();
+            maxDeques[i].clear();
+        }
+        oldestSequence = nextSequence;
+    }
+
+    /**
+     * @return True if there are no samples in the window.
+     */
+    public boolean isEmpty(){
+        return oldestSequence == nextSequence;
+    }
+
+    /**
+     * @return The number of samples in the window.
+     */
+    public int size(){
+        return (int) (nextSequence - oldestSequence);
+    }
+
+    /**
+     * @return The time stamp of the newest sample added.
+     */
+    public long getNewestTimestamp(){
+        return timestamps[(int) ((nextSequence + capacity - 1) % capacity)];
+    }
+
+    /**
+     * Copies the newest sample into the given array.
+     * @param out Array of (at least) one value for each axis.
+     */
+    public void getNewest(float out[]){
+        System.arraycopy(newestValues, 0, out, 0, axes);
+    }
+
+    /**
+     * Copies the min value of each axis in the window into the given array.
+     * @param out Array of (at least) one value for each axis.
+     */
+    public void getMin(float out[]){
+        for(int i = 0; i < axes; i++)
+            out[i] = minDeques[i].front();
+    }
+
+    /**
+     * Copies the max value of each axis in the window into the given array.
+     * @param out Array of (at least) one value for each axis.
+     */
+    public void getMax(float out[]){
+        for(int i = 0; i < axes; i++)
+            out[i] = maxDeques[i].front();
+    }
+
+    /**
+     * @return The max number of samples in the window.
+     */
+    public int getCapacity(){
+        return capacity;
+    }
+
+    /**
+     * A deque of (sequence number, value) pairs where the values are kept monotonic, so the front always holds
+     * the min (or max) value of the samples still in the window. Backed by two primitive ring buffers.
+     */
+    private static final class MonotonicDeque {
+
+        private final long sequences[];
+        private final float values[];
+        private final boolean keepMax;
+
+        private int head = 0;                   // Index of the front (oldest) element
+        private int size = 0;
+
+        private MonotonicDeque(int capacity, boolean keepMax){
+            sequences = new long[capacity];
+            values = new float[capacity];
+            this.keepMax = keepMax;
+        }
+
+        /**
+         * Pushes a new value at the back, after removing the values it dominates (values that can
+         * never be the min/max again, since the new value is both newer and smaller/bigger).
+         */
+        private void push(long sequence, float value){
+            while(size > 0){
+                final float back = values[(head + size - 1) % values.length];
+                if(keepMax ? back > value : back < value)
+                    break;
+                size--;
+            }
+
+            final int index = (head + size) % values.length;
+            sequences[index] = sequence;
+            values[index] = value;
+            size++;
+        }
+
+        /**
+         * Removes the values of samples older than the given sequence number from the front.
+         */
+        private void expire(long oldestSequence){
+            while(size > 0 && sequences[head] < oldestSequence){
+                head = (head + 1) % values.length;
+                size--;
+            }
+        }
+
+        private void clear(){
+            head = size = 0;
+        }
+
+        private float front(){
+            return values[head];
+        }
+    }
+}
@@ -222,13 +222,13 @@ public class MonitorController implements CalibrationListener {
 
         initiateMonitorActivity();
 
-        qualityRater.registerQualityListener(tripLogger);
+        qualityRater.registerQualityListener(tripLogger, QualityDispatcher.DELIVER_ALL);
         locationHandler.registerNewLocationListener(tripLogger);
         tripLogger.start();
 
         if(Config.useTts()){
             qtsEngine.speak("Device calibrated!");
-            qualityRater.registerQualityListener(qtsEngine);
+            qualityRater.registerQualityListener(qtsEngine, QualityDispatcher.DELIVER_ALL);
         }
     }
 
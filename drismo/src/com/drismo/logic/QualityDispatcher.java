@@ -0,0 +1,260 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.drismo.logic;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Used by the <code>QualityRater</code> to deliver quality updates to its listeners without waiting for them.
+ * Each listener has its own bounded mailbox, drained by its own thread, so a slow listener (a TTS engine
+ * speaking, or a trip logger writing to disk) only delays its own updates, never the rating or the other
+ * listeners. Publishing an update is O(1) per listener and never blocks on a listener callback.
+ * <p>
+ * A mailbox delivers either only the latest update (<code>DELIVER_LATEST</code>, for listeners that just
+ * show the current score) or every update (<code>DELIVER_ALL</code>, for listeners that average the scores).
+ * When a mailbox is full, the oldest update in it is dropped. The number of dropped updates and the delay
+ * from publishing to delivery are counted for each listener.
+ * @see QualityRater
+ * @see QualityListener
+ */
+public class QualityDispatcher {
+
+    private static final String TAG = "QualityDispatcher";
+
+    /**
+     * Only the latest update is kept in the mailbox; older updates not yet delivered are dropped.
+     */
+    public static final int DELIVER_LATEST = 0;
+
+    /**
+     * Every update is delivered, as long as the listener keeps up with <code>QUEUE_CAPACITY</code> updates.
+     */
+    public static final int DELIVER_ALL = 1;
+
+    /**
+     * Mailbox size for <code>DELIVER_ALL</code> listeners. The rater publishes at most 4 updates per second,
+     * so this covers a listener being stuck for about 15 seconds.
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final CopyOnWriteArrayList<Mailbox> mailboxes = new CopyOnWriteArrayList<Mailbox>();
+
+    /**
+     * Adds a listener with its own mailbox and delivery thread.
+     * @param listener The listener to add.
+     * @param delivery <code>DELIVER_LATEST</code> or <code>DELIVER_ALL</code>.
+     * @param currentScore Score delivered to the listener right away.
+     * @return False if the listener was already added.
+     */
+    public synchronized boolean register(QualityListener listener, int delivery, int currentScore){
+        if(find(listener) != null)
+            return false;
+
+        final Mailbox mailbox = new Mailbox(listener, delivery == DELIVER_ALL ? QUEUE_CAPACITY : 1);
+        mailboxes.add(mailbox);
+        mailbox.offer(currentScore, SystemClock.uptimeMillis());
+        return true;
+    }
+
+    /**
+     * Removes a listener and stops its delivery thread. Updates not yet delivered are discarded.
+     * @param listener The listener to remove.
+     * @return False if the listener wasn't added.
+     */
+    public synchronized boolean unregister(QualityListener listener){
+        final Mailbox mailbox = find(listener);
+        if(mailbox == null)
+            return false;
+
+        mailboxes.remove(mailbox);
+        mailbox.close();
+
+        Log.d(TAG, listener.getClass().getSimpleName() + ": " + mailbox.delivered + " delivered, "
+                + mailbox.dropped + " dropped, max lag " + mailbox.maxLagMs + " ms");
+        return true;
+    }
+
+    /**
+     * Posts a new score to the mailbox of every listener, and returns without waiting for them.
+     * @param score The new quality score.
+     */
+    public void publish(int score){
+        final long now = SystemClock.uptimeMillis();
+        for(Mailbox mailbox : mailboxes)
+            mailbox.offer(score, now);
+    }
+
+    /**
+     * @return True if there are no listeners.
+     */
+    public boolean isEmpty(){
+        return mailboxes.isEmpty();
+    }
+
+    /**
+     * @param listener A registered listener.
+     * @return Number of updates dropped for the listener because its mailbox was full, or -1 if not registered.
+     */
+    public long getDroppedCount(QualityListener listener){
+        final Mailbox mailbox = find(listener);
+        return mailbox == null ? -1 : mailbox.dropped;
+    }
+
+    /**
+     * @param listener A registered listener.
+     * @return Number of updates delivered to the listener, or -1 if not registered.
+     */
+    public long getDeliveredCount(QualityListener listener){
+        final Mailbox mailbox = find(listener);
+        return mailbox == null ? -1 : mailbox.delivered;
+    }
+
+    /**
+     * @param listener A registered listener.
+     * @return Time (ms) from publishing to delivery of the last update delivered, or -1 if not registered.
+     */
+    public long getLastLag(QualityListener listener){
+        final Mailbox mailbox = find(listener);
+        return mailbox == null ? -1 : mailbox.lastLagMs;
+    }
+
+    /**
+     * @param listener A registered listener.
+     * @return Highest time (ms) from publishing to delivery seen for the listener, or -1 if not registered.
+     */
+    public long getMaxLag(QualityListener listener){
+        final Mailbox mailbox = find(listener);
+        return mailbox == null ? -1 : mailbox.maxLagMs;
+    }
+
+    private Mailbox find(QualityListener listener){
+        for(Mailbox mailbox : mailboxes)
+            if(mailbox.listener == listener)
+                return mailbox;
+        return null;
+    }
+
+    /**
+     * A bounded ring of (score, publish time) pairs for one listener, drained on the listener's own thread.
+     * The ring is guarded by the mailbox itself, but the lock is never held while calling the listener.
+     */
+    private static final class Mailbox implements Runnable {
+
+        private final QualityListener listener;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        private final int scores[];
+        private final long publishTimes[];
+        private int head = 0;                   // Index of the oldest update
+        private int size = 0;
+        private boolean scheduled = false;      // True while a drain is queued or running
+
+        private volatile long delivered = 0;    // Counters, written by one thread each
+        private volatile long dropped = 0;
+        private volatile long lastLagMs = 0;
+        private volatile long maxLagMs = 0;
+
+        private Mailbox(QualityListener listener, int capacity){
+            this.listener = listener;
+            scores = new int[capacity];
+            publishTimes = new long[capacity];
+        }
+
+        /**
+         * Adds an update, dropping the oldest one if the mailbox is full, and queues a drain if needed.
+         */
+        private void offer(int score, long publishTime){
+            final boolean schedule;
+
+            synchronized (this){
+                if(size == scores.length){
+                    head = (head + 1) % scores.length;
+                    size--;
+                    dropped++;
+                }
+                final int index = (head + size) % scores.length;
+                scores[index] = score;
+                publishTimes[index] = publishTime;
+                size++;
+
+                schedule = !scheduled;
+                scheduled = true;
+            }
+
+            if(schedule){
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {    // Closed while publishing.
+                    synchronized (this){
+                        scheduled = false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Delivers the updates in the mailbox until it's empty. Runs on the listener's thread.
+         */
+        public void run(){
+            while(true){
+                final int score;
+                final long publishTime;
+
+                synchronized (this){
+                    if(size == 0){
+                        scheduled = false;
+                        return;
+                    }
+                    score = scores[head];
+                    publishTime = publishTimes[head];
+                    head = (head + 1) % scores.length;
+                    size--;
+                }
+
+                final long lag = SystemClock.uptimeMillis() - publishTime;
+                lastLagMs = lag;
+                if(lag > maxLagMs)
+                    maxLagMs = lag;
+
+                try {
+                    listener.onQualityUpdate(score);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, listener.getClass().getSimpleName() + " failed to handle a quality update", e);
+                }
+                delivered++;
+            }
+        }
+
+        private void close(){
+            executor.shutdownNow();
+            synchronized (this){
+                size = 0;
+            }
+        }
+    }
+}
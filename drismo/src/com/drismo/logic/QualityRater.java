@@ -24,17 +24,22 @@ package com.drismo.logic;
 import android.hardware.SensorManager;
 import android.os.SystemClock;
 import android.util.Log;
-import com.drismo.model.AccelerationObject;
 import com.drismo.model.Quality;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Handles quality rating and distributing updates to all the registered listeners.
+ * Handles quality rating and distributing updates to all the registered listeners. The rating is driven by
+ * the acceleration samples: an evaluation is done every <code>EVALUATION_INTERVAL_MS</code> of sample time,
+ * on a rating thread that only runs while there are listeners. The updates are handed to a
+ * <code>QualityDispatcher</code>, so the rating thread never waits for a listener.
  * @see QualityListener
+ * @see QualityDispatcher
  */
-public class QualityRater extends Thread implements FilteredAccelerationListener {
+public class QualityRater implements FilteredAccelerationListener {
 
     private static final int MAX_LIST_LENGTH_MS = 500;
 
@@ -55,110 +60,191 @@ public class QualityRater extends Thread implements FilteredAccelerationListener
     private static final float THRESHOLD_UGLY[]= new float[] { 3.0f, 2.2f, 1.6f };
     private static final float MOTION_THRESHOLD = 0.1f;
 
-    private int currentRating = 0;
+    /**
+     * Max number of samples kept in the rating window. At SENSOR_DELAY_FASTEST most devices deliver
+     * 50-200 samples per second. If a device delivers more, the oldest samples in the window are dropped.
+     */
+    private static final int WINDOW_CAPACITY = 512;
+
+    /**
+     * Time between each evaluation, in sample time. Half of the window length, so the windows overlap.
+     */
+    private static final int EVALUATION_INTERVAL_MS = MAX_LIST_LENGTH_MS / 2;
+
+    /**
+     * The rating every trip starts with.
+     */
+    private static final int START_RATING = 1600;
+
+    private volatile int currentRating = START_RATING;
 
-    private volatile ArrayList<QualityListener> qualityListeners = new ArrayList<QualityListener>();
+    private final QualityDispatcher dispatcher = new QualityDispatcher();
 
-    private final LinkedList<AccelerationObject> accelerationObjectList;
+    /**
+     * The rating window, keeping the per-axis min/max of the rotated acceleration from the last
+     * <code>MAX_LIST_LENGTH_MS</code>. Guarded by itself.
+     */
+    private final MinMaxWindow window = new MinMaxWindow(3, WINDOW_CAPACITY, MAX_LIST_LENGTH_MS);
+
+    /**
+     * Sample time when the next evaluation is due. Guarded by <code>window</code>.
+     */
+    private long nextEvaluationTime = 0;
 
-    private boolean isRating;
+    private final float currentValues[] = new float[3];         // Buffers used by evaluate()
+    private final float minValues[] = new float[3];
+    private final float maxValues[] = new float[3];
 
     /**
-     * Constructs the accelerationObjectList.
+     * Runs the evaluations while there are listeners. Null when the rater is stopped; a new executor is
+     * created each time the first listener is registered, so the rater can be stopped and started again.
+     */
+    private volatile ExecutorService ratingExecutor;
+
+    /**
+     * True while an evaluation is queued but not started. Used to coalesce ticks, so a busy rating thread
+     * never gets a backlog of evaluations.
+     */
+    private final AtomicBoolean evaluationPending = new AtomicBoolean(false);
+
+    private final Runnable evaluationTask = new Runnable() {
+        public void run() {
+            evaluationPending.set(false);
+            evaluateAndNotify();
+        }
+    };
+
+    /**
+     * Constructs the quality rater.
      */
     public QualityRater(){
-        accelerationObjectList = new LinkedList<AccelerationObject>();
     }
 
     /**
-     * Adds a quality listener and starts the thread if it is the first listener added to the list.
+     * Adds a quality listener that is only given the latest rating, if it falls behind.
+     * @param listener The listener to add.
+     * @see QualityRater#registerQualityListener(QualityListener, int)
+     */
+    public void registerQualityListener(QualityListener listener) {
+        registerQualityListener(listener, QualityDispatcher.DELIVER_LATEST);
+    }
+
+    /**
+     * Adds a quality listener and starts rating if it is the first listener added to the list.
+     * The listener is given the current rating right away, and after that only when it changes.
+     * The listener is called on its own thread.
      * @param listener The listener to add.
+     * @param delivery <code>QualityDispatcher.DELIVER_LATEST</code> or <code>QualityDispatcher.DELIVER_ALL</code>.
      */
-    public synchronized void registerQualityListener(QualityListener listener) {
+    public synchronized void registerQualityListener(QualityListener listener, int delivery) {
         Log.d("qualityListeners", "++ added " + listener.getClass().getSimpleName());
 
-        if(qualityListeners.size() == 0)                                          {
+        if(ratingExecutor == null){
             Log.d("qualityListeners", "STARTED!");
-            isRating = true;
-            start();
+            synchronized (window){
+                window.clear();
+                nextEvaluationTime = 0;
+            }
+            ratingExecutor = Executors.newSingleThreadExecutor();
         }
 
-        if(!qualityListeners.contains(listener))
-            qualityListeners.add(listener);
+        dispatcher.register(listener, delivery, currentRating);
     }
 
     /**
-     * Removes the specified quality listener and stops the thread if the listener list is empty.
+     * Removes the specified quality listener and stops rating if the listener list is empty.
      * @param listener The given listener to stopMonitoring.
      */
     public synchronized void unregisterQualityListener(QualityListener listener) {
-        qualityListeners.remove(listener);
+        dispatcher.unregister(listener);
 
         Log.d("qualityListeners", "-- removed " + listener.getClass().getSimpleName() );
 
-        if(qualityListeners.size() == 0) {
-            isRating = false;
-            interrupt();
-            accelerationObjectList.clear();
+        if(dispatcher.isEmpty() && ratingExecutor != null) {
+            ratingExecutor.shutdownNow();
+            ratingExecutor = null;
+            evaluationPending.set(false);
             Log.d("qualityListeners", "STOPPED!");
         }
     }
 
     /**
-     * On each entry an AccelerationObject (containing the vectors and timestamp) is added to
-     * the <code>accelerationObjectList</code>, and deletes all the objects that are older
-     * than <code>MAX_LIST_LENGTH_MS</code>.
-     * @see com.drismo.model.AccelerationObject
+     * @return The dispatcher delivering the updates, holding the drop and lag counters of each listener.
+     */
+    public QualityDispatcher getDispatcher(){
+        return dispatcher;
+    }
+
+    /**
+     * @return True if the rater has listeners and evaluates the driving quality.
+     */
+    public boolean isRating(){
+        return ratingExecutor != null;
+    }
+
+    /**
+     * On each entry the rotated vectors and a timestamp is added to the rating window, and all the
+     * samples that are older than <code>MAX_LIST_LENGTH_MS</code> are removed. Amortised O(1).
+     * <p>
+     * The samples also drive the rating: when a sample arrives after the evaluation deadline, an evaluation
+     * is queued on the rating thread, unless one is already queued. Nothing is queued while the vehicle is
+     * standing still, or when the sensor stops delivering, so the rating thread is only woken when there is
+     * something to rate.
      * @see QualityRater#MAX_LIST_LENGTH_MS
+     * @see MinMaxWindow#add(long, float[])
      * @param filteredVectors Not used here.
-     * @param RotatedVectors This is added as the vectors in the <code>AccelerationObject</code>
+     * @param RotatedVectors This is copied into the rating window.
      */
     public void onFilteredAccelerationChange(float[] filteredVectors, float[] RotatedVectors) {
-        
-        synchronized (accelerationObjectList){
-            AccelerationObject current = new AccelerationObject(RotatedVectors.clone(), SystemClock.uptimeMillis());
-                if(accelerationObjectList.size() > 0){
-                    AccelerationObject last;
-
-                    do{                                                  // Remove all objects which is timed out:
-                       last = accelerationObjectList.removeLast();
-                    }while(accelerationObjectList.size() > 0 &&
-                          current.timestamp - last.timestamp > MAX_LIST_LENGTH_MS);
-
-                    if(last != null)
-                        accelerationObjectList.addLast(last);            //put back the object that was valid
-                }
-                accelerationObjectList.addFirst(current);
+        final long now = SystemClock.uptimeMillis();
+        boolean due = false;
+
+        synchronized (window){
+            window.add(now, RotatedVectors);
+
+            if(now >= nextEvaluationTime){                      // Deadline passed. If more than one interval
+                nextEvaluationTime += EVALUATION_INTERVAL_MS;   //  is missed, the ticks are coalesced into one.
+                if(nextEvaluationTime <= now)
+                    nextEvaluationTime = now + EVALUATION_INTERVAL_MS;
+                due = true;
             }
+        }
 
+        if(due && isMoving(RotatedVectors[1]) && evaluationPending.compareAndSet(false, true)){
+            final ExecutorService executor = ratingExecutor;
+            try {
+                if(executor == null)
+                    evaluationPending.set(false);
+                else
+                    executor.execute(evaluationTask);
+            } catch (RejectedExecutionException e) {        // Stopped while queueing.
+                evaluationPending.set(false);
+            }
+        }
     }
 
     /**
-     * Evaluates the driving quality and updates all the listeners.
+     * Check if the vehicle is in motion, based on the acceleration in the driving direction.
+     * @param y The rotated Y acceleration.
+     * @return True if the vehicle is moving.
+     */
+    private static boolean isMoving(float y){
+        return y > MOTION_THRESHOLD || y < -MOTION_THRESHOLD;
+    }
+
+    /**
+     * Evaluates the driving quality, and publishes the rating to the listeners if it changed.
+     * Runs on the rating thread, and returns without waiting for the listeners.
      * @see QualityRater#evaluate()
      * @see QualityListener#onQualityUpdate(int)
      */
-    public void run() {
-        currentRating = 1600;
-
-        synchronized (this){
-
-            while(isRating){                //while the rating isn't stopped
-
-                Log.d("qualityListeners", "evaluating..");
+    private void evaluateAndNotify() {
+        final int previousRating = currentRating;
 
-                evaluate();                                         //Evaluate and update current score
+        evaluate();                                             //Evaluate and update current score
 
-                for(QualityListener listener : qualityListeners )   //Notify listeners:
-                    listener.onQualityUpdate(currentRating);
-
-                try {                                               //Wait half of the list length, to overlap
-                    wait(MAX_LIST_LENGTH_MS/2);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        if(currentRating != previousRating)
+            dispatcher.publish(currentRating);                  //Notify listeners
     }
 
     /**
@@ -166,49 +252,36 @@ public class QualityRater extends Thread implements FilteredAccelerationListener
      * evaluating changes and constant force measured by each vector).
      */
     private void evaluate(){
-        if(accelerationObjectList.size() >0){
-            synchronized (accelerationObjectList){
-
-                final AccelerationObject first = accelerationObjectList.getFirst();
-                final float currentValues[] = first.rotatedVectors;
-
-                if(currentValues[1] > MOTION_THRESHOLD || currentValues[1] < -MOTION_THRESHOLD){
-
-                    float minValues[] = currentValues.clone();
-                    float maxValues[] = currentValues.clone();
-
-                    float diffValues[] = new float[3];
-                    float deltaScore=0;
-                                                                //get the max/min values, used to calculate the max difference
-                    for(AccelerationObject previous : accelerationObjectList){
-                        float previousValues[] = previous.rotatedVectors;
-                        for(int i = 0; i < 3; i++){
-                            if(minValues[i] > previousValues[i]){
-                                minValues[i] = previousValues[i];
-                            }else if(maxValues[i] < previousValues[i]){
-                                maxValues[i] = previousValues[i];
-                            }
-                        }
-                    }
-                                                                //calculate the delta score for each axis
-                    for(int i = 0; i < 3; i++){
-                        diffValues[i] = maxValues[i] - minValues[i];
-                                                                //calculate the delta score based on the max diff.
-                        deltaScore += getDeltaScore(diffValues[i], THRESHOLD_BAD[i], THRESHOLD_UGLY[i], DIFF_POINTS);
-
-                                                                //calculate the delta score based on the constant force.
-                        if(i == 2)
-                            deltaScore += getDeltaScore(currentValues[i] - SensorManager.STANDARD_GRAVITY, THRESHOLD_BAD[i], THRESHOLD_UGLY[i], CONST_POINTS);
-                        else
-                            deltaScore += getDeltaScore(currentValues[i], THRESHOLD_BAD[i], THRESHOLD_UGLY[i], CONST_POINTS);
-                    }
-                                                                //set the current score
-                    currentRating += deltaScore;
-                                                                //if the new score is less than min, new score == min
-                    if(deltaScore < 0 && currentRating < Quality.MIN_SCORE)
-                        currentRating = Quality.MIN_SCORE;
-                }
+        synchronized (window){                                  //copy the current and min/max values, O(1)
+            if(window.isEmpty())
+                return;
+
+            window.getNewest(currentValues);
+            window.getMin(minValues);
+            window.getMax(maxValues);
+        }
+
+        if(isMoving(currentValues[1])){
+
+            float diffValue;
+            float deltaScore=0;
+                                                        //calculate the delta score for each axis
+            for(int i = 0; i < 3; i++){
+                diffValue = maxValues[i] - minValues[i];
+                                                        //calculate the delta score based on the max diff.
+                deltaScore += getDeltaScore(diffValue, THRESHOLD_BAD[i], THRESHOLD_UGLY[i], DIFF_POINTS);
+
+                                                        //calculate the delta score based on the constant force.
+                if(i == 2)
+                    deltaScore += getDeltaScore(currentValues[i] - SensorManager.STANDARD_GRAVITY, THRESHOLD_BAD[i], THRESHOLD_UGLY[i], CONST_POINTS);
+                else
+                    deltaScore += getDeltaScore(currentValues[i], THRESHOLD_BAD[i], THRESHOLD_UGLY[i], CONST_POINTS);
             }
+                                                        //set the current score
+            currentRating += deltaScore;
+                                                        //if the new score is less than min, new score == min
+            if(deltaScore < 0 && currentRating < Quality.MIN_SCORE)
+                currentRating = Quality.MIN_SCORE;
         }
     }
 
@@ -237,6 +310,8 @@ public class QualityRater extends Thread implements FilteredAccelerationListener
 
     /**
      * This is used to calculate a score relative to the current score and quality.
+     * The expected outcome is looked up in a precomputed table instead of calling <code>Math.pow</code>.
+     * @see EloExpectation
      * @param outcome this is the outcome of the current driving quality.
      * @param points unit used to calculate the delta score.
      * @return Returns the new delta score
@@ -244,8 +319,8 @@ public class QualityRater extends Thread implements FilteredAccelerationListener
     public final float calculateDeltaScore(final float outcome, final float points){
 
         final float relativeScore = 1000*outcome + 500;
-                                                                //calculate the expected score
-        final float expectedOutcome = (float) (1 / ( 1 + Math.pow(10.0, (relativeScore - currentRating)/100.0)));
+                                                                //look up the expected score
+        final float expectedOutcome = EloExpectation.expectedOutcome(relativeScore - currentRating);
 
         return points * (outcome - expectedOutcome);            //return the new delta score
     }
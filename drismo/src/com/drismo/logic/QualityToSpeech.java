@@ -28,9 +28,15 @@ import com.drismo.model.Quality;
 
 import java.util.Locale;
 import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * TODO: Kommenter JAM
+ * <p>
+ * The rating only notifies its listeners when it changes, so the score is held between updates, and averaged
+ * over the time each score was held. The average is spoken on a timer, every <code>frequency</code> ms from
+ * the first update, whether the score changed or not.
  */
 public class QualityToSpeech implements TextToSpeech.OnInitListener, QualityListener {
     private static final String TAG = "QTS";
@@ -41,14 +47,16 @@ public class QualityToSpeech implements TextToSpeech.OnInitListener, QualityList
 
     private int frequency = 0;
 
-    private long lastSpoken = 0;
+    private Timer timer;
 
-    private long sumScore = 0;
-    private int scoreCounter = 0;
+    private int lastScore = 0;
+    private long lastUpdate = 0;            // Time the last score was received, 0 before the first one
+    private double sumScoreMs = 0;          // Sum of score x time it was held, since last spoken
+    private long sumMs = 0;
 
     QualityToSpeech(Context c){
         context = c;
-        frequency = Config.getTtsMinuteFrequency() * 60000;
+        frequency = Math.max(1, Config.getTtsMinuteFrequency()) * 60000;
         mTts = new TextToSpeech(context, this);
     }
 
@@ -86,6 +94,11 @@ public class QualityToSpeech implements TextToSpeech.OnInitListener, QualityList
     }
 
     public void shutdown(){
+        synchronized (this){
+            if(timer != null)
+                timer.cancel();
+            timer = null;
+        }
         mTts.shutdown();
     }
 
@@ -109,18 +122,43 @@ public class QualityToSpeech implements TextToSpeech.OnInitListener, QualityList
     };
 
     /**
-     *
+     * Holds the new score until the next update, and starts the timer on the first one.
      * @param newScore The new/updated quality score.
      */
-    public void onQualityUpdate(int newScore) {
-        sumScore += newScore;
-        scoreCounter++;
+    public synchronized void onQualityUpdate(int newScore) {
+        final long now = System.currentTimeMillis();
+        if(lastUpdate == 0){
+            timer = new Timer(TAG, true);
+            timer.scheduleAtFixedRate(new TimerTask() {
+                public void run() {
+                    speakAverage();
+                }
+            }, frequency, frequency);
+        }
+        else
+            hold(now);
+        lastScore = newScore;
+        lastUpdate = now;
+    }
 
-        if(lastSpoken == 0){
-            lastSpoken = System.currentTimeMillis();
-        }else if(scoreCounter > 0 && lastSpoken + frequency < System.currentTimeMillis()){
-            lastSpoken = System.currentTimeMillis();
-            int avgScore = (int) (sumScore / scoreCounter);
+    /**
+     * Adds the time the last score was held up to now to the average.
+     */
+    private void hold(long now){
+        sumScoreMs += (double) lastScore * (now - lastUpdate);
+        sumMs += now - lastUpdate;
+        lastUpdate = now;
+    }
+
+    /**
+     * Speaks the quality of the average score since last spoken, weighted by the time each score was held.
+     */
+    private synchronized void speakAverage() {
+        if(timer == null)
+            return;                                             // Shut down
+        hold(System.currentTimeMillis());
+        if(sumMs > 0){
+            int avgScore = (int) (sumScoreMs / sumMs);
 
             String quality = "BAD";
 
@@ -138,7 +176,7 @@ public class QualityToSpeech implements TextToSpeech.OnInitListener, QualityList
 
             speak( avgQualityString );
 
-            sumScore = scoreCounter = 0;
+            sumScoreMs = sumMs = 0;
         }
     }
 }
@@ -24,6 +24,11 @@ import android.content.Context;
 import android.location.Location;
 import android.util.Log;
 import com.drismo.model.Config;
+import com.drismo.model.TripMetadata;
+import com.drismo.model.TripStatistics;
+import com.drismo.utils.FileController;
+import com.drismo.utils.TripIndex;
+import com.drismo.utils.AsyncTripFileWriter;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -31,18 +36,33 @@ import java.util.Arrays;
 
 /**
  * Class for making/updating log file. Logs the quality when monitoring, and location if specified.
+ * The log is written in the binary trip file format, by a background writer thread, so the quality and
+ * location callbacks never wait for the file system. The writer keeps the statistics of the trip as the records
+ * are written, and stores them in the footer of the file when the log file is closed.
+ * @see com.drismo.utils.AsyncTripFileWriter
  * @see com.drismo.logic.MonitorController
  */
 public class TripLogger extends Thread implements QualityListener, NewLocationListener {
 
+    /**
+     * The log file is flushed and synced when this many records are queued, one minute at the normal update rate.
+     */
+    private static final int FLUSH_RECORDS = 30;
+
+    /**
+     * Max time between flushes of the log file. Bounds the data lost if the app is killed.
+     */
+    private static final long FLUSH_INTERVAL_MS = 60000;
+
     private int update_ms;
-    private OutputStreamWriter osw;
+    private AsyncTripFileWriter writer;
     private long mStartTime;
     private String logFileName;
     private Context context;
     private boolean isLogging;
 
     private volatile ArrayList<Integer> scoreList = new ArrayList<Integer>();
+    private int lastScore = 0;
 
     private Location currentLocation;
 
@@ -54,7 +74,7 @@ public class TripLogger extends Thread implements QualityListener, NewLocationLi
         context = con;
         update_ms =0;
         logFileName = "not";
-        osw = null;
+        writer = null;
     }
 
     public void run() {
@@ -78,8 +98,8 @@ public class TripLogger extends Thread implements QualityListener, NewLocationLi
      public synchronized void interrupt() {
          Log.d("Fil", "stopping file");
          if(isLogging){
-             update_ms = 0;
              closeLogFile();
+             update_ms = 0;
              isLogging = false;
          }
 
@@ -117,7 +137,8 @@ public class TripLogger extends Thread implements QualityListener, NewLocationLi
             fileNameEnding = "0001";
                             // creating filename in format drismo-<first-available-number>.dtf
             for(String filname : filenames){
-                if(filname.equals(logFileName+fileNameEnding+".csv")) fileNameCount++;
+                if(filname.equals(logFileName+fileNameEnding+FileController.FILE_EXTENSION)
+                        || filname.equals(logFileName+fileNameEnding+FileController.LEGACY_FILE_EXTENSION)) fileNameCount++;
 
                 if(fileNameCount < 10)          fileNameEnding = "000" + fileNameCount;
                 else if(fileNameCount < 100)    fileNameEnding = "00"  + fileNameCount;
@@ -125,13 +146,11 @@ public class TripLogger extends Thread implements QualityListener, NewLocationLi
                 else fileNameEnding = Integer.toString(fileNameCount);
             }
 
-            logFileName += fileNameEnding+".csv";
+            logFileName += fileNameEnding+FileController.FILE_EXTENSION;
             fos = context.openFileOutput(logFileName, Context.MODE_WORLD_READABLE); // makes a new file, in applications local storage place
 
-            osw = new OutputStreamWriter(fos) ;
-
-            osw.write("#Time,Score,Lat,Long,Speed,:"+ update_ms +"\n");
-            osw.flush();
+            writer = new AsyncTripFileWriter(fos, update_ms, mStartTime, FLUSH_RECORDS, FLUSH_INTERVAL_MS);
+            writer.start();
 
         } catch (IOException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
@@ -143,47 +162,52 @@ public class TripLogger extends Thread implements QualityListener, NewLocationLi
 
     /**
      * closes the log file, so the application can startMonitoring a new one.
+     * The writer thread writes the last records and the statistics, syncs and closes the file in the background,
+     * and then adds the trip to the trip index.
      */
     public void closeLogFile(){
-        try {
-            osw.flush();
-            osw.close();
-            osw = null;
-
-        } catch (IOException e) {
-            e.printStackTrace();
+        if(writer != null){
+            final String fileName = logFileName;
+            final AsyncTripFileWriter closing = writer;
+
+            writer.close(new Runnable() {
+                public void run() {                                 // On the writer thread, when the file is closed
+                    final TripStatistics statistics = closing.getStatistics();
+                    final int records = statistics.getRecordCount();
+                    TripIndex.getInstance(context).put(fileName, statistics.getStartTime(),
+                            TripMetadata.calculateDurationSeconds(statistics.getRefreshRate(), records),
+                            statistics.getDistanceMeters(), statistics.getAverageScore(), records);
+                }
+            });
+            if(writer.getDroppedCount() > 0)
+                Log.w("Fil", writer.getDroppedCount() + " records dropped");
+            writer = null;
         }
     }
 
     /**
-     * Updates the log file with a new line of info.
+     * Queues a new record for the log file. The record is written by the writer thread.
      */
     private void updateFile(){
         synchronized (this) {
-            if(osw != null && !logFileName.equals("not"))         //if there is a log file
-                try {
-                    final long start = mStartTime;
-                    long millis = System.currentTimeMillis() - start;    //milliseconds from starting the logger
-
-                    //writes the milliseconds from startMonitoring, and the avg. score since last update + location info.
-                    String output = millis + "," + calculateAverageScore() + "," + currentLocation.getLatitude() + "," + currentLocation.getLongitude() +","+ currentLocation.getSpeed()+"\n";
-
-                    osw.write(output);
-                    scoreList.clear();
-
-//                    Log.d("Log", output);
-
-                    osw.flush();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            if(writer != null && !logFileName.equals("not")){     //if there is a log file
+                final long start = mStartTime;
+                long millis = System.currentTimeMillis() - start;    //milliseconds from starting the logger
+
+                //queues the milliseconds from startMonitoring, and the avg. score since last update + location info.
+                final int score = calculateAverageScore();
+                writer.append(millis, score, currentLocation.getLatitude(),
+                              currentLocation.getLongitude(), currentLocation.getSpeed());
+                scoreList.clear();
+            }
         }
     }
 
     /**
      * Calculates the avg. score
      * @see TripLogger#updateFile()
-     * @return the avg. score since last write to the log file.
+     * @return the avg. score since last write to the log file, or the last score received if it hasn't
+     *          changed since then (the rater only sends updates when the score changes).
      */
     private int calculateAverageScore(){
         if(scoreList.size() > 0){
@@ -195,7 +219,7 @@ public class TripLogger extends Thread implements QualityListener, NewLocationLi
             return avgSum / scoreList.size();
         }
 
-        return 0;
+        return lastScore;
     }
 
     /**
@@ -205,6 +229,7 @@ public class TripLogger extends Thread implements QualityListener, NewLocationLi
      */
     public synchronized void onQualityUpdate(int newScore) {
         scoreList.add(newScore);
+        lastScore = newScore;
     }
 
     /**
@@ -34,6 +34,7 @@ public class Config {
     private static boolean replySMS;              // Set static preference-vars,
     private static boolean replyCall;             //  for easy access from the Preference class.
     private static boolean logGps;
+    private static boolean geocodeOnline = true;
     private static boolean powerSaver;
     private static boolean dimScreen;
     private static boolean gpsExists;
@@ -45,6 +46,7 @@ public class Config {
     private static String speedUnit;
     private static float speedConv;
     private static int ttsFrequency;
+    private static int mapHistorySeconds = 60;
 
     /**
      * Check whether auto reply on is activated for incoming messages or not.
@@ -70,6 +72,15 @@ public class Config {
         return logGps;
     }
 
+    /**
+     * Check whether place names not found on the device may be looked up online. Only applies to the kinds of
+     * names (cities, streets) that have a gazetteer installed.
+     * @return True if online lookups are allowed. False otherwise.
+     */
+    public static boolean geocodeOnline(){
+        return geocodeOnline;
+    }
+
     /**
      * Check whether the power saver is activated or not.
      * @return True if power saving is activated. False otherwise.
@@ -121,6 +132,14 @@ public class Config {
         return ttsFrequency;
     }
 
+    /**
+     * Get how much of the route the map monitor shows.
+     * @return The history length in seconds.
+     */
+    public static int getMapHistorySeconds(){
+        return mapHistorySeconds;
+    }
+
     /**
      * Check whether the dim screen setting is enabled or not.
      * @return True if the setting is enabled. False otherwise.
@@ -209,6 +228,14 @@ public class Config {
         logGps = log;
     }
 
+    /**
+     * Allow/Disallow online lookups of place names.
+     * @param online True if place names not found on the device may be looked up online. False otherwise.
+     */
+    public static void setGeocodeOnline(boolean online){
+        geocodeOnline = online;
+    }
+
     /**
      * Enable/Disable power saver.
      * @param ps True if power saver should be enabled. False otherwise.
@@ -252,6 +279,14 @@ public class Config {
         ttsFrequency = freq;
     }
 
+    /**
+     * Set how much of the route the map monitor shows.
+     * @param seconds History length in seconds.
+     */
+    public static void setMapHistorySeconds(int seconds) {
+        mapHistorySeconds = seconds;
+    }
+
     /**
      * Store information about whether or not the device has GPS.
      * @param gps True if the device has GPS. False otherwise.
@@ -288,12 +323,14 @@ public class Config {
      */
     public static void initializePreferences(Context c, SharedPreferences prefs) {
         setLogGps(prefs.getBoolean("logGps", true));
+        setGeocodeOnline(prefs.getBoolean("geocodeOnline", true));
         setAutoReplySms(prefs.getBoolean("replySMS", false));
         setAutoReplyCall(prefs.getBoolean("replyCall", false));
         setPowerSaver(prefs.getBoolean("powerSaver", false));
         setDimScreen(prefs.getBoolean("dimScreen", false));
         setUseTts(prefs.getBoolean("useTts", true));
         setTtsFrequency(Integer.parseInt(prefs.getString("TTSFrequency", "5")));
+        setMapHistorySeconds(Integer.parseInt(prefs.getString("mapHistory", "60")));
         setLangCode(prefs.getString("languageSelection", "en"));
         setAutoReplyMsg(prefs.getString("customReplyMsg", c.getString(R.string.autoReplyMessage)));
         setPrefMonitor(Integer.parseInt(prefs.getString("monitorChoice", "2").trim()));
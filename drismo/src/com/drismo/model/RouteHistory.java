@@ -0,0 +1,146 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.drismo.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The latest part of a live route, for the map monitor: a fixed size ring buffer of locations and their colors,
+ * holding the locations of the last <code>maxAgeMs</code> (or of the last <code>capacity</code> fixes, if they
+ * come faster). Adding a location is O(1), and allocates nothing.
+ * <p>
+ * One thread adds the locations; others read them in place, under a sequence lock: the sequence is odd while a
+ * location is added, so a reader takes the sequence with <code>beginRead()</code>, reads, and keeps what it read
+ * only if <code>endRead()</code> tells that nothing was added meanwhile.
+ * @see com.drismo.gui.monitor.MapMonitor
+ * @see com.drismo.gui.TripOverlay
+ */
+public class RouteHistory {
+
+    private final long times[];
+    private final int latitudesE6[];
+    private final int longitudesE6[];
+    private final int colors[];
+    private final long maxAgeMs;
+
+    private int first = 0;                              // Slot of the oldest location
+    private int size = 0;
+    private long added = 0;                             // Locations added since the history was created
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * @param capacity Max number of locations held.
+     * @param maxAgeMs Locations older than this (relative to the latest) are dropped.
+     */
+    public RouteHistory(int capacity, long maxAgeMs){
+        times = new long[capacity];
+        latitudesE6 = new int[capacity];
+        longitudesE6 = new int[capacity];
+        colors = new int[capacity];
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Adds a location, dropping the locations that are too old, or the oldest if the history is full.
+     * Only to be called by one thread.
+     * @param time Time of the location (ms).
+     * @param latitudeE6 Latitude in microdegrees.
+     * @param longitudeE6 Longitude in microdegrees.
+     * @param color Color of the location.
+     */
+    public void add(long time, int latitudeE6, int longitudeE6, int color){
+        sequence.incrementAndGet();                     // Odd: readers retry.
+        while(size > 0 && (size == times.length || time - times[first] > maxAgeMs)){
+            first = (first + 1) % times.length;
+            size--;
+        }
+        final int slot = (first + size) % times.length;
+        times[slot] = time;
+        latitudesE6[slot] = latitudeE6;
+        longitudesE6[slot] = longitudeE6;
+        colors[slot] = color;
+        size++;
+        added++;
+        sequence.incrementAndGet();
+    }
+
+    /**
+     * Starts reading, waiting out a location being added.
+     * @return The sequence to give <code>endRead()</code>.
+     */
+    public int beginRead(){
+        int started;
+        while(((started = sequence.get()) & 1) != 0)
+            Thread.yield();
+        return started;
+    }
+
+    /**
+     * @param started The sequence from <code>beginRead()</code>.
+     * @return True if nothing was added since <code>beginRead()</code>, so what was read is consistent.
+     */
+    public boolean endRead(int started){
+        return sequence.compareAndSet(started, started);    // A write, so the reads can't move past it.
+    }
+
+    public int getCapacity(){
+        return times.length;
+    }
+
+    public long getMaxAgeMs(){
+        return maxAgeMs;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return The number of locations added since the history was created; tells if it has changed.
+     */
+    public long getAddedCount(){
+        return added;
+    }
+
+    /**
+     * @param index Index of the location, from the oldest.
+     * @return The slot holding the location.
+     */
+    public int getSlot(int index){
+        return (first + index) % times.length;
+    }
+
+    public long getTime(int slot){
+        return times[slot];
+    }
+
+    public int getLatitudeE6(int slot){
+        return latitudesE6[slot];
+    }
+
+    public int getLongitudeE6(int slot){
+        return longitudesE6[slot];
+    }
+
+    public int getColor(int slot){
+        return colors[slot];
+    }
+}
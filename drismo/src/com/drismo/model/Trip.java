@@ -21,232 +21,391 @@
 package com.drismo.model;
 
 import android.content.Context;
-import android.location.Location;
 import com.drismo.R;
+import com.drismo.logic.GeocodingService;
 import com.drismo.logic.JsonFunctions;
+import com.drismo.utils.GeocodeCache;
+import com.drismo.utils.FileController;
+import com.drismo.utils.MappedTripFile;
+import com.drismo.utils.RouteSimplifier;
+import com.drismo.utils.TripFileReader;
+import com.drismo.utils.TripIndex;
 
 import java.io.*;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
 
 /**
- * Model of a trip, containing all elements for viewing a trip. This class also
- * handles reading a trip from a file.
+ * Model of a trip, containing all elements for viewing a trip. Nothing but the header is read when the trip is
+ * created: the statistics (averages, distance, duration) are read from the footer of the file the first time
+ * they're needed (or summed up by streaming the file, for files without them), and each column is loaded from
+ * the file the first time it's accessed. The columns are kept in a cache shared by all trips, within a memory budget.
+ * @see TripColumnCache
+ * @see MappedTripFile
  */
 public class Trip {
 
-    private final ArrayList<MapPoint> pointList = new ArrayList<MapPoint>();       //arrayList to read the mapPoints from the file
+    private static final String SCORES = "scores";
+    private static final String COLORS = "colors";
+    private static final String SPEEDS = "speeds";
+    private static final String LATITUDES = "latitudes";
+    private static final String LONGITUDES = "longitudes";
+    private static final String ROUTE_COLORS = "routeColors";
+    private static final String ROUTE_ZOOM_LEVELS = "routeZoomLevels";
 
-    private final int refreshRate;
-
-    private final int[] scoreArray;
-    private final int[] colorArray;
-    private final float[] speedArray;
+    /**
+     * Time to wait for the place names of the summary; the names not found by then are left out.
+     */
+    private static final long GEOCODE_TIMEOUT_MS = 10000;
 
-    private boolean gpsCordsAvailable = false;
-    private final int[] shortColorArray;
-    private final float[] latitudeArray;
-    private final float[] longitudeArray;
-    private float tripLength;
-    private Context context;
-    private String fileName;
+    private final Context context;
+    private final String fileName;
+    private final String cacheKey;
+    private final MappedTripFile mappedFile;    // null for legacy CSV trips
+    private TripStatistics statistics;
 
 
     /**
-     * Load a trip by reading the specified file.
+     * Opens a trip file, binary or legacy CSV. Only the header of a binary file is read (the file is memory
+     * mapped), and nothing of a legacy file.
      * @param filename The given file name to read.
      * @param c Context requesting the trip.
-     * @throws IOException If reading fails an IOException is thrown.
+     * @throws IOException If a binary trip file can't be opened.
      */
     public Trip(String filename, Context c) throws IOException {
 
-        String buff;
-        String[] splitBuff = new String[5];
         context = c;
         fileName = filename;
+        mappedFile = filename.endsWith(FileController.LEGACY_FILE_EXTENSION) ? null : MappedTripFile.open(c, filename);
+
+        final File file = c.getFileStreamPath(FileController.isTripFile(filename) ? filename
+                                                                                  : filename + FileController.FILE_EXTENSION);
+        cacheKey = filename + ':' + file.lastModified() + ':';     // A new trip may get the name of a deleted one.
+    }
 
-        if(!filename.endsWith(".csv")) {
-            filename +=".csv";
+    /**
+     * Streams all the records of the trip file to a sink, after giving it the header.
+     */
+    private synchronized void stream(TripRecordSink records) throws IOException {
+        if(mappedFile == null){
+            TripFileReader.load(context, fileName, records);
+            return;
         }
+        records.setHeader(mappedFile.getRefreshRate(), mappedFile.getStartTime());
+        mappedFile.read(0, mappedFile.getRecordCount(), records);
+    }
 
-        final BufferedReader in = new BufferedReader(
-                new InputStreamReader(c.openFileInput(filename))
-        );
+    /**
+     * @return The number of records, if it's known without reading the records, else 0.
+     */
+    private int getExpectedRecordCount(){
+        if(mappedFile != null)
+            return mappedFile.getRecordCount();
+        if(statistics != null)
+            return statistics.getRecordCount();
+        final TripMetadata metadata = TripIndex.getInstance(context).get(fileName);
+        return metadata != null ? metadata.getRecordCount() : 0;
+    }
 
-        refreshRate = Integer.parseInt(in.readLine().split(":")[1]);
-        in.readLine();
+    /**
+     * @return The statistics of the trip, read from the footer of the trip file the first time they're needed,
+     *         or summed up by streaming the file if it has none. Empty if the file can't be read.
+     */
+    public synchronized TripStatistics getStatistics(){
+        if(statistics == null){
+            TripStatistics loaded = null;
+            try {
+                if(mappedFile != null)
+                    loaded = mappedFile.getStatistics();
+                if(loaded == null){
+                    loaded = new TripStatistics();
+                    stream(loaded);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                loaded = new TripStatistics();
+            }
+            statistics = loaded;
+        }
+        return statistics;
+    }
 
-        StringTokenizer st;
+    /**
+     * Loads the columns of the route, or the score and speed columns, from the trip file in one pass, and
+     * caches them.
+     * @param column The column that's needed. Returned even if the cache can't hold it.
+     * @param route True to load the route (the location columns), false to load the score and speed columns.
+     * @return The column.
+     */
+    private Object loadColumns(String column, boolean route){
+        final Loader loader = new Loader(getExpectedRecordCount(), route);
+        try {
+            stream(loader);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        final String names[];
+        final Object columns[];
+        if(route){
+            names = new String[]{ LATITUDES, LONGITUDES, ROUTE_COLORS };
+            columns = new Object[]{ trim(loader.latitudes, loader.gpsSize), trim(loader.longitudes, loader.gpsSize),
+                                    trim(loader.gpsColors, loader.gpsSize) };
+        }
+        else {
+            names = new String[]{ SPEEDS, SCORES };
+            columns = new Object[]{ trim(loader.speeds, loader.size), trim(loader.scores, loader.size) };
+        }
 
-        while (!((buff = in.readLine()) == null)){    //reads all the map points from file
+        Object requested = null;
+        for(int i = 0; i < names.length; i++){
+            if(!names[i].equals(column))
+                TripColumnCache.put(cacheKey + names[i], columns[i]);
+            else
+                requested = columns[i];
+        }
+        TripColumnCache.put(cacheKey + column, requested);         // Last, so it's the most recently used.
+        return requested;
+    }
 
-            st = new StringTokenizer(buff, ",");
+    /**
+     * @return The column from the cache, loading it (and the columns loaded in the same pass) if needed.
+     */
+    private Object getColumn(String column, boolean route){
+        final Object array = TripColumnCache.get(cacheKey + column);
+        return array != null ? array : loadColumns(column, route);
+    }
 
-            for(int i = 0; i < 5; i++)
-                splitBuff[i] = st.nextToken();
+    private static int[] trim(int array[], int size){
+        if(array.length == size)
+            return array;
+        int trimmed[] = new int[size];
+        System.arraycopy(array, 0, trimmed, 0, size);
+        return trimmed;
+    }
 
-            pointList.add(
-                     new MapPoint(
-                             splitBuff[2],
-                             splitBuff[3],
-                             Quality.getDynamicColorFromScore(Integer.parseInt(splitBuff[1])),
-                             Integer.parseInt(splitBuff[1]),
-                             splitBuff[4]
-                     )
-            );
+    private static float[] trim(float array[], int size){
+        if(array.length == size)
+            return array;
+        float trimmed[] = new float[size];
+        System.arraycopy(array, 0, trimmed, 0, size);
+        return trimmed;
+    }
 
+    /**
+     * Builds columns of a trip while the file is read, in growable primitive arrays. Either each record is added to
+     * the score/speed arrays, or, if it has a new GPS location (not 0, and not the same as the last one added),
+     * the location and its color are added to the route arrays.
+     */
+    private static final class Loader implements TripRecordSink {
+
+        private static final int INITIAL_CAPACITY = 256;
+
+        private final boolean route;
+
+        private int scores[];
+        private float speeds[];
+        private int size = 0;
+
+        private int gpsColors[];
+        private float latitudes[];
+        private float longitudes[];
+        private int gpsSize = 0;
+
+        /**
+         * @param expectedRecords Number of records in the file if known, else 0. When it's right, the
+         *         score/speed arrays are filled without growing or trimming, and the location arrays
+         *         (at most one location per record) without growing.
+         * @param route True to load the route, false to load the scores and speeds.
+         */
+        private Loader(int expectedRecords, boolean route){
+            final int capacity = Math.max(expectedRecords, INITIAL_CAPACITY);
+            this.route = route;
+            if(route){
+                gpsColors = new int[capacity];
+                latitudes = new float[capacity];
+                longitudes = new float[capacity];
+            }
+            else {
+                scores = new int[capacity];
+                speeds = new float[capacity];
+            }
         }
 
-        in.close();
-
-        int size = pointList.size();
-        scoreArray = new int[size];
-        colorArray = new int[size];
-        speedArray = new float[size];
-        tripLength =0;
-        float[] lengthBuffer = new float[3];
-
-        int invalidGpsPoints = 0;
-
-        for(int i =0; i < size; i++){
-            scoreArray[i] = pointList.get(i).score;
-            speedArray[i] = pointList.get(i).speed;
-            colorArray[i] = pointList.get(i).color;
-            if(pointList.get(i).longitude != 0.0){
-                gpsCordsAvailable = true;
-                if( i > 0 && pointList.get(i).longitude == pointList.get(i-1).longitude
-                         && pointList.get(i).latitude == pointList.get(i-1).latitude){
-                    invalidGpsPoints ++;
-                }
-            }else invalidGpsPoints ++;
+        public void setHeader(int refreshRate, long startTime){
         }
 
-        shortColorArray = new int[size -invalidGpsPoints];
-        latitudeArray = new float[size -invalidGpsPoints];
-        longitudeArray = new float[size -invalidGpsPoints];
-
-        if(size -invalidGpsPoints >1){
-            latitudeArray[0] = 0;
-            longitudeArray[0] = 0;
-
-            int j=0;
-            for (MapPoint aPointList : pointList) {
-                if (aPointList.longitude != 0.0) {                      //only add the location if it is a real location.
-                    if(j==0) {
-                        latitudeArray[j] = aPointList.latitude;
-                        longitudeArray[j] = aPointList.longitude;
-                        shortColorArray[j] = aPointList.color;
-                        j++;
-                    }
-                    else if(!(aPointList.longitude == longitudeArray[j-1] && aPointList.latitude == latitudeArray[j-1])){
-                        latitudeArray[j] = aPointList.latitude;
-                        longitudeArray[j] = aPointList.longitude;
-                        shortColorArray[j] = aPointList.color;
-                        try{
-                            Location.distanceBetween(latitudeArray[j-1] ,longitudeArray[j-1], latitudeArray[j] , longitudeArray[j], lengthBuffer);
-                            tripLength += lengthBuffer[0];
-                        }catch (IllegalArgumentException e){
-                            //
-                        }
-                        j++;
-                    }
+        public void add(long time, int score, int latitudeE6, int longitudeE6, float speed){
+            if(!route){
+                if(size == scores.length){
+                    scores = grow(scores);
+                    speeds = grow(speeds);
                 }
+                scores[size] = score;
+                speeds[size] = speed;
+                size++;
+                return;
+            }
+
+            if(longitudeE6 == 0)                                        //only add the location if it is a real location.
+                return;
+
+            final float latitude = latitudeE6 / 1e6f;
+            final float longitude = longitudeE6 / 1e6f;
+            if(gpsSize > 0 && longitude == longitudes[gpsSize-1] && latitude == latitudes[gpsSize-1])
+                return;                                                 //and not the same as the last one.
+
+            if(gpsSize == latitudes.length){
+                gpsColors = grow(gpsColors);
+                latitudes = grow(latitudes);
+                longitudes = grow(longitudes);
             }
+            latitudes[gpsSize] = latitude;
+            longitudes[gpsSize] = longitude;
+            gpsColors[gpsSize] = Quality.getDynamicColorFromScore(score);
+            gpsSize++;
+        }
+
+        private static int[] grow(int array[]){
+            int grown[] = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
         }
-    }
 
+        private static float[] grow(float array[]){
+            float grown[] = new float[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+    }
 
-//    /** TODO: fjern?
-//     * Custom float parser to optimize the creation of map points.
-//     * Todo: XX times faster than the <code>Float.parseFloat()</code> method.
-//     * @param f The string to parse.
-//     * @return Returns the float value of the given input.
-//     */
-//    private static float stringToFloat(String f){
-//        int totLength = f.length();
-//        int commaPos = f.indexOf('.') + 1;
-//
-//        return Integer.parseInt(f.substring(0, commaPos-1)) +
-//                (float) (Long.parseLong(f.substring(commaPos, totLength)) / (Math.pow(10, totLength-commaPos)));
-//    }
 
     // TODO: kommenter ned igjennom ..
     public int getRefreshRate(){
-        return refreshRate;
+        return mappedFile != null ? mappedFile.getRefreshRate() : getStatistics().getRefreshRate();
     }
 
     public int[] getScoreArray() {
-        return scoreArray;
+        return (int[]) getColumn(SCORES, false);
     }
 
     public int[] getColorArray() {
-        return colorArray;
+        int colors[] = (int[]) TripColumnCache.get(cacheKey + COLORS);
+        if(colors == null){
+            final int scores[] = getScoreArray();
+            colors = new int[scores.length];
+            for(int i = 0; i < scores.length; i++)
+                colors[i] = Quality.getDynamicColorFromScore(scores[i]);
+            TripColumnCache.put(cacheKey + COLORS, colors);
+        }
+        return colors;
     }
 
     public float[] getSpeedArray() {
-        return speedArray;
+        return (float[]) getColumn(SPEEDS, false);
     }
 
     public boolean isGpsCordsAvailable() {
-        return gpsCordsAvailable;
+        return getStatistics().hasLocation();
     }
 
     public int[] getShortColorArray() {
-        return shortColorArray;
+        return (int[]) getColumn(ROUTE_COLORS, true);
+    }
+
+    /**
+     * @return The lowest zoom level each point of the route is drawn at, simplifying the route (slow for long trips,
+     *         so not on the UI thread) the first time it's needed.
+     * @see RouteSimplifier
+     */
+    public byte[] getRouteZoomLevels() {
+        byte zoomLevels[] = (byte[]) TripColumnCache.get(cacheKey + ROUTE_ZOOM_LEVELS);
+        if(zoomLevels == null){
+            zoomLevels = RouteSimplifier.getZoomLevels(getLatitudeArray(), getLongitudeArray());
+            TripColumnCache.put(cacheKey + ROUTE_ZOOM_LEVELS, zoomLevels);
+        }
+        return zoomLevels;
     }
 
     public float[] getLatitudeArray() {
-        return latitudeArray;
+        return (float[]) getColumn(LATITUDES, true);
     }
 
     public float[] getLongitudeArray() {
-        return longitudeArray;
+        return (float[]) getColumn(LONGITUDES, true);
     }
 
     public float getTripLengthInMeters(){
-        return tripLength;
+        return getStatistics().getDistanceMeters();
     }
 
     public float getTripLengthInKM(){
-        return tripLength/1000f;
+        return getStatistics().getDistanceMeters()/1000f;
     }
 
     public String getStartCity(){
-        if(gpsCordsAvailable){
-            return JsonFunctions.getCity(latitudeArray[0], longitudeArray[0]);
+        final TripStatistics statistics = getStatistics();
+        if(statistics.hasLocation()){
+            return JsonFunctions.getCity(context, statistics.getFirstLatitude(), statistics.getFirstLongitude());
         }
         return context.getString(R.string.unknown);
     }
 
     public String getDestinationCity(){
-        if(gpsCordsAvailable){
-            final int length = latitudeArray.length-1;
-            return JsonFunctions.getCity(latitudeArray[length], longitudeArray[length]);
+        final TripStatistics statistics = getStatistics();
+        if(statistics.hasLocation()){
+            return JsonFunctions.getCity(context, statistics.getLastLatitude(), statistics.getLastLongitude());
         }
         return context.getString(R.string.unknown);
     }
     public String getStartStreet(){
-        if(gpsCordsAvailable){
-            return JsonFunctions.getStreet(latitudeArray[0], longitudeArray[0]);
+        final TripStatistics statistics = getStatistics();
+        if(statistics.hasLocation()){
+            return JsonFunctions.getStreet(context, statistics.getFirstLatitude(), statistics.getFirstLongitude());
         }
         return context.getString(R.string.unknown);
     }
 
     public String getDestinationStreet(){
-        if(gpsCordsAvailable){
-            final int length = latitudeArray.length-1;
-            return JsonFunctions.getStreet(latitudeArray[length], longitudeArray[length]);
+        final TripStatistics statistics = getStatistics();
+        if(statistics.hasLocation()){
+            return JsonFunctions.getStreet(context, statistics.getLastLatitude(), statistics.getLastLongitude());
         }
         return context.getString(R.string.unknown);
     }
 
+    /**
+     * Looks up the start and destination city and street all at once, so it takes about as long as the slowest
+     * of the four lookups. Waits at most <code>GEOCODE_TIMEOUT_MS</code>.
+     * @return Start city, start street, destination city and destination street. Each one is "--" if it
+     *         wasn't found in time, or unknown if the trip has no GPS readings.
+     * @see GeocodingService
+     */
+    public String[] getPlaceNames(){
+        final TripStatistics statistics = getStatistics();
+        if(!statistics.hasLocation()){
+            final String unknown = context.getString(R.string.unknown);
+            return new String[] { unknown, unknown, unknown, unknown };
+        }
+
+        final float firstLat = statistics.getFirstLatitude(), firstLon = statistics.getFirstLongitude();
+        final float lastLat = statistics.getLastLatitude(), lastLon = statistics.getLastLongitude();
+        return GeocodingService.getInstance(context).lookup(
+                new int[] { GeocodeCache.CITY, GeocodeCache.STREET, GeocodeCache.CITY, GeocodeCache.STREET },
+                new float[] { firstLat, firstLat, lastLat, lastLat },
+                new float[] { firstLon, firstLon, lastLon, lastLon }, GEOCODE_TIMEOUT_MS);
+    }
+
+    /**
+     * Builds the summary from the statistics of the trip; none of the columns are loaded.
+     * The place names are looked up in parallel, see <code>getPlaceNames()</code>.
+     * @return A short trip summary.
+     * @see #buildFacebookShare
+     */
     public String getTripSummary() {
-        int scoreArray[];
-        float speedArray[];
-        float tripLength, maxSpeed = 0, speedAverage = 0;
+        final TripStatistics statistics = getStatistics();
+        float tripLength;
         float speedConverter = Config.getSpeedConv();
-        int size = 0, nulls = 0, scoreAverage = 0;
+        int size;
         int durationSeconds, durationMinutes, durationHours;
         String fromCity, toCity, fromStreet, toStreet;
         String tripLengthString = "--", tripDurationString = "--";
@@ -257,14 +416,13 @@ public class Trip {
         else if (speedUnitPref.equals("mph"))  speedUnit = context.getString(R.string.mph);
         else                                   speedUnit = context.getString(R.string.m_s);
 
-        fromCity   = getStartCity();
-        toCity     = getDestinationCity();
-        fromStreet = getStartStreet();
-        toStreet   = getDestinationStreet();
+        final String places[] = getPlaceNames();
+        fromCity   = places[0];
+        fromStreet = places[1];
+        toCity     = places[2];
+        toStreet   = places[3];
 
-        scoreArray = getScoreArray();
-        speedArray = getSpeedArray();
-        size = speedArray.length;
+        size = statistics.getRecordCount();
         durationSeconds = (getRefreshRate() / 1000)*size;
 
         durationMinutes = durationSeconds / 60;
@@ -288,24 +446,9 @@ public class Trip {
         }
         else tripLengthString = tripLength + " m";
 
-        if(size > 0) {
-            for(int i = 0; i < size; i++){
-                speedAverage += speedArray[i];
-                scoreAverage += scoreArray[i];
-
-                if(speedArray[i] > maxSpeed)
-                    maxSpeed = speedArray[i];
-
-                if(speedArray[i] == 0){
-                    nulls++;
-                }
-            }
-        }
-        scoreAverage /= scoreArray.length;
-
-        return buildFacebookShare(scoreAverage, tripDurationString, tripLengthString,
-                          ((int)((speedAverage / (size-nulls)) * speedConverter)),
-                          ((int)(maxSpeed * speedConverter)), speedUnit,
+        return buildFacebookShare(statistics.getAverageScore(), tripDurationString, tripLengthString,
+                          ((int)(statistics.getAverageSpeed() * speedConverter)),
+                          ((int)(statistics.getMaxSpeed() * speedConverter)), speedUnit,
                            fromCity, fromStreet, toCity, toStreet);
     }
 
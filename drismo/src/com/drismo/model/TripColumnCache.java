@@ -0,0 +1,95 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.drismo.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the loaded columns of trips, shared by all the <code>Trip</code> objects, holding at most
+ * <code>BUDGET_BYTES</code> of arrays. The least recently used columns are dropped when the budget is exceeded,
+ * and loaded again from the trip file if they're needed later.
+ * @see Trip
+ */
+final class TripColumnCache {
+
+    static final int BUDGET_BYTES = 2 * 1024 * 1024;
+
+    private static final LinkedHashMap<String, Object> columns = new LinkedHashMap<String, Object>(16, 0.75f, true);
+    private static int size = 0;
+
+    private TripColumnCache(){
+    }
+
+    /**
+     * @param key Key of the column, unique for the trip file and the column.
+     * @return The column (an array), or null if it's not cached.
+     */
+    static synchronized Object get(String key){
+        return columns.get(key);
+    }
+
+    /**
+     * Caches a column, dropping the least recently used columns until the cache is within the budget.
+     * Columns bigger than the whole budget are not cached.
+     * @param key Key of the column, unique for the trip file and the column.
+     * @param column The column, an <code>int[]</code>, <code>float[]</code> or <code>byte[]</code>.
+     */
+    static synchronized void put(String key, Object column){
+        final int bytes = sizeOf(column);
+        if(bytes > BUDGET_BYTES)
+            return;
+
+        final Object previous = columns.put(key, column);
+        size += bytes - (previous != null ? sizeOf(previous) : 0);
+
+        final Iterator<Map.Entry<String, Object>> eldest = columns.entrySet().iterator();
+        while(size > BUDGET_BYTES && eldest.hasNext()){
+            size -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops all the columns.
+     */
+    static synchronized void clear(){
+        columns.clear();
+        size = 0;
+    }
+
+    /**
+     * @return Bytes held by the cached columns.
+     */
+    static synchronized int size(){
+        return size;
+    }
+
+    private static int sizeOf(Object column){
+        if(column instanceof int[])
+            return ((int[]) column).length * 4;
+        if(column instanceof byte[])
+            return ((byte[]) column).length;
+        return ((float[]) column).length * 4;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.drismo.model;
+
+/**
+ * Summary of a trip file, as shown in the trip archive. Kept in the trip index, so the archive doesn't have to
+ * read the trip files to show them.
+ * @see com.drismo.utils.TripIndex
+ */
+public class TripMetadata {
+
+    private final long lastModified;            // Of the trip file when the summary was made, used to
+    private final long fileLength;              //  detect changed files.
+    private final long startTime;
+    private final int durationSeconds;
+    private final float distanceMeters;
+    private final int averageScore;
+    private final int recordCount;
+
+    /**
+     * @param lastModified Last modified time of the trip file.
+     * @param fileLength Length of the trip file (bytes).
+     * @param startTime Wall clock time the trip started (ms since epoch), 0 if unknown.
+     * @param durationSeconds Duration of the trip.
+     * @param distanceMeters Distance driven, 0 without GPS.
+     * @param averageScore Average quality score.
+     * @param recordCount Number of records in the trip file.
+     */
+    public TripMetadata(long lastModified, long fileLength, long startTime, int durationSeconds,
+                        float distanceMeters, int averageScore, int recordCount){
+        this.lastModified = lastModified;
+        this.fileLength = fileLength;
+        this.startTime = startTime;
+        this.durationSeconds = durationSeconds;
+        this.distanceMeters = distanceMeters;
+        this.averageScore = averageScore;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Calculates the duration of a trip the same way for all trip files.
+     * @param refreshRate Time between the records (ms).
+     * @param recordCount Number of records.
+     * @return The duration in seconds, 0 if there are less than two records.
+     */
+    public static int calculateDurationSeconds(int refreshRate, int recordCount){
+        return recordCount > 1 ? refreshRate / 1000 * recordCount : 0;
+    }
+
+    public long getLastModified(){
+        return lastModified;
+    }
+
+    public long getFileLength(){
+        return fileLength;
+    }
+
+    public long getStartTime(){
+        return startTime;
+    }
+
+    public int getDurationSeconds(){
+        return durationSeconds;
+    }
+
+    public float getDistanceMeters(){
+        return distanceMeters;
+    }
+
+    public int getAverageScore(){
+        return averageScore;
+    }
+
+    public int getRecordCount(){
+        return recordCount;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.drismo.model;
+
+/**
+ * Used by objects who receive the records of a trip file as it is read, one record at a time.
+ * Lets a reader fill the final data structures in one pass, without keeping a copy of the records.
+ * @see com.drismo.utils.TripFileReader
+ * @see TripRecords
+ */
+public interface TripRecordSink {
+    /**
+     * Called once, before the records.
+     * @param refreshRate Time between the records (ms).
+     * @param startTime Wall clock time the trip started (ms since epoch), 0 if unknown.
+     */
+    public abstract void setHeader(int refreshRate, long startTime);
+
+    /**
+     * Called for each record, in file order.
+     * @param time Time since the trip started (ms).
+     * @param score The quality score.
+     * @param latitudeE6 Latitude in micro degrees, 0 without a GPS fix.
+     * @param longitudeE6 Longitude in micro degrees, 0 without a GPS fix.
+     * @param speed Speed (m/s).
+     */
+    public abstract void add(long time, int score, int latitudeE6, int longitudeE6, float speed);
+}
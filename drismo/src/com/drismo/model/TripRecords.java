@@ -0,0 +1,158 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.drismo.model;
+
+/**
+ * The records of a trip file, one primitive array per column. The arrays grow as records are added, so a trip
+ * can be read without knowing the number of records up front, and without creating an object per record.
+ * @see com.drismo.utils.TripFileReader
+ */
+public class TripRecords implements TripRecordSink {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int refreshRate;
+    private long startTime;
+
+    private long times[];               // ms since the trip started
+    private int scores[];
+    private int latitudesE6[];          // Degrees * 1e6, 0 when there was no GPS fix
+    private int longitudesE6[];
+    private float speeds[];             // m/s
+    private int size = 0;
+
+    /**
+     * Creates an empty set of records.
+     */
+    public TripRecords(){
+        times = new long[INITIAL_CAPACITY];
+        scores = new int[INITIAL_CAPACITY];
+        latitudesE6 = new int[INITIAL_CAPACITY];
+        longitudesE6 = new int[INITIAL_CAPACITY];
+        speeds = new float[INITIAL_CAPACITY];
+    }
+
+    public void setHeader(int refreshRate, long startTime){
+        this.refreshRate = refreshRate;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Adds a record at the end.
+     * @param time Time since the trip started (ms).
+     * @param score The quality score.
+     * @param latitudeE6 Latitude in micro degrees.
+     * @param longitudeE6 Longitude in micro degrees.
+     * @param speed Speed (m/s).
+     */
+    public void add(long time, int score, int latitudeE6, int longitudeE6, float speed){
+        if(size == times.length)
+            grow();
+
+        times[size] = time;
+        scores[size] = score;
+        latitudesE6[size] = latitudeE6;
+        longitudesE6[size] = longitudeE6;
+        speeds[size] = speed;
+        size++;
+    }
+
+    private void grow(){
+        final int capacity = times.length * 2;
+
+        long newTimes[] = new long[capacity];
+        int newScores[] = new int[capacity];
+        int newLatitudes[] = new int[capacity];
+        int newLongitudes[] = new int[capacity];
+        float newSpeeds[] = new float[capacity];
+
+        System.arraycopy(times, 0, newTimes, 0, size);
+        System.arraycopy(scores, 0, newScores, 0, size);
+        System.arraycopy(latitudesE6, 0, newLatitudes, 0, size);
+        System.arraycopy(longitudesE6, 0, newLongitudes, 0, size);
+        System.arraycopy(speeds, 0, newSpeeds, 0, size);
+
+        times = newTimes;
+        scores = newScores;
+        latitudesE6 = newLatitudes;
+        longitudesE6 = newLongitudes;
+        speeds = newSpeeds;
+    }
+
+    /**
+     * Removes all the records, keeping the arrays for reuse.
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int getRefreshRate(){
+        return refreshRate;
+    }
+
+    public void setRefreshRate(int refreshRate){
+        this.refreshRate = refreshRate;
+    }
+
+    /**
+     * @return Wall clock time (ms since epoch) when the trip started, or 0 if unknown (legacy CSV files).
+     */
+    public long getStartTime(){
+        return startTime;
+    }
+
+    public void setStartTime(long startTime){
+        this.startTime = startTime;
+    }
+
+    public long getTime(int i){
+        return times[i];
+    }
+
+    public int getScore(int i){
+        return scores[i];
+    }
+
+    public int getLatitudeE6(int i){
+        return latitudesE6[i];
+    }
+
+    public int getLongitudeE6(int i){
+        return longitudesE6[i];
+    }
+
+    public float getLatitude(int i){
+        return latitudesE6[i] / 1e6f;
+    }
+
+    public float getLongitude(int i){
+        return longitudesE6[i] / 1e6f;
+    }
+
+    public float getSpeed(int i){
+        return speeds[i];
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * The basis of DriSMo was developed as a bachelor project in 2011,
+ * by three students at Gjøvik University College (Fredrik Kvitvik,
+ * Fredrik Hørtvedt and Jørn André Myrland). For documentation on DriSMo,
+ * view the JavaDoc provided with the source code.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.drismo.model;
+
+import com.drismo.utils.GeoDistance;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Statistics of a trip, summed up as the records are streamed by (from a file reader, or a range of a mapped
+ * trip file), without keeping the records: averages, min/max values, the time spent in each quality level, the
+ * distance driven and the first and last location.
+ * <p>
+ * <code>TripFileWriter</code> keeps the statistics of the records it writes, and stores them in the footer of
+ * the trip file, so they can be read in O(1) instead of summed up from the records.
+ * @see com.drismo.utils.MappedTripFile#loadStatistics
+ */
+public class TripStatistics implements TripRecordSink {
+
+    private int refreshRate;
+    private long startTime;
+
+    private int count = 0;
+    private long scoreSum = 0;
+    private int minScore = 0;
+    private int maxScore = 0;
+    private int excellentCount = 0;
+    private int goodCount = 0;
+    private int okCount = 0;
+    private int badCount = 0;
+
+    private double speedSum = 0;
+    private float maxSpeed = 0;
+    private int zeroSpeedCount = 0;
+
+    private int locationCount = 0;
+    private float firstLatitude, firstLongitude;
+    private float lastLatitude, lastLongitude;
+    private int lastLatitudeE6, lastLongitudeE6;
+    private double distance = 0;
+
+    public void setHeader(int refreshRate, long startTime){
+        this.refreshRate = refreshRate;
+        this.startTime = startTime;
+    }
+
+    public void add(long time, int score, int latitudeE6, int longitudeE6, float speed){
+        if(count == 0 || score < minScore)
+            minScore = score;
+        if(count == 0 || score > maxScore)
+            maxScore = score;
+        count++;
+        scoreSum += score;
+
+        if(score > Quality.EXCELLENT_SCORE)
+            excellentCount++;
+        else if(score > Quality.GOOD_SCORE)
+            goodCount++;
+        else if(score > Quality.OK_SCORE)
+            okCount++;
+        else
+            badCount++;
+
+        speedSum += speed;
+        if(speed > maxSpeed)
+            maxSpeed = speed;
+        if(speed == 0)
+            zeroSpeedCount++;
+
+        if(longitudeE6 == 0)                                            // No GPS fix.
+            return;
+
+        if(locationCount == 0){
+            firstLatitude = latitudeE6 / 1e6f;
+            firstLongitude = longitudeE6 / 1e6f;
+        }
+        else if(latitudeE6 == lastLatitudeE6 && longitudeE6 == lastLongitudeE6)
+            return;                                                     // Same location as the last one.
+        else
+            distance += GeoDistance.distanceE6(lastLatitudeE6, lastLongitudeE6, latitudeE6, longitudeE6);
+        lastLatitudeE6 = latitudeE6;
+        lastLongitudeE6 = longitudeE6;
+        lastLatitude = latitudeE6 / 1e6f;
+        lastLongitude = longitudeE6 / 1e6f;
+        locationCount++;
+    }
+
+    /**
+     * Writes the statistics (not the header), as stored in the footer of a trip file.
+     * @param out Stream to write to.
+     * @throws IOException If writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(count);
+        out.writeLong(scoreSum);
+        out.writeInt(minScore);
+        out.writeInt(maxScore);
+        out.writeInt(excellentCount);
+        out.writeInt(goodCount);
+        out.writeInt(okCount);
+        out.writeInt(badCount);
+        out.writeDouble(speedSum);
+        out.writeFloat(maxSpeed);
+        out.writeInt(zeroSpeedCount);
+        out.writeInt(locationCount);
+        out.writeFloat((float) distance);
+        out.writeFloat(firstLatitude);
+        out.writeFloat(firstLongitude);
+        out.writeFloat(lastLatitude);
+        out.writeFloat(lastLongitude);
+    }
+
+    /**
+     * Replaces the statistics (not the header) with statistics written by <code>writeTo()</code>.
+     * @param in Stream to read from.
+     * @throws IOException If reading fails.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        count = in.readInt();
+        scoreSum = in.readLong();
+        minScore = in.readInt();
+        maxScore = in.readInt();
+        excellentCount = in.readInt();
+        goodCount = in.readInt();
+        okCount = in.readInt();
+        badCount = in.readInt();
+        speedSum = in.readDouble();
+        maxSpeed = in.readFloat();
+        zeroSpeedCount = in.readInt();
+        locationCount = in.readInt();
+        distance = in.readFloat();
+        firstLatitude = in.readFloat();
+        firstLongitude = in.readFloat();
+        lastLatitude = in.readFloat();
+        lastLongitude = in.readFloat();
+        lastLatitudeE6 = (int) Math.round(lastLatitude * 1e6);
+        lastLongitudeE6 = (int) Math.round(lastLongitude * 1e6);
+    }
+
+    public int getRefreshRate(){
+        return refreshRate;
+    }
+
+    /**
+     * @return Wall clock time the trip started (ms since epoch), 0 if unknown.
+     */
+    public long getStartTime(){
+        return startTime;
+    }
+
+    public int getRecordCount(){
+        return count;
+    }
+
+    /**
+     * @return Duration of the trip (s), as the number of records times the refresh rate.
+     */
+    public int getDurationSeconds(){
+        return TripMetadata.calculateDurationSeconds(refreshRate, count);
+    }
+
+    /**
+     * @return The average score, 0 if there are no records.
+     */
+    public int getAverageScore(){
+        return count > 0 ? (int) (scoreSum / count) : 0;
+    }
+
+    public int getMinScore(){
+        return minScore;
+    }
+
+    public int getMaxScore(){
+        return maxScore;
+    }
+
+    public int getExcellentCount(){
+        return excellentCount;
+    }
+
+    public int getGoodCount(){
+        return goodCount;
+    }
+
+    public int getOkCount(){
+        return okCount;
+    }
+
+    public int getBadCount(){
+        return badCount;
+    }
+
+    /**
+     * @return The average speed (m/s) while moving (records with speed 0 are left out), or 0 if never moving.
+     */
+    public float getAverageSpeed(){
+        final int moving = count - zeroSpeedCount;
+        return moving > 0 ? (float) (speedSum / moving) : 0;
+    }
+
+    public float getMaxSpeed(){
+        return maxSpeed;
+    }
+
+    /**
+     * @return Number of records with speed 0 (standing still, or no GPS fix).
+     */
+    public int getZeroSpeedCount(){
+        return zeroSpeedCount;
+    }
+
+    /**
+     * @return True if any of the records had a GPS location.
+     */
+    public boolean hasLocation(){
+        return locationCount > 0;
+    }
+
+    /**
+     * @return The distance between the locations (m), in the order they were logged.
+     * @see GeoDistance#distanceE6
+     */
+    public float getDistanceMeters(){
+        return (float) distance;
+    }
+
+    public float getFirstLatitude(){
+        return firstLatitude;
+    }
+
+    public float getFirstLongitude(){
+        return firstLongitude;
+    }
+
+    public float getLastLatitude(){
+        return lastLatitude;
+    }
+
+    public float getLastLongitude(){
+        return lastLongitude;
+    }
+}
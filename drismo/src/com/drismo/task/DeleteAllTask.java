@@ -8,8 +8,6 @@ import com.drismo.R;
 import com.drismo.task.callback.TaskCompleteCallback;
 import com.drismo.utils.FileController;
 
-import java.io.File;
-
 public class DeleteAllTask extends AsyncTask<String, Void, Boolean> {
     private Context context;
     private FileController controller;
@@ -33,8 +31,7 @@ public class DeleteAllTask extends AsyncTask<String, Void, Boolean> {
         int deleteCount = 0;
 
         for(String fileName : fileNames) {
-            File file = controller.getFile(fileName);
-            if(file.delete()) deleteCount++;
+            if(controller.delete(fileName)) deleteCount++;
             progress.setProgress(deleteCount + 1);
         }
         return (deleteCount == fileNames.length);
@@ -8,8 +8,6 @@ import com.drismo.R;
 import com.drismo.task.callback.TaskCompleteCallback;
 import com.drismo.utils.FileController;
 
-import java.io.File;
-
 public class DeleteOneTask extends AsyncTask<String, Void, Boolean> {
     private Context context;
     private FileController controller;
@@ -40,8 +38,7 @@ public class DeleteOneTask extends AsyncTask<String, Void, Boolean> {
     @Override
     protected Boolean doInBackground(String... fileNames) {
         fileName = fileNames[0];
-        File file = controller.getFile(fileName);
-        return file.delete();
+        return controller.delete(fileName);
     }
 
     @Override
@@ -0,0 +1,62 @@
+package com.drismo.task;
+
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.widget.Toast;
+import com.drismo.R;
+import com.drismo.utils.FileController;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ExportTask extends AsyncTask<String, Void, File> {
+    private Context context;
+    private FileController controller;
+    private ProgressDialog progress;
+
+    public ExportTask(Context context, FileController controller) {
+        this.context = context;
+        this.controller = controller;
+    }
+
+    protected void onPreExecute() {
+        setProgressDialog();
+        progress.show();
+    }
+
+    private void setProgressDialog() {
+        progress = new ProgressDialog(context);
+        progress.setProgressStyle(ProgressDialog.STYLE_SPINNER);
+        progress.setIndeterminateDrawable(context.getResources().getDrawable(R.anim.loading));
+        progress.setCancelable(false);
+        progress.setMessage(context.getString(R.string.pleaseWait));
+    }
+
+    @Override
+    protected File doInBackground(String... fileNames) {
+        try {
+            return controller.exportAsCsv(fileNames[0]);   // Converts binary trips to CSV
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(File csvFile) {
+        progress.dismiss();
+
+        if(csvFile == null) {
+            Toast.makeText(context, context.getString(R.string.exportFailed), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/csv");
+        intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(csvFile));
+        context.startActivity(Intent.createChooser(intent, "Export file.."));
+    }
+}
@@ -0,0 +1,34 @@
+package com.drismo.task;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import com.drismo.task.callback.TaskCompleteCallback;
+import com.drismo.utils.FileController;
+import com.drismo.utils.TripIndex;
+
+/**
+ * Brings the trip index up to date in the background: summarises the trips that aren't indexed
+ * (legacy trips, or trips changed since), and drops the entries of deleted trips.
+ * The callback is told if any trips were summarised.
+ */
+public class IndexTripsTask extends AsyncTask<Void, Void, Boolean> {
+    private Context context;
+    private FileController controller;
+    private TaskCompleteCallback callback;
+
+    public IndexTripsTask(Context context, FileController controller, TaskCompleteCallback callback) {
+        this.context = context;
+        this.controller = controller;
+        this.callback = callback;
+    }
+
+    @Override
+    protected Boolean doInBackground(Void... params) {
+        return TripIndex.getInstance(context).update(controller.listFiles()) > 0;
+    }
+
+    @Override
+    protected void onPostExecute(Boolean summarised) {
+        callback.onComplete(summarised);
+    }
+}
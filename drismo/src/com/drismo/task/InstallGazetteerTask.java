@@ -0,0 +1,73 @@
+package com.drismo.task;
+
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Environment;
+import android.widget.Toast;
+import com.drismo.R;
+import com.drismo.task.callback.TaskCompleteCallback;
+import com.drismo.utils.FileController;
+import com.drismo.utils.OfflineGeocoder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Installs the gazetteers copied to the DriSMo folder on the SD card, for looking up place names offline.
+ */
+public class InstallGazetteerTask extends AsyncTask<Void, Void, Integer> {
+    private static final int FAILED = -2;
+
+    private Context context;
+    private TaskCompleteCallback callback;
+    private ProgressDialog progress;
+
+    public InstallGazetteerTask(Context context, TaskCompleteCallback callback) {
+        this.context = context;
+        this.callback = callback;
+    }
+
+    protected void onPreExecute() {
+        setProgressDialog();
+        progress.show();
+    }
+
+    private void setProgressDialog() {
+        progress = new ProgressDialog(context);
+        progress.setProgressStyle(ProgressDialog.STYLE_SPINNER);
+        progress.setIndeterminateDrawable(context.getResources().getDrawable(R.anim.loading));
+        progress.setCancelable(false);
+        progress.setMessage(context.getString(R.string.pleaseWait));
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        if(!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())
+                && !Environment.MEDIA_MOUNTED_READ_ONLY.equals(Environment.getExternalStorageState()))
+            return -1;
+
+        File directory = new File(Environment.getExternalStorageDirectory(), FileController.EXPORT_DIRECTORY);
+        try {
+            return OfflineGeocoder.getInstance(context).installFrom(directory);  // Builds the indexes
+        } catch (IOException e) {
+            e.printStackTrace();
+            return FAILED;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Integer count) {
+        progress.dismiss();
+
+        String toastMessage;
+        if(count == FAILED)
+            toastMessage = context.getString(R.string.gazetteerFailed);
+        else if(count < 0)
+            toastMessage = context.getString(R.string.gazetteerMissing);
+        else
+            toastMessage = context.getString(R.string.gazetteerInstalled) + " " + count;
+        Toast.makeText(context, toastMessage, Toast.LENGTH_LONG).show();
+        callback.onComplete(count >= 0);
+    }
+}
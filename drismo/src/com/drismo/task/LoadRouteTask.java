@@ -0,0 +1,49 @@
+package com.drismo.task;
+
+import android.os.AsyncTask;
+import com.drismo.gui.TripOverlay;
+import com.drismo.model.Trip;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+
+/**
+ * Loads the route of a trip and its simplification off the UI thread (both are cached with the trip),
+ * and then shows it on the map, centered on where the trip ended.
+ */
+public class LoadRouteTask extends AsyncTask<Trip, Void, Void> {
+    private MapView mapView;
+    private TripOverlay overlay;
+
+    private float[] latitudes;
+    private float[] longitudes;
+    private int[] colors;
+    private byte[] zoomLevels;
+
+    /**
+     * @param mapView The map showing the route.
+     * @param overlay The overlay drawing the route.
+     */
+    public LoadRouteTask(MapView mapView, TripOverlay overlay) {
+        this.mapView = mapView;
+        this.overlay = overlay;
+    }
+
+    @Override
+    protected Void doInBackground(Trip... trips) {
+        latitudes = trips[0].getLatitudeArray();
+        longitudes = trips[0].getLongitudeArray();
+        colors = trips[0].getShortColorArray();
+        zoomLevels = trips[0].getRouteZoomLevels();
+        return null;
+    }
+
+    @Override
+    protected void onPostExecute(Void result) {
+        overlay.updateTripHistory(latitudes, longitudes, colors, zoomLevels);
+
+        final int last = latitudes.length - 1;
+        if(last >= 0)
+            mapView.getController().setCenter(new GeoPoint(latitudes[last], longitudes[last]));
+        mapView.invalidate();
+    }
+}
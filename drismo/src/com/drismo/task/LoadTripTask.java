@@ -0,0 +1,63 @@
+package com.drismo.task;
+
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.os.AsyncTask;
+import com.drismo.R;
+import com.drismo.model.TripRecordSink;
+import com.drismo.task.callback.TaskCompleteCallback;
+import com.drismo.utils.MappedTripFile;
+
+import java.io.IOException;
+
+/**
+ * Streams the records of a trip file to a sink off the UI thread, behind a progress dialog: for the trips that
+ * are read whole (legacy CSV trips, and trips that were not closed). The callback is told if the file was read.
+ * @see MappedTripFile#isClosed(Context, String)
+ */
+public class LoadTripTask extends AsyncTask<String, Void, Boolean> {
+    private Context context;
+    private TripRecordSink records;
+    private int maxRecords;
+    private TaskCompleteCallback callback;
+    private ProgressDialog progress;
+
+    /**
+     * @param context Context owning the file, and showing the progress dialog.
+     * @param records Sink to add the records to, after giving it the header.
+     * @param maxRecords The max number of records to add.
+     * @param callback Told when the file is read.
+     */
+    public LoadTripTask(Context context, TripRecordSink records, int maxRecords, TaskCompleteCallback callback) {
+        this.context = context;
+        this.records = records;
+        this.maxRecords = maxRecords;
+        this.callback = callback;
+    }
+
+    protected void onPreExecute() {
+        progress = new ProgressDialog(context);
+        progress.setProgressStyle(ProgressDialog.STYLE_SPINNER);
+        progress.setIndeterminateDrawable(context.getResources().getDrawable(R.anim.loading));
+        progress.setCancelable(false);
+        progress.setMessage(context.getString(R.string.pleaseWait));
+        progress.show();
+    }
+
+    @Override
+    protected Boolean doInBackground(String... fileNames) {
+        try {
+            MappedTripFile.load(context, fileNames[0], maxRecords, records);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Boolean success) {
+        progress.dismiss();
+        callback.onComplete(success);
+    }
+}
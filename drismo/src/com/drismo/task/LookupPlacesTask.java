@@ -0,0 +1,47 @@
+package com.drismo.task;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.widget.TextView;
+import com.drismo.logic.GeocodingService;
+import com.drismo.model.TripStatistics;
+import com.drismo.utils.GeocodeCache;
+
+/**
+ * Looks up "street, city" of the start and the end of a trip off the UI thread (the names not cached are
+ * looked up online, all at once), and then shows them.
+ */
+public class LookupPlacesTask extends AsyncTask<TripStatistics, Void, String[]> {
+    private static final long TIMEOUT_MS = 10000;
+
+    private Context context;
+    private TextView fromLocation;
+    private TextView toLocation;
+
+    /**
+     * @param context Context of the lookups.
+     * @param fromLocation Shows where the trip started.
+     * @param toLocation Shows where the trip ended.
+     */
+    public LookupPlacesTask(Context context, TextView fromLocation, TextView toLocation) {
+        this.context = context.getApplicationContext();
+        this.fromLocation = fromLocation;
+        this.toLocation = toLocation;
+    }
+
+    @Override
+    protected String[] doInBackground(TripStatistics... statistics) {
+        final float firstLat = statistics[0].getFirstLatitude(), firstLon = statistics[0].getFirstLongitude();
+        final float lastLat = statistics[0].getLastLatitude(), lastLon = statistics[0].getLastLongitude();
+        return GeocodingService.getInstance(context).lookup(
+                new int[] { GeocodeCache.STREET, GeocodeCache.CITY, GeocodeCache.STREET, GeocodeCache.CITY },
+                new float[] { firstLat, firstLat, lastLat, lastLat },
+                new float[] { firstLon, firstLon, lastLon, lastLon }, TIMEOUT_MS);
+    }
+
+    @Override
+    protected void onPostExecute(String[] names) {
+        fromLocation.setText(names[0] + ", " + names[1]);
+        toLocation.setText(names[2] + ", " + names[3]);
+    }
+}
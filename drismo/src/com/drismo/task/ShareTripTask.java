@@ -0,0 +1,59 @@
+package com.drismo.task;
+
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.widget.Toast;
+import com.drismo.R;
+import com.drismo.model.Trip;
+
+/**
+ * Builds the summary of a trip off the UI thread (its place names are looked up online),
+ * and then starts the share activity with it.
+ */
+public class ShareTripTask extends AsyncTask<Trip, Void, String> {
+    private Context context;
+    private Intent intent;
+    private ProgressDialog progress;
+
+    /**
+     * @param context Context starting the share activity.
+     * @param intent Intent of the share activity; the summary is added as "facebookMessage".
+     */
+    public ShareTripTask(Context context, Intent intent) {
+        this.context = context;
+        this.intent = intent;
+    }
+
+    protected void onPreExecute() {
+        setProgressDialog();
+        progress.show();
+    }
+
+    private void setProgressDialog() {
+        progress = new ProgressDialog(context);
+        progress.setProgressStyle(ProgressDialog.STYLE_SPINNER);
+        progress.setIndeterminateDrawable(context.getResources().getDrawable(R.anim.loading));
+        progress.setCancelable(false);
+        progress.setMessage(context.getString(R.string.pleaseWait));
+    }
+
+    @Override
+    protected String doInBackground(Trip... trips) {
+        return trips[0].getTripSummary();
+    }
+
+    @Override
+    protected void onPostExecute(String summary) {
+        progress.dismiss();
+
+        intent.putExtra("facebookMessage", summary);
+        try {
+            context.startActivity(intent);
+        } catch(Exception e) {
+            e.printStackTrace();
+            Toast.makeText(context, "Failed to post to facebook.", Toast.LENGTH_LONG).show();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.drismo.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.drismo.model.TripStatistics;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes trip records on a background thread, so the thread adding records never waits for the file system.
+ * Records are put in a preallocated queue of primitive columns, and the writer thread moves them to a
+ * <code>TripFileWriter</code> in batches. The file is flushed and synced (group commit) when
+ * <code>flushRecords</code> records are queued, when <code>flushIntervalMs</code> has passed since the last
+ * flush, and on <code>close()</code>. A crash therefore loses at most the records of one flush interval.
+ * @see TripFileWriter
+ */
+public class AsyncTripFileWriter implements Runnable {
+
+    private static final String TAG = "AsyncTripFileWriter";
+
+    private final FileOutputStream file;
+    private final TripFileWriter writer;
+    private final int flushRecords;
+    private final long flushIntervalMs;
+    private final Thread thread;
+
+    private final long times[];             // The queue, a ring of records. Guarded by this.
+    private final int scores[];
+    private final double latitudes[];
+    private final double longitudes[];
+    private final float speeds[];
+    private int head = 0;
+    private int size = 0;
+    private boolean closing = false;
+    private Runnable onClosed;
+
+    private final long batchTimes[];        // Records taken from the queue, only used by the writer thread.
+    private final int batchScores[];
+    private final double batchLatitudes[];
+    private final double batchLongitudes[];
+    private final float batchSpeeds[];
+
+    private volatile long droppedCount = 0;
+    private volatile boolean failed = false;
+
+    /**
+     * Writes the file header to the buffer, and prepares the writer thread. Call <code>start()</code> to start it.
+     * @param file The trip file. Closed by the writer thread.
+     * @param refreshRate Time between the records (ms).
+     * @param startTime Wall clock time the trip started (ms since epoch).
+     * @param flushRecords Number of queued records that triggers a flush.
+     * @param flushIntervalMs Max time between flushes, while there are unwritten records.
+     * @throws IOException If the header can't be written.
+     */
+    public AsyncTripFileWriter(FileOutputStream file, int refreshRate, long startTime,
+                               int flushRecords, long flushIntervalMs) throws IOException {
+        this.file = file;
+        this.flushRecords = flushRecords;
+        this.flushIntervalMs = flushIntervalMs;
+        writer = new TripFileWriter(new BufferedOutputStream(file), refreshRate, startTime);
+
+        final int capacity = flushRecords * 4;
+        times = new long[capacity];
+        scores = new int[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        speeds = new float[capacity];
+
+        batchTimes = new long[capacity];
+        batchScores = new int[capacity];
+        batchLatitudes = new double[capacity];
+        batchLongitudes = new double[capacity];
+        batchSpeeds = new float[capacity];
+
+        thread = new Thread(this, TAG);
+    }
+
+    public void start(){
+        thread.start();
+    }
+
+    /**
+     * Queues a record. Never waits for the file system.
+     * @return False if the record was dropped, because the queue is full or the writer is closed.
+     */
+    public synchronized boolean append(long time, int score, double latitude, double longitude, float speed){
+        if(closing || failed || size == times.length){
+            droppedCount++;
+            return false;
+        }
+
+        final int index = (head + size) % times.length;
+        times[index] = time;
+        scores[index] = score;
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        speeds[index] = speed;
+        size++;
+
+        if(size == flushRecords)                    // Wake the writer for a batch.
+            notify();
+        return true;
+    }
+
+    /**
+     * Asks the writer thread to write the queued records, flush, sync and close the file. Returns without
+     * waiting for it; records appended after this are dropped.
+     */
+    public void close(){
+        close(null);
+    }
+
+    /**
+     * Like <code>close()</code>, and runs <code>onClosed</code> on the writer thread when the file is closed.
+     * @param onClosed Runs if the file was written and closed successfully. May be null.
+     */
+    public synchronized void close(Runnable onClosed){
+        this.onClosed = onClosed;
+        closing = true;
+        notify();
+    }
+
+    /**
+     * @return The statistics of the records written, as stored in the footer of the file. Updated by the writer
+     *         thread, so only read them from <code>onClosed</code> (or after it has run).
+     * @see #close(Runnable)
+     */
+    public TripStatistics getStatistics(){
+        return writer.getStatistics();
+    }
+
+    /**
+     * @return Number of records dropped because the queue was full, or the file could not be written.
+     */
+    public long getDroppedCount(){
+        return droppedCount;
+    }
+
+    /**
+     * The writer thread. Sleeps until a batch is ready or the flush interval is up, writes the batch and flushes.
+     */
+    public void run(){
+        long lastFlush = SystemClock.uptimeMillis();
+        boolean done = false;
+
+        try {
+            while(!done){
+                final int count;
+
+                synchronized (this){
+                    long now = SystemClock.uptimeMillis();
+                    while(!closing && size < flushRecords && now < lastFlush + flushIntervalMs){
+                        wait(lastFlush + flushIntervalMs - now);
+                        now = SystemClock.uptimeMillis();
+                    }
+                    count = takeBatch();
+                    done = closing;
+                }
+
+                for(int i = 0; i < count; i++)
+                    writer.append(batchTimes[i], batchScores[i], batchLatitudes[i], batchLongitudes[i], batchSpeeds[i]);
+
+                if(count > 0 && !done){
+                    writer.flush();
+                    file.getFD().sync();
+                }
+                lastFlush = SystemClock.uptimeMillis();
+            }
+
+            writer.finish();                        // Writes the last records, the end marker and the footer
+            file.getFD().sync();
+            writer.close();
+
+            final Runnable callback;
+            synchronized (this){
+                callback = onClosed;
+            }
+            if(callback != null)
+                callback.run();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write the trip file", e);
+            fail();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted, the trip file is not closed", e);
+            fail();
+        }
+    }
+
+    /**
+     * Moves all the queued records to the batch arrays.
+     * @return The number of records moved.
+     */
+    private int takeBatch(){
+        final int count = size;
+        for(int i = 0; i < count; i++){
+            final int index = (head + i) % times.length;
+            batchTimes[i] = times[index];
+            batchScores[i] = scores[index];
+            batchLatitudes[i] = latitudes[index];
+            batchLongitudes[i] = longitudes[index];
+            batchSpeeds[i] = speeds[index];
+        }
+        head = (head + count) % times.length;
+        size = 0;
+        return count;
+    }
+
+    private void fail(){
+        failed = true;
+        synchronized (this){
+            droppedCount += size;
+            size = 0;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.drismo.utils;
+
+/**
+ * Bounding box hierarchy over a polyline (a route in projected pixels), for culling its segments against the
+ * screen. The segments are split into leaves of consecutive segments, and each level above holds the boxes of
+ * pairs from the level below, so a query only descends into the branches that intersect the viewport.
+ */
+public class BoundingBoxTree {
+
+    private final int leafSegments;
+    private final int boxes[][];                        // Per level from the leaves: left, top, right, bottom
+
+    /**
+     * @param xs X of the points.
+     * @param ys Y of the points.
+     * @param count Number of points.
+     * @param leafSegments Number of segments per leaf.
+     */
+    public BoundingBoxTree(int xs[], int ys[], int count, int leafSegments){
+        this.leafSegments = leafSegments;
+
+        int nodes = count > 1 ? (count - 2) / leafSegments + 1 : 0;
+        int levelCount = 1;
+        for(int n = nodes; n > 1; n = (n + 1) / 2)
+            levelCount++;
+        boxes = new int[levelCount][];
+
+        final int leaves[] = new int[nodes * 4];
+        for(int leaf = 0; leaf < nodes; leaf++){
+            final int first = leaf * leafSegments;
+            final int last = Math.min(first + leafSegments, count - 1);
+            int left = xs[first], top = ys[first], right = left, bottom = top;
+            for(int i = first + 1; i <= last; i++){
+                left = Math.min(left, xs[i]);
+                right = Math.max(right, xs[i]);
+                top = Math.min(top, ys[i]);
+                bottom = Math.max(bottom, ys[i]);
+            }
+            leaves[4 * leaf] = left;
+            leaves[4 * leaf + 1] = top;
+            leaves[4 * leaf + 2] = right;
+            leaves[4 * leaf + 3] = bottom;
+        }
+        boxes[0] = leaves;
+
+        for(int level = 1; level < levelCount; level++){
+            final int below[] = boxes[level - 1];
+            final int belowNodes = nodes;
+            nodes = (nodes + 1) / 2;
+            final int merged[] = new int[nodes * 4];
+            for(int node = 0; node < nodes; node++){
+                final int a = 8 * node, b = a + 4;
+                if(2 * node + 1 < belowNodes){
+                    merged[4 * node] = Math.min(below[a], below[b]);
+                    merged[4 * node + 1] = Math.min(below[a + 1], below[b + 1]);
+                    merged[4 * node + 2] = Math.max(below[a + 2], below[b + 2]);
+                    merged[4 * node + 3] = Math.max(below[a + 3], below[b + 3]);
+                }
+                else
+                    System.arraycopy(below, a, merged, 4 * node, 4);
+            }
+            boxes[level] = merged;
+        }
+    }
+
+    public int getLeafSegments(){
+        return leafSegments;
+    }
+
+    public int getLeafCount(){
+        return boxes[0].length / 4;
+    }
+
+    /**
+     * Finds the leaves whose box intersects a rectangle (edges included).
+     * @param leaves Receives the leaves found, in the order of the route; room for <code>getLeafCount()</code>.
+     * @return The number of leaves found.
+     */
+    public int query(int left, int top, int right, int bottom, int leaves[]){
+        if(getLeafCount() == 0)
+            return 0;
+        return query(boxes.length - 1, 0, left, top, right, bottom, leaves, 0);
+    }
+
+    private int query(int level, int node, int left, int top, int right, int bottom, int leaves[], int found){
+        final int box[] = boxes[level];
+        if(4 * node >= box.length || box[4 * node] > right || box[4 * node + 2] < left
+                                  || box[4 * node + 1] > bottom || box[4 * node + 3] < top)
+            return found;
+        if(level == 0){
+            leaves[found] = node;
+            return found + 1;
+        }
+        found = query(level - 1, 2 * node, left, top, right, bottom, leaves, found);
+        return query(level - 1, 2 * node + 1, left, top, right, bottom, leaves, found);
+    }
+}
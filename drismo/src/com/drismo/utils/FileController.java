@@ -1,6 +1,8 @@
 package com.drismo.utils;
 
 import android.content.Context;
+import android.os.Environment;
+import com.drismo.model.TripMetadata;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -9,7 +11,9 @@ import java.util.Date;
 import java.util.List;
 
 public class FileController {
-    public static final String FILE_EXTENSION = ".csv";
+    public static final String FILE_EXTENSION = ".dtf";
+    public static final String LEGACY_FILE_EXTENSION = ".csv";
+    public static final String EXPORT_DIRECTORY = "DriSMo";
 
     private Context context;
     private File directory;
@@ -24,11 +28,22 @@ public class FileController {
     private void setFileNameFilter() {
         filter = new FilenameFilter() {
             public boolean accept(File file, String s) {
-                return (s.endsWith(FILE_EXTENSION));
+                return isTripFile(s);
             }
         };
     }
 
+    public static boolean isTripFile(String fileName) {
+        return fileName.endsWith(FILE_EXTENSION) || fileName.endsWith(LEGACY_FILE_EXTENSION);
+    }
+
+    /**
+     * @return The trip file extension of the file name, or the default extension if it has none.
+     */
+    public static String getExtension(String fileName) {
+        return fileName.endsWith(LEGACY_FILE_EXTENSION) ? LEGACY_FILE_EXTENSION : FILE_EXTENSION;
+    }
+
     public String getDirectoryString() {
         return directory.toString()+"/";
     }
@@ -43,7 +58,15 @@ public class FileController {
 
     public boolean rename(String from, String to) {
         File file = new File(getDirectoryString()+from);
-        return file.renameTo(new File(getDirectoryString()+to));
+        boolean renamed = file.renameTo(new File(getDirectoryString()+to));
+        if(renamed) TripIndex.getInstance(context).rename(from, to);
+        return renamed;
+    }
+
+    public boolean delete(String fileName) {
+        boolean deleted = getFile(fileName).delete();
+        if(deleted) TripIndex.getInstance(context).remove(fileName);
+        return deleted;
     }
 
     public String getTimestamp(String fileName) {
@@ -57,31 +80,71 @@ public class FileController {
     }
 
     public int getSecondDurationFromTripFile(String fileName) {
-        String buffer;
-        int updateFrequency;
+        if(fileName.endsWith(LEGACY_FILE_EXTENSION))
+            return getSecondDurationFromCsvFile(fileName);
+
         int totalSeconds = 0;
-        int updateCount = 0;
 
         try {
-            context.openFileInput(fileName);
-            BufferedReader in = new BufferedReader(new InputStreamReader(context.openFileInput(fileName)));
+            MappedTripFile file = MappedTripFile.open(context, fileName);  // Record count from the footer, or by
+            totalSeconds = TripMetadata.calculateDurationSeconds(       //  skipping the blocks if not closed.
+                    file.getRefreshRate(), file.getRecordCount());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return totalSeconds;
+    }
 
-            buffer = in.readLine();
-            if(buffer != null){
-                updateFrequency = Integer.parseInt(buffer.split(":")[1])/1000;
+    private int getSecondDurationFromCsvFile(String fileName) {
+        int totalSeconds = 0;
 
-                while (!((buffer = in.readLine()) == null || buffer.startsWith("#") )){
-                    updateCount++;      // Count all lines of data in the file
-                }
+        try {
+            InputStream in = context.openFileInput(fileName);
+            try {
+                TripCsvParser parser = new TripCsvParser(in);
+                int updateFrequency = parser.readHeader();
+                if(updateFrequency > 0)
+                    totalSeconds = TripMetadata.calculateDurationSeconds(updateFrequency, parser.countRecords());
+            } finally {
                 in.close();
-
-                if(updateCount > 1) totalSeconds = updateFrequency * updateCount;
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
         }
         return totalSeconds;
     }
+
+    /**
+     * Makes a CSV copy of a trip on the external storage, which other apps can read.
+     * Legacy CSV trips are already world readable, and are returned as they are.
+     * @param fileName The trip file to export.
+     * @return The CSV file.
+     * @throws IOException If the external storage isn't mounted, or the conversion fails.
+     */
+    public File exportAsCsv(String fileName) throws IOException {
+        if(fileName.endsWith(LEGACY_FILE_EXTENSION))
+            return getFile(fileName);
+
+        if(!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState()))
+            throw new IOException("External storage not available");
+
+        File exportDirectory = new File(Environment.getExternalStorageDirectory(), EXPORT_DIRECTORY);
+        if(!exportDirectory.isDirectory() && !exportDirectory.mkdirs())
+            throw new IOException("Can't create " + exportDirectory);
+
+        String baseName = fileName.substring(0, fileName.length() - FILE_EXTENSION.length());
+        File csvFile = new File(exportDirectory, baseName + LEGACY_FILE_EXTENSION);
+
+        InputStream in = context.openFileInput(fileName);
+        Writer out;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(csvFile));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+
+        TripFileReader.exportCsv(in, out);     // Closes both streams
+        return csvFile;
+    }
 }
@@ -0,0 +1,307 @@
+package com.drismo.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Nearest neighbour lookups in a gazetteer (named points: places, or the vertices of street segments), through
+ * a memory mapping of an index file. The points are bucketed by geohash cell and sorted by bucket, so a lookup
+ * binary searches the 3 x 3 cells around the location and measures the distance to the points in them; nothing
+ * but the found name is read into memory, and nothing is created but the name.
+ * <p>
+ * Index file layout (big endian):
+ * <pre>
+ *   int magic, short version, short cell bits, int bucket count, int point count, int name table size,
+ *   int cells[bucket count]                  sorted geohash cells holding points
+ *   int firstPoints[bucket count + 1]        first point of each bucket, then the point count
+ *   int latitudes[point count]               microdegrees
+ *   int longitudes[point count]              microdegrees
+ *   int nameOffsets[point count]             into the name table
+ *   name table                               short length, UTF-8 bytes; each name stored once
+ * </pre>
+ * Safe to share between threads, since only absolute reads are done on the mapping.
+ * @see OfflineGeocoder
+ */
+public class GazetteerIndex {
+
+    public static final int MAGIC = 0x44474158;             // "DGAX"
+    public static final short VERSION = 1;
+
+    private static final int HEADER_SIZE = 20;
+    private static final double METERS_PER_MICRODEGREE = 0.111195;
+
+    private final ByteBuffer buffer;
+    private final int bits;
+    private final int bucketCount;
+    private final int pointCount;
+    private final double cellLatitude;
+    private final double cellLongitude;
+
+    private final int cellsPosition;
+    private final int firstPointsPosition;
+    private final int latitudesPosition;
+    private final int longitudesPosition;
+    private final int nameOffsetsPosition;
+    private final int namesPosition;
+
+    /**
+     * Maps an index file, and reads its header.
+     * @param file The index file.
+     * @throws IOException If the file can't be mapped, or isn't a supported index file.
+     */
+    public GazetteerIndex(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();                                                // The mapping stays valid.
+        }
+
+        if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a DriSMo gazetteer index");
+        final short version = buffer.getShort(4);
+        if(version != VERSION)
+            throw new IOException("Unsupported gazetteer index version " + version);
+        bits = buffer.getShort(6);
+        bucketCount = buffer.getInt(8);
+        pointCount = buffer.getInt(12);
+        final int namesSize = buffer.getInt(16);
+
+        cellsPosition = HEADER_SIZE;
+        firstPointsPosition = cellsPosition + 4 * bucketCount;
+        latitudesPosition = firstPointsPosition + 4 * (bucketCount + 1);
+        longitudesPosition = latitudesPosition + 4 * pointCount;
+        nameOffsetsPosition = longitudesPosition + 4 * pointCount;
+        namesPosition = nameOffsetsPosition + 4 * pointCount;
+        if(namesPosition + namesSize != buffer.limit())
+            throw new IOException("Truncated gazetteer index");
+
+        cellLatitude = 180.0 / (1 << (bits / 2));                       // Longitude gets the odd bit.
+        cellLongitude = 360.0 / (1 << (bits - bits / 2));
+    }
+
+    public int getPointCount(){
+        return pointCount;
+    }
+
+    /**
+     * @return The height of a cell, in metres. Cells are narrower than this north and south of about 60 degrees,
+     *         where the width (<code>cos(latitude)</code> x twice the height) drops below the height.
+     */
+    public double getCellHeightMeters(){
+        return cellLatitude * 1e6 * METERS_PER_MICRODEGREE;
+    }
+
+    /**
+     * Finds the name of the point nearest to a location, by an equirectangular approximation of the distance
+     * (less than 0.1 % off at the distances searched).
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @param maxMeters Max distance to the point. The cells searched are as many as it takes to cover it, so
+     *        the cells are narrower the further north or south the location is.
+     * @return The name of the nearest point, or null if there is none within <code>maxMeters</code>.
+     */
+    public String find(double latitude, double longitude, double maxMeters){
+        final double latE6 = latitude * 1e6;
+        final double lonE6 = longitude * 1e6;
+        final double lonScale = Math.cos(Math.toRadians(latitude));
+        final double maxE6 = maxMeters / METERS_PER_MICRODEGREE;
+
+        final int rows = (int) Math.ceil(maxE6 / (cellLatitude * 1e6));
+        final int columnCount = 1 << (bits - bits / 2);
+        final int columns = (int) Math.min((columnCount - 1) / 2,               // Around the globe, at the poles
+                                           Math.ceil(maxE6 / (cellLongitude * 1e6 * lonScale)));
+
+        double bestDistance = maxE6 * maxE6;
+        int best = -1;
+        for(int dy = -rows; dy <= rows; dy++){
+            final double cellLat = latitude + dy * cellLatitude;
+            if(cellLat < -90 || cellLat >= 90)
+                continue;
+            for(int dx = -columns; dx <= columns; dx++){
+                double cellLon = longitude + dx * cellLongitude;
+                if(cellLon < -180)
+                    cellLon += 360;
+                else if(cellLon >= 180)
+                    cellLon -= 360;
+
+                final int bucket = findBucket(GeoHash.encodeBits(cellLat, cellLon, bits));
+                if(bucket < 0)
+                    continue;
+                final int end = buffer.getInt(firstPointsPosition + 4 * (bucket + 1));
+                for(int p = buffer.getInt(firstPointsPosition + 4 * bucket); p < end; p++){
+                    final double dLat = buffer.getInt(latitudesPosition + 4 * p) - latE6;
+                    final double dLon = (buffer.getInt(longitudesPosition + 4 * p) - lonE6) * lonScale;
+                    final double distance = dLat * dLat + dLon * dLon;
+                    if(distance < bestDistance){
+                        bestDistance = distance;
+                        best = p;
+                    }
+                }
+            }
+        }
+        return best < 0 ? null : readName(buffer.getInt(nameOffsetsPosition + 4 * best));
+    }
+
+    /**
+     * @return The bucket of the cell, or -1 if the cell holds no points.
+     */
+    private int findBucket(int cell){
+        int low = 0, high = bucketCount - 1;
+        while(low <= high){
+            final int mid = (low + high) >>> 1;
+            final int midCell = buffer.getInt(cellsPosition + 4 * mid);
+            if(midCell < cell)
+                low = mid + 1;
+            else if(midCell > cell)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private String readName(int offset){
+        final int position = namesPosition + offset;
+        final byte bytes[] = new byte[buffer.getShort(position) & 0xFFFF];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(position + 2 + i);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);                              // UTF-8 is always supported
+        }
+    }
+
+    /**
+     * Builds an index file from a gazetteer in text form: one point per line, as
+     * <code>name&lt;TAB&gt;latitude&lt;TAB&gt;longitude</code>. Empty lines, lines starting with '#' and points
+     * without a name are skipped.
+     * @param in The gazetteer. Not closed.
+     * @param out The index file to write.
+     * @param bits Geohash bits of the buckets (even, at most 30): more bits give smaller cells, faster lookups
+     *        and a shorter search range.
+     * @return The number of points indexed.
+     * @throws IOException If reading or writing fails, or a line is malformed.
+     */
+    public static int build(Reader in, File out, int bits) throws IOException {
+        final BufferedReader reader = new BufferedReader(in, 8192);
+        final HashMap<String, Integer> nameOffsets = new HashMap<String, Integer>();
+        final NameTable names = new NameTable();
+        int latitudes[] = new int[1024], longitudes[] = new int[1024], offsets[] = new int[1024];
+        long keys[] = new long[1024];
+        int count = 0;
+
+        String line;
+        int lineNumber = 0;
+        while((line = reader.readLine()) != null){
+            lineNumber++;
+            if(line.length() == 0 || line.charAt(0) == '#')
+                continue;
+            final int tab1 = line.indexOf('\t');
+            final int tab2 = tab1 < 0 ? -1 : line.indexOf('\t', tab1 + 1);
+            if(tab2 < 0)
+                throw new IOException("Malformed gazetteer line " + lineNumber);
+            final String name = line.substring(0, tab1).trim();
+            if(name.length() == 0)
+                continue;
+            final double latitude, longitude;
+            try {
+                latitude = Double.parseDouble(line.substring(tab1 + 1, tab2));
+                final int tab3 = line.indexOf('\t', tab2 + 1);
+                longitude = Double.parseDouble(tab3 < 0 ? line.substring(tab2 + 1) : line.substring(tab2 + 1, tab3));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed gazetteer line " + lineNumber);
+            }
+
+            if(count == latitudes.length){
+                latitudes = grow(latitudes);
+                longitudes = grow(longitudes);
+                offsets = grow(offsets);
+                final long grown[] = new long[keys.length * 2];
+                System.arraycopy(keys, 0, grown, 0, count);
+                keys = grown;
+            }
+            Integer offset = nameOffsets.get(name);
+            if(offset == null){
+                offset = names.size();
+                names.writeName(name);
+                nameOffsets.put(name, offset);
+            }
+            latitudes[count] = (int) Math.round(latitude * 1e6);
+            longitudes[count] = (int) Math.round(longitude * 1e6);
+            offsets[count] = offset;
+            keys[count] = ((long) GeoHash.encodeBits(latitude, longitude, bits) << 32) | count;
+            count++;
+        }
+
+        Arrays.sort(keys, 0, count);                                    // By cell, then by input order
+
+        int bucketCount = 0;
+        for(int i = 0; i < count; i++)
+            if(i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32))
+                bucketCount++;
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 8192));
+        try {
+            data.writeInt(MAGIC);
+            data.writeShort(VERSION);
+            data.writeShort(bits);
+            data.writeInt(bucketCount);
+            data.writeInt(count);
+            data.writeInt(names.size());
+
+            for(int i = 0; i < count; i++)
+                if(i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32))
+                    data.writeInt((int) (keys[i] >>> 32));
+            for(int i = 0; i < count; i++)
+                if(i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32))
+                    data.writeInt(i);
+            data.writeInt(count);
+
+            for(int i = 0; i < count; i++)
+                data.writeInt(latitudes[(int) keys[i]]);
+            for(int i = 0; i < count; i++)
+                data.writeInt(longitudes[(int) keys[i]]);
+            for(int i = 0; i < count; i++)
+                data.writeInt(offsets[(int) keys[i]]);
+            names.writeTo(data);
+        } finally {
+            data.close();
+        }
+        return count;
+    }
+
+    private static int[] grow(int array[]){
+        final int grown[] = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * The name table, while it's built.
+     */
+    private static final class NameTable extends ByteArrayOutputStream {
+
+        private void writeName(String name) throws IOException {
+            byte bytes[] = name.getBytes("UTF-8");
+            if(bytes.length > 0xFFFF)
+                throw new IOException("Gazetteer name too long");
+            write(bytes.length >>> 8);
+            write(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.drismo.utils;
+
+/**
+ * Geohash encoding of coordinates: a base 32 string where each character halves the cell in both directions
+ * (roughly), so coordinates in the same cell share a prefix. A precision of 5 characters gives cells of about
+ * 5 x 5 km, 7 characters about 150 x 150 m.
+ */
+public final class GeoHash {
+
+    private static final char BASE32[] = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash(){
+    }
+
+    /**
+     * @param latitude Latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @param precision Number of characters (at most 12).
+     * @return The geohash of the cell holding the coordinates.
+     */
+    public static String encode(double latitude, double longitude, int precision){
+        final char hash[] = new char[precision];
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        boolean even = true;                                // Bits alternate between longitude and latitude.
+
+        for(int i = 0; i < precision; i++){
+            int ch = 0;
+            for(int bit = 0; bit < 5; bit++){
+                ch <<= 1;
+                if(even){
+                    final double mid = (minLon + maxLon) / 2;
+                    if(longitude >= mid){
+                        ch |= 1;
+                        minLon = mid;
+                    }
+                    else
+                        maxLon = mid;
+                }
+                else {
+                    final double mid = (minLat + maxLat) / 2;
+                    if(latitude >= mid){
+                        ch |= 1;
+                        minLat = mid;
+                    }
+                    else
+                        maxLat = mid;
+                }
+                even = !even;
+            }
+            hash[i] = BASE32[ch];
+        }
+        return new String(hash);
+    }
+
+    /**
+     * The same cell as <code>encode</code>, as an integer of <code>bits</code> bits (5 per character), for
+     * indexes that sort and compare cells.
+     * @param latitude Latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @param bits Number of bits (at most 31).
+     * @return The bits of the geohash of the cell holding the coordinates.
+     */
+    public static int encodeBits(double latitude, double longitude, int bits){
+        int hash = 0;
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+
+        for(int bit = 0; bit < bits; bit++){
+            hash <<= 1;
+            if((bit & 1) == 0){
+                final double mid = (minLon + maxLon) / 2;
+                if(longitude >= mid){
+                    hash |= 1;
+                    minLon = mid;
+                }
+                else
+                    maxLon = mid;
+            }
+            else {
+                final double mid = (minLat + maxLat) / 2;
+                if(latitude >= mid){
+                    hash |= 1;
+                    minLat = mid;
+                }
+                else
+                    maxLat = mid;
+            }
+        }
+        return hash;
+    }
+}
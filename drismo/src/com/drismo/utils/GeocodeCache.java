@@ -0,0 +1,274 @@
+package com.drismo.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two level cache of reverse geocoding results (city and street names), keyed by the geohash cell of the
+ * location: city names by 5 character cells (about 5 x 5 km), street names by 7 character cells (about
+ * 150 x 150 m). Repeated trips therefore start and end in cells that are already looked up.
+ * <p>
+ * Level one is an in-memory LRU map of <code>MEMORY_ENTRIES</code> entries. Level two is a fixed size file of
+ * <code>DISK_SETS</code> sets of <code>DISK_WAYS</code> slots: a key can only be stored in the slots of its set, and
+ * replaces the oldest of them, so the file never grows and a lookup reads one set. Entries older than
+ * <code>TTL_MS</code> are treated as missing in both levels.
+ * @see com.drismo.logic.JsonFunctions
+ */
+public class GeocodeCache {
+
+    public static final int CITY = 0;
+    public static final int STREET = 1;
+
+    private static final String TAG = "GeocodeCache";
+    private static final String FILE_NAME = "geocode-cache.bin";
+
+    private static final int CITY_PRECISION = 5;
+    private static final int STREET_PRECISION = 7;
+
+    static final long TTL_MS = 30L * 24 * 60 * 60 * 1000;
+    static final int MEMORY_ENTRIES = 64;
+    static final int DISK_SETS = 512;
+    static final int DISK_WAYS = 2;
+
+    /**
+     * A slot: 8 bytes key (ASCII, zero padded), long time stored, short name length, the name (UTF-8).
+     */
+    private static final int SLOT_SIZE = 128;
+    private static final int KEY_SIZE = 8;
+    private static final int MAX_NAME_SIZE = SLOT_SIZE - KEY_SIZE - 8 - 2;
+
+    private static GeocodeCache instance;
+
+    private final File file;
+    private RandomAccessFile disk;
+    private final byte slot[] = new byte[SLOT_SIZE];
+
+    private final LinkedHashMap<String, CachedName> memory = new LinkedHashMap<String, CachedName>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest){
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    private int memoryHits = 0;
+    private int diskHits = 0;
+    private int misses = 0;
+
+    private static final class CachedName {
+        private final String name;
+        private final long time;
+
+        private CachedName(String name, long time){
+            this.name = name;
+            this.time = time;
+        }
+    }
+
+    private GeocodeCache(Context c){
+        file = c.getFileStreamPath(FILE_NAME);
+    }
+
+    public static synchronized GeocodeCache getInstance(Context c){
+        if(instance == null)
+            instance = new GeocodeCache(c.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Looks up a name, first in memory, then on disk.
+     * @param type <code>CITY</code> or <code>STREET</code>.
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @return The cached name of the cell holding the location, or null if it's not cached (or has expired).
+     */
+    public synchronized String get(int type, float latitude, float longitude){
+        final String key = getKey(type, latitude, longitude);
+        final long now = System.currentTimeMillis();
+
+        final CachedName entry = memory.get(key);
+        if(entry != null && now - entry.time < TTL_MS){
+            memoryHits++;
+            return entry.name;
+        }
+
+        final CachedName stored = readDisk(key, now);
+        if(stored != null){
+            diskHits++;
+            memory.put(key, stored);
+            return stored.name;
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Caches a name in memory and on disk.
+     * @param type <code>CITY</code> or <code>STREET</code>.
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @param name The name of the cell holding the location.
+     */
+    public synchronized void put(int type, float latitude, float longitude, String name){
+        final String key = getKey(type, latitude, longitude);
+        final CachedName entry = new CachedName(name, System.currentTimeMillis());
+        memory.put(key, entry);
+        writeDisk(key, entry);
+    }
+
+    /**
+     * Empties both levels, and resets the counters.
+     */
+    public synchronized void clear(){
+        memory.clear();
+        memoryHits = diskHits = misses = 0;
+        try {
+            closeDisk();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to close " + FILE_NAME, e);
+        }
+        file.delete();
+    }
+
+    public synchronized int getMemoryHitCount(){
+        return memoryHits;
+    }
+
+    public synchronized int getDiskHitCount(){
+        return diskHits;
+    }
+
+    public synchronized int getMissCount(){
+        return misses;
+    }
+
+    /**
+     * @return The cell holding the location, prefixed by the type: all locations with the same key share a name.
+     */
+    public static String getKey(int type, float latitude, float longitude){
+        return type == CITY ? 'c' + GeoHash.encode(latitude, longitude, CITY_PRECISION)
+                            : 's' + GeoHash.encode(latitude, longitude, STREET_PRECISION);
+    }
+
+    private static int getSet(String key){
+        return (key.hashCode() & 0x7FFFFFFF) % DISK_SETS;
+    }
+
+    private RandomAccessFile getDisk() throws IOException {
+        if(disk == null){
+            disk = new RandomAccessFile(file, "rw");
+            if(disk.length() != (long) DISK_SETS * DISK_WAYS * SLOT_SIZE)
+                disk.setLength((long) DISK_SETS * DISK_WAYS * SLOT_SIZE);       // New (or damaged): all empty.
+        }
+        return disk;
+    }
+
+    private void closeDisk() throws IOException {
+        if(disk != null){
+            disk.close();
+            disk = null;
+        }
+    }
+
+    /**
+     * @return The entry stored for the key, or null if there is none that has not expired.
+     */
+    private CachedName readDisk(String key, long now){
+        try {
+            final RandomAccessFile disk = getDisk();
+            final long set = (long) getSet(key) * DISK_WAYS * SLOT_SIZE;
+            for(int way = 0; way < DISK_WAYS; way++){
+                disk.seek(set + way * SLOT_SIZE);
+                disk.readFully(slot);
+                if(!keyEquals(key))
+                    continue;
+
+                final long time = readLong(KEY_SIZE);
+                final int length = ((slot[KEY_SIZE + 8] & 0xFF) << 8) | (slot[KEY_SIZE + 9] & 0xFF);
+                if(now - time >= TTL_MS || length > MAX_NAME_SIZE)
+                    return null;
+                return new CachedName(new String(slot, KEY_SIZE + 10, length, "UTF-8"), time);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + FILE_NAME, e);
+        }
+        return null;
+    }
+
+    /**
+     * Stores an entry in the slot already holding its key, or else the slot stored the longest ago.
+     */
+    private void writeDisk(String key, CachedName entry){
+        try {
+            final RandomAccessFile disk = getDisk();
+            final long set = (long) getSet(key) * DISK_WAYS * SLOT_SIZE;
+            int target = 0;
+            long oldest = Long.MAX_VALUE;
+            for(int way = 0; way < DISK_WAYS; way++){
+                disk.seek(set + way * SLOT_SIZE);
+                disk.readFully(slot);
+                if(keyEquals(key)){
+                    target = way;
+                    break;
+                }
+                final long time = readLong(KEY_SIZE);
+                if(time < oldest){
+                    oldest = time;
+                    target = way;
+                }
+            }
+
+            final byte name[] = truncate(entry.name);
+            Arrays.fill(slot, (byte) 0);
+            for(int i = 0; i < key.length(); i++)
+                slot[i] = (byte) key.charAt(i);
+            for(int i = 0; i < 8; i++)
+                slot[KEY_SIZE + i] = (byte) (entry.time >>> (56 - 8 * i));
+            slot[KEY_SIZE + 8] = (byte) (name.length >>> 8);
+            slot[KEY_SIZE + 9] = (byte) name.length;
+            System.arraycopy(name, 0, slot, KEY_SIZE + 10, name.length);
+
+            disk.seek(set + target * SLOT_SIZE);
+            disk.write(slot);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write " + FILE_NAME, e);
+        }
+    }
+
+    private boolean keyEquals(String key){
+        for(int i = 0; i < KEY_SIZE; i++){
+            final int expected = i < key.length() ? key.charAt(i) : 0;
+            if(slot[i] != expected)
+                return false;
+        }
+        return true;
+    }
+
+    private long readLong(int pos){
+        long value = 0;
+        for(int i = 0; i < 8; i++)
+            value = (value << 8) | (slot[pos + i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * @return The name as UTF-8, cut to fit a slot (at a character boundary).
+     */
+    private static byte[] truncate(String name) throws UnsupportedEncodingException {
+        byte bytes[] = name.getBytes("UTF-8");
+        int end = name.length();
+        while(bytes.length > MAX_NAME_SIZE){
+            end--;
+            bytes = name.substring(0, end).getBytes("UTF-8");
+        }
+        return bytes;
+    }
+}
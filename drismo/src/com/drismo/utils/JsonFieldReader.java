@@ -0,0 +1,219 @@
+package com.drismo.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Finds one value in a JSON document while it's streamed, without building the document. Only the strings on
+ * the path to the value are created; everything else is skipped character by character, and reading stops as
+ * soon as the value is found.
+ * <p>
+ * A path is a list of object keys (<code>String</code>) and array indexes (<code>Integer</code>), so
+ * <code>{"geonames", 0, "adminName2"}</code> finds <code>geonames[0].adminName2</code>.
+ */
+public class JsonFieldReader {
+
+    private final Reader in;
+    private final char buffer[] = new char[1024];
+    private int pos = 0;
+    private int limit = 0;
+
+    /**
+     * @param in The JSON document. Not closed.
+     */
+    public JsonFieldReader(Reader in){
+        this.in = in;
+    }
+
+    /**
+     * Reads the document up to the value at the given path.
+     * @param path Keys and indexes leading to the value.
+     * @return The value, or null if the document has no string or number at the path.
+     * @throws IOException If reading fails, or the document is malformed.
+     */
+    public String find(Object path[]) throws IOException {
+        return readValue(path, 0);
+    }
+
+    /**
+     * Reads a value, descending into it if it's on the path.
+     * @param depth Number of path elements matched by the value's parents.
+     * @return The value at the path, if it's in this value, else null.
+     */
+    private String readValue(Object path[], int depth) throws IOException {
+        final int c = nextNonWhitespace();
+
+        if(depth == path.length){                                       // The value itself
+            if(c == '"')
+                return readString();
+            if(c == '-' || (c >= '0' && c <= '9'))
+                return readLiteral(c);
+            skipValue(c);
+            return null;
+        }
+
+        if(c == '{' && path[depth] instanceof String){
+            if(peekNonWhitespace() == '}'){
+                read();
+                return null;
+            }
+            do {
+                if(nextNonWhitespace() != '"')
+                    throw new IOException("Expected a key");
+                final String key = readString();
+                if(nextNonWhitespace() != ':')
+                    throw new IOException("Expected ':'");
+                if(key.equals(path[depth])){
+                    final String found = readValue(path, depth + 1);
+                    if(found != null)
+                        return found;
+                }
+                else
+                    skipValue(nextNonWhitespace());
+            } while(nextNonWhitespace() == ',');
+            return null;
+        }
+
+        if(c == '[' && path[depth] instanceof Integer){
+            if(peekNonWhitespace() == ']'){
+                read();
+                return null;
+            }
+            final int wanted = (Integer) path[depth];
+            int index = 0;
+            do {
+                if(index++ == wanted){
+                    final String found = readValue(path, depth + 1);
+                    if(found != null)
+                        return found;
+                }
+                else
+                    skipValue(nextNonWhitespace());
+            } while(nextNonWhitespace() == ',');
+            return null;
+        }
+
+        skipValue(c);
+        return null;
+    }
+
+    /**
+     * Skips a value, given its first character.
+     */
+    private void skipValue(int c) throws IOException {
+        if(c == '"'){
+            skipString();
+            return;
+        }
+        if(c != '{' && c != '['){                                       // Number, true, false or null
+            while((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c))
+                read();
+            return;
+        }
+
+        int depth = 1;
+        while(depth > 0){
+            c = read();
+            if(c == -1)
+                throw new IOException("Unexpected end of document");
+            if(c == '"')
+                skipString();
+            else if(c == '{' || c == '[')
+                depth++;
+            else if(c == '}' || c == ']')
+                depth--;
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while((c = read()) != '"'){
+            if(c == -1)
+                throw new IOException("Unterminated string");
+            if(c == '\\')
+                read();
+        }
+    }
+
+    private String readString() throws IOException {
+        final StringBuilder sb = new StringBuilder(32);
+        int c;
+        while((c = read()) != '"'){
+            if(c == -1)
+                throw new IOException("Unterminated string");
+            if(c != '\\'){
+                sb.append((char) c);
+                continue;
+            }
+            c = read();
+            switch(c){
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    int code = 0;
+                    for(int i = 0; i < 4; i++){
+                        final int digit = Character.digit(read(), 16);
+                        if(digit < 0)
+                            throw new IOException("Malformed \\u escape");
+                        code = (code << 4) | digit;
+                    }
+                    sb.append((char) code);
+                    break;
+                case -1:
+                    throw new IOException("Unterminated string");
+                default:
+                    sb.append((char) c);                                // \" \\ \/
+            }
+        }
+        return sb.toString();
+    }
+
+    private String readLiteral(int first) throws IOException {
+        final StringBuilder sb = new StringBuilder(16);
+        sb.append((char) first);
+        int c;
+        while((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c))
+            sb.append((char) read());
+        return sb.toString();
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        while(isWhitespace(c = read()));
+        return c;
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        while(isWhitespace(peek()))
+            read();
+        return peek();
+    }
+
+    private static boolean isWhitespace(int c){
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int peek() throws IOException {
+        if(pos == limit && !fill())
+            return -1;
+        return buffer[pos];
+    }
+
+    private int read() throws IOException {
+        if(pos == limit && !fill())
+            return -1;
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        final int read = in.read(buffer, 0, buffer.length);
+        if(read <= 0)
+            return false;
+        pos = 0;
+        limit = read;
+        return true;
+    }
+}
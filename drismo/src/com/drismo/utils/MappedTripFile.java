@@ -0,0 +1,468 @@
+package com.drismo.utils;
+
+import android.content.Context;
+import com.drismo.model.TripRecordSink;
+import com.drismo.model.TripStatistics;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.drismo.utils.TripFileFormat.*;
+
+/**
+ * Random access to a binary trip file, through a memory mapping of the file. The block index is read where it
+ * lies in the footer, so opening a closed trip file costs the same no matter how long the trip is. A file with
+ * no footer (the app was killed while logging) is indexed by skipping from block to block when it's opened.
+ * Only the blocks holding the requested records are decoded. The statistics of a closed trip file are read from
+ * the footer too.
+ * <p>
+ * Not thread safe, since the last decoded block is kept; open one per thread.
+ * @see TripFileFormat
+ */
+public class MappedTripFile {
+
+    private final ByteBuffer buffer;
+    private final int refreshRate;
+    private final long startTime;
+
+    private final int blockCount;
+    private final int recordCount;
+    private final long lastTime;
+
+    /**
+     * Position of the first block index entry in the buffer, or -1 if the index was built when the file was
+     * opened, into the arrays below.
+     */
+    private final int indexPosition;
+    private int blockOffsets[];
+    private int blockFirstRecords[];
+    private long blockFirstTimes[];
+
+    private final TripBlock block = new TripBlock();
+    private int decodedBlock = -1;
+
+    /**
+     * Maps a binary trip file, and reads the header and the block index.
+     * @param file The trip file.
+     * @throws IOException If the file can't be mapped, or isn't a supported trip file.
+     */
+    public MappedTripFile(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();                                                // The mapping stays valid.
+        }
+
+        if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a DriSMo trip file");
+        final short version = buffer.getShort(4);
+        if(version != VERSION)
+            throw new IOException("Unsupported trip file version " + version);
+        refreshRate = buffer.getInt(8);
+        startTime = buffer.getLong(12);
+
+        final int index = findSection(TAG_BLOCK_INDEX);
+        if(index >= 0){
+            indexPosition = index + INDEX_HEADER_SIZE;
+            blockCount = buffer.getInt(index);
+            recordCount = buffer.getInt(index + 4);
+            lastTime = buffer.getLong(index + 8);
+        }
+        else {
+            indexPosition = -1;
+            blockCount = scanBlocks();
+            recordCount = blockCount > 0 ? blockFirstRecords[blockCount-1] + readBlockCount(blockCount-1) : 0;
+            lastTime = blockCount > 0 ? decodeBlock(blockCount-1).times[block.count-1] : 0;
+        }
+    }
+
+    /**
+     * Maps a binary trip file in the application's local storage.
+     * @param c Context owning the file.
+     * @param fileName Name of the trip file. The binary extension is appended if the name has no extension.
+     * @return The mapped file.
+     * @throws IOException If the file can't be mapped, or isn't a binary trip file.
+     */
+    public static MappedTripFile open(Context c, String fileName) throws IOException {
+        if(!FileController.isTripFile(fileName))
+            fileName += FileController.FILE_EXTENSION;
+        return new MappedTripFile(c.getFileStreamPath(fileName));
+    }
+
+    /**
+     * Tells if a trip file in the application's local storage is a closed binary trip file, by reading its
+     * trailer: its statistics and a sample of its records are then read in a time independent of its length.
+     * Legacy CSV files, and binary files that were not closed, have to be read whole.
+     * @param c Context owning the file.
+     * @param fileName Name of the trip file. The binary extension is appended if the name has no extension.
+     * @return True if the file has a footer.
+     */
+    public static boolean isClosed(Context c, String fileName){
+        if(fileName.endsWith(FileController.LEGACY_FILE_EXTENSION))
+            return false;
+        if(!FileController.isTripFile(fileName))
+            fileName += FileController.FILE_EXTENSION;
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(c.getFileStreamPath(fileName), "r");
+            try {
+                final long end = raf.length();
+                if(end < HEADER_SIZE + 1 + TRAILER_SIZE)
+                    return false;
+                raf.seek(end - 4);
+                return raf.readInt() == FOOTER_MAGIC;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Streams at most about <code>maxRecords</code> records, evenly spread over the trip, to a sink. Binary trip
+     * files are sampled through a mapping; legacy CSV files can't be sampled, and are read whole.
+     * @param c Context owning the file.
+     * @param fileName Name of the trip file.
+     * @param maxRecords The max number of records to add.
+     * @param records Sink to add the records to, after giving it the header.
+     * @throws IOException If reading fails.
+     * @see #sample(int, int, int, TripRecordSink)
+     */
+    public static void load(Context c, String fileName, int maxRecords, TripRecordSink records) throws IOException {
+        if(fileName.endsWith(FileController.LEGACY_FILE_EXTENSION)){
+            TripFileReader.load(c, fileName, records);
+            return;
+        }
+        final MappedTripFile file = open(c, fileName);
+        records.setHeader(file.getRefreshRate(), file.getStartTime());
+        file.sample(0, file.getRecordCount(), maxRecords, records);
+    }
+
+    /**
+     * Loads the statistics of a trip file in the application's local storage: from the footer of a closed binary
+     * trip file, else (legacy CSV files, and binary files that were not closed) by streaming all the records.
+     * @param c Context owning the file.
+     * @param fileName Name of the trip file.
+     * @return The statistics, with the header of the trip.
+     * @throws IOException If reading fails.
+     */
+    public static TripStatistics loadStatistics(Context c, String fileName) throws IOException {
+        if(!fileName.endsWith(FileController.LEGACY_FILE_EXTENSION)){
+            final MappedTripFile file = open(c, fileName);
+            final TripStatistics statistics = file.getStatistics();
+            if(statistics != null)
+                return statistics;
+        }
+        final TripStatistics statistics = new TripStatistics();
+        load(c, fileName, Integer.MAX_VALUE, statistics);
+        return statistics;
+    }
+
+    /**
+     * @return The statistics stored in the footer, with the header of the trip, or null if the file has no
+     *         footer (it was not closed) or no statistics in it.
+     * @throws IOException If the statistics are corrupt.
+     */
+    public TripStatistics getStatistics() throws IOException {
+        final int section = findSection(TAG_STATISTICS);
+        if(section < 0)
+            return null;
+
+        final TripStatistics statistics = new TripStatistics();
+        statistics.setHeader(refreshRate, startTime);
+        statistics.readFrom(new DataInputStream(new SectionInputStream(section)));
+        return statistics;
+    }
+
+    public int getRefreshRate(){
+        return refreshRate;
+    }
+
+    public long getStartTime(){
+        return startTime;
+    }
+
+    public int getRecordCount(){
+        return recordCount;
+    }
+
+    /**
+     * @return The time of the last record (ms since the trip started), 0 if there are no records.
+     */
+    public long getLastTime(){
+        return lastTime;
+    }
+
+    /**
+     * @return True if the block index was read from the footer, false if the file was not closed and had
+     *         to be scanned when it was opened.
+     */
+    public boolean hasFooter(){
+        return indexPosition >= 0;
+    }
+
+    /**
+     * Finds the first record at or after a given time, by binary searching the block index, and decoding
+     * the one block that holds the record.
+     * @param time Time since the trip started (ms).
+     * @return Index of the record, or the record count if all the records are older.
+     * @throws IOException If the block is corrupt.
+     */
+    public int findRecord(long time) throws IOException {
+        int low = 0;
+        int high = blockCount - 1;
+        while(low <= high){                                 // Find the last block starting at or before the time.
+            final int mid = (low + high) >>> 1;
+            if(getFirstTime(mid) <= time)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        if(high < 0)
+            return 0;
+
+        final TripBlock decoded = decodeBlock(high);
+        for(int i = 0; i < decoded.count; i++){
+            if(decoded.times[i] >= time)
+                return getFirstRecord(high) + i;
+        }
+        return getFirstRecord(high) + decoded.count;        // The first record of the next block.
+    }
+
+    /**
+     * Streams the records <code>from</code> (inclusive) to <code>to</code> (exclusive) to a sink.
+     * The header is not given to the sink.
+     * @throws IOException If a block is corrupt.
+     */
+    public void read(int from, int to, TripRecordSink records) throws IOException {
+        from = Math.max(from, 0);
+        to = Math.min(to, recordCount);
+        if(from >= to)
+            return;
+
+        for(int b = findBlock(from); b < blockCount; b++){
+            final int first = getFirstRecord(b);
+            if(first >= to)
+                break;
+            final TripBlock decoded = decodeBlock(b);
+            decoded.emit(Math.max(from - first, 0), Math.min(to - first, decoded.count), records);
+        }
+    }
+
+    /**
+     * Streams the records logged from <code>fromTime</code> (inclusive) to <code>toTime</code> (exclusive),
+     * in ms since the trip started, to a sink. The header is not given to the sink.
+     * @throws IOException If a block is corrupt.
+     */
+    public void readTimeRange(long fromTime, long toTime, TripRecordSink records) throws IOException {
+        read(findRecord(fromTime), findRecord(toTime), records);
+    }
+
+    /**
+     * Streams every n-th record from <code>from</code> (inclusive) to <code>to</code> (exclusive) to a sink, with
+     * n chosen so at most <code>maxRecords</code> records are added. Blocks with no sampled records are not
+     * decoded, so the cost depends on <code>maxRecords</code> rather than the length of the range.
+     * The header is not given to the sink.
+     * @throws IOException If a block is corrupt.
+     */
+    public void sample(int from, int to, int maxRecords, TripRecordSink records) throws IOException {
+        from = Math.max(from, 0);
+        to = Math.min(to, recordCount);
+        if(from >= to || maxRecords <= 0)
+            return;
+
+        final int stride = (int) (((long) to - from + maxRecords - 1) / maxRecords);
+        if(stride == 1){
+            read(from, to, records);
+            return;
+        }
+
+        int b = findBlock(from);
+        for(int i = from; i < to; i += stride){
+            while(b + 1 < blockCount && getFirstRecord(b + 1) <= i)
+                b++;
+            final TripBlock decoded = decodeBlock(b);
+            final int r = i - getFirstRecord(b);
+            decoded.emit(r, r + 1, records);
+        }
+    }
+
+    /**
+     * @return The block holding a given record, by binary search.
+     */
+    private int findBlock(int record){
+        int low = 0;
+        int high = blockCount - 1;
+        while(low <= high){
+            final int mid = (low + high) >>> 1;
+            if(getFirstRecord(mid) <= record)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return Math.max(high, 0);
+    }
+
+    private int getOffset(int b){
+        return indexPosition >= 0 ? buffer.getInt(indexPosition + b * INDEX_ENTRY_SIZE) : blockOffsets[b];
+    }
+
+    private int getFirstRecord(int b){
+        return indexPosition >= 0 ? buffer.getInt(indexPosition + b * INDEX_ENTRY_SIZE + 4) : blockFirstRecords[b];
+    }
+
+    private long getFirstTime(int b){
+        return indexPosition >= 0 ? buffer.getLong(indexPosition + b * INDEX_ENTRY_SIZE + 8) : blockFirstTimes[b];
+    }
+
+    private int readBlockCount(int b){
+        return buffer.get(getOffset(b));
+    }
+
+    private TripBlock decodeBlock(int b) throws IOException {
+        if(b == decodedBlock)
+            return block;
+
+        int pos = getOffset(b);
+        final int count = buffer.get(pos++);
+        int length = 0;
+        int v = -1;
+        for(int shift = 0; shift < 32; shift += 7){
+            v = buffer.get(pos++);
+            length |= (v & 0x7F) << shift;
+            if(v >= 0)
+                break;
+        }
+        if(v < 0 || length < 0 || length > block.payload.length)
+            throw new IOException("Corrupt trip file block");
+        buffer.position(pos);
+        buffer.get(block.payload, 0, length);
+
+        decodedBlock = -1;
+        block.decode(count, length);
+        decodedBlock = b;
+        return block;
+    }
+
+    /**
+     * @return Position of the first section with the given tag (after its tag and length), or -1 if there is no
+     *         footer or no such section in it.
+     */
+    private int findSection(byte wanted) throws IOException {
+        final int end = buffer.limit();
+        if(end < HEADER_SIZE + 1 + TRAILER_SIZE || buffer.getInt(end - 4) != FOOTER_MAGIC)
+            return -1;
+
+        int pos = buffer.getInt(end - TRAILER_SIZE);
+        while(pos >= HEADER_SIZE && pos < end - TRAILER_SIZE){
+            final byte tag = buffer.get(pos);
+            if(tag == TAG_END)
+                return -1;
+            final int length = buffer.getInt(pos + 1);
+            if(length < 0 || pos + 5 + length > end - TRAILER_SIZE)
+                break;
+            if(tag == wanted)
+                return pos + 5;
+            pos += 5 + length;                                          // Other section, skip it.
+        }
+        throw new IOException("Corrupt trip file footer");
+    }
+
+    /**
+     * Builds the block index by skipping from block to block, up to the end marker or a partly written block.
+     * @return The number of blocks.
+     */
+    private int scanBlocks() throws IOException {
+        blockOffsets = new int[64];
+        blockFirstRecords = new int[64];
+        blockFirstTimes = new long[64];
+
+        final int end = buffer.limit();
+        int blocks = 0;
+        int records = 0;
+        int pos = HEADER_SIZE;
+
+        while(pos < end){
+            final int offset = pos;
+            final int count = buffer.get(pos++);
+            if(count <= 0)
+                break;                                                  // End marker
+            if(count > MAX_BLOCK_RECORDS)
+                throw new IOException("Corrupt trip file block");
+
+            int length = 0;
+            int v = -1;
+            for(int shift = 0; shift < 32 && pos < end; shift += 7){
+                v = buffer.get(pos++);
+                length |= (v & 0x7F) << shift;
+                if(v >= 0)
+                    break;
+            }
+            if(v < 0 || length > end - pos || length == 0)
+                break;                                                  // Last block partly written.
+            if(length < 0 || length > block.payload.length)
+                throw new IOException("Corrupt trip file block");
+
+            long firstTime = 0;                                         // The first time delta is from 0.
+            int p = pos;
+            for(int shift = 0; shift < 64 && p < pos + length; shift += 7){
+                final byte b = buffer.get(p++);
+                firstTime |= (long) (b & 0x7F) << shift;
+                if(b >= 0)
+                    break;
+            }
+            firstTime = (firstTime >>> 1) ^ -(firstTime & 1);
+
+            if(blocks == blockOffsets.length)
+                growIndex();
+            blockOffsets[blocks] = offset;
+            blockFirstRecords[blocks] = records;
+            blockFirstTimes[blocks] = firstTime;
+            blocks++;
+
+            records += count;
+            pos += length;
+        }
+        return blocks;
+    }
+
+    /**
+     * Reads a section of the mapped file, from its start up to the trailer.
+     */
+    private final class SectionInputStream extends InputStream {
+
+        private int pos;
+
+        private SectionInputStream(int start){
+            pos = start;
+        }
+
+        @Override
+        public int read(){
+            return pos < buffer.limit() - TRAILER_SIZE ? buffer.get(pos++) & 0xFF : -1;
+        }
+    }
+
+    private void growIndex(){
+        final int size = blockOffsets.length;
+
+        int offsets[] = new int[size * 2];
+        System.arraycopy(blockOffsets, 0, offsets, 0, size);
+        blockOffsets = offsets;
+
+        int firstRecords[] = new int[size * 2];
+        System.arraycopy(blockFirstRecords, 0, firstRecords, 0, size);
+        blockFirstRecords = firstRecords;
+
+        long firstTimes[] = new long[size * 2];
+        System.arraycopy(blockFirstTimes, 0, firstTimes, 0, size);
+        blockFirstTimes = firstTimes;
+    }
+}
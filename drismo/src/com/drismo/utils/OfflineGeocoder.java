@@ -0,0 +1,148 @@
+package com.drismo.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reverse geocoding without a network connection, from gazetteers installed on the device: one of places
+ * (named by their municipality, like the online city lookup) and one of street segment vertices. Each is kept as
+ * a <code>GazetteerIndex</code> file, opened the first time it's needed.
+ * <p>
+ * A city is the nearest place within <code>CITY_MAX_METERS</code>, a street the nearest street vertex within
+ * <code>STREET_MAX_METERS</code>. Locations with nothing that close are left to the online lookup.
+ * <p>
+ * The gazetteers are installed from text files the user copies to the DriSMo folder on the SD card.
+ * @see GazetteerIndex
+ * @see com.drismo.logic.JsonFunctions
+ */
+public class OfflineGeocoder {
+
+    private static final String TAG = "OfflineGeocoder";
+    private static final String FILE_NAMES[] = { "gazetteer-city.idx", "gazetteer-street.idx" };
+    public static final String SOURCE_NAMES[] = { "gazetteer-city.txt", "gazetteer-street.txt" };
+
+    /**
+     * Cells of about 20 x 20 km for places, 600 x 600 m for streets (at 60 degrees north).
+     */
+    private static final int BITS[] = { 20, 30 };
+
+    static final double CITY_MAX_METERS = 15000;
+    static final double STREET_MAX_METERS = 200;
+    private static final double MAX_METERS[] = { CITY_MAX_METERS, STREET_MAX_METERS };
+
+    private static OfflineGeocoder instance;
+
+    private final Context context;
+    private final GazetteerIndex indexes[] = new GazetteerIndex[2];
+    private final boolean missing[] = new boolean[2];                  // Not installed, or unreadable
+
+    private OfflineGeocoder(Context c){
+        context = c;
+    }
+
+    public static synchronized OfflineGeocoder getInstance(Context c){
+        if(instance == null)
+            instance = new OfflineGeocoder(c.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Builds and installs a gazetteer, replacing the one installed.
+     * @param type <code>GeocodeCache.CITY</code> or <code>GeocodeCache.STREET</code>.
+     * @param in The gazetteer, as UTF-8 lines of <code>name&lt;TAB&gt;latitude&lt;TAB&gt;longitude</code>
+     *        (one of the <code>SOURCE_NAMES</code> files). Not closed.
+     * @return The number of points installed.
+     * @throws IOException If reading the gazetteer or writing the index fails. The installed one is kept.
+     */
+    public int install(int type, InputStream in) throws IOException {
+        final File file = context.getFileStreamPath(FILE_NAMES[type]);
+        final File building = context.getFileStreamPath(FILE_NAMES[type] + ".tmp");
+        final int count;
+        try {
+            count = GazetteerIndex.build(new InputStreamReader(in, "UTF-8"), building, BITS[type]);
+        } catch (IOException e) {
+            building.delete();
+            throw e;
+        }
+
+        synchronized (this){
+            indexes[type] = null;                                       // Open mappings stay valid.
+            missing[type] = false;
+            if(!building.renameTo(file))
+                throw new IOException("Unable to install " + FILE_NAMES[type]);
+        }
+        return count;
+    }
+
+    /**
+     * Installs the gazetteers found in a directory, named as <code>SOURCE_NAMES</code>. The ones not found are
+     * left as they are.
+     * @param directory The directory to read the gazetteers from.
+     * @return The number of points installed, or -1 if there are no gazetteers in the directory.
+     * @throws IOException If reading a gazetteer or writing its index fails.
+     */
+    public int installFrom(File directory) throws IOException {
+        int count = -1;
+        for(int type = 0; type < SOURCE_NAMES.length; type++){
+            final File source = new File(directory, SOURCE_NAMES[type]);
+            if(!source.isFile())
+                continue;
+            final InputStream in = new FileInputStream(source);
+            try {
+                count = Math.max(count, 0) + install(type, in);
+            } finally {
+                in.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes an installed gazetteer.
+     * @param type <code>GeocodeCache.CITY</code> or <code>GeocodeCache.STREET</code>.
+     */
+    public synchronized void uninstall(int type){
+        indexes[type] = null;
+        missing[type] = true;
+        context.getFileStreamPath(FILE_NAMES[type]).delete();
+    }
+
+    public synchronized boolean isInstalled(int type){
+        return getIndex(type) != null;
+    }
+
+    /**
+     * @param type <code>GeocodeCache.CITY</code> or <code>GeocodeCache.STREET</code>.
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @return The name of the nearest city or street, or null if there's no gazetteer installed, or nothing in
+     *         it close to the location.
+     */
+    public String find(int type, float latitude, float longitude){
+        final GazetteerIndex index;
+        synchronized (this){
+            index = getIndex(type);
+        }
+        return index == null ? null : index.find(latitude, longitude, MAX_METERS[type]);
+    }
+
+    private GazetteerIndex getIndex(int type){
+        if(indexes[type] == null && !missing[type]){
+            final File file = context.getFileStreamPath(FILE_NAMES[type]);
+            try {
+                if(file.exists())
+                    indexes[type] = new GazetteerIndex(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to open " + FILE_NAMES[type], e);
+            }
+            missing[type] = indexes[type] == null;
+        }
+        return indexes[type];
+    }
+}
@@ -0,0 +1,137 @@
+package com.drismo.utils;
+
+import android.graphics.Point;
+import microsoft.mappoint.TileSystem;
+
+/**
+ * Douglas-Peucker simplification of a route for every zoom level of the map at once. Each point gets the tolerance
+ * at which the simplification drops it (clamped to the tolerance of the point that split its span, so the levels
+ * are nested), and from that the lowest zoom level it's drawn at: a byte per point holds the whole pyramid.
+ * <p>
+ * At each zoom level the simplified route is within <code>TOLERANCE_PIXELS</code> of the route, and no segment is
+ * longer than <code>MAX_SEGMENT_PIXELS</code>, so straight roads keep enough points to show their colors.
+ */
+public final class RouteSimplifier {
+
+    /**
+     * The zoom level of the projected coordinates (as <code>Projection.toMapPixelsProjected()</code>).
+     */
+    public static final int PROJECTED_ZOOM = 22;
+
+    /**
+     * Zoom level of the points that are not needed at any zoom level.
+     */
+    public static final int NEVER = PROJECTED_ZOOM + 1;
+
+    static final float TOLERANCE_PIXELS = 1;
+    static final float MAX_SEGMENT_PIXELS = 8;
+
+    private RouteSimplifier(){
+    }
+
+    /**
+     * Projects a route to map pixels at <code>PROJECTED_ZOOM</code>, and simplifies it.
+     * @param latitudes Latitudes of the points.
+     * @param longitudes Longitudes of the points.
+     * @return The lowest zoom level each point is drawn at.
+     * @see #getZoomLevels(int[], int[], int)
+     */
+    public static byte[] getZoomLevels(float latitudes[], float longitudes[]){
+        final int count = latitudes.length;
+        final int xs[] = new int[count], ys[] = new int[count];
+        final Point point = new Point();
+        for(int i = 0; i < count; i++){
+            TileSystem.LatLongToPixelXY(latitudes[i], longitudes[i], PROJECTED_ZOOM, point);
+            xs[i] = point.x;
+            ys[i] = point.y;
+        }
+        return getZoomLevels(xs, ys, count);
+    }
+
+    /**
+     * Simplifies a route in map pixels at <code>PROJECTED_ZOOM</code>.
+     * @param xs X of the points.
+     * @param ys Y of the points.
+     * @param count Number of points.
+     * @return The lowest zoom level each point is drawn at: 0 for the first and last point, <code>NEVER</code> for
+     *         points that are not needed even at <code>PROJECTED_ZOOM</code>.
+     */
+    public static byte[] getZoomLevels(int xs[], int ys[], int count){
+        final byte zoomLevels[] = new byte[count];
+        if(count <= 2)
+            return zoomLevels;
+
+        final float tolerances[] = new float[count];
+        final int spans[] = new int[3 * count];                         // first, last, tolerance bits; no recursion
+        int stacked = 0;
+        spans[stacked++] = 0;
+        spans[stacked++] = count - 1;
+        spans[stacked++] = Float.floatToIntBits(Float.MAX_VALUE);
+        final float lengthRatio = TOLERANCE_PIXELS / MAX_SEGMENT_PIXELS;
+
+        while(stacked > 0){
+            final float parent = Float.intBitsToFloat(spans[--stacked]);
+            final int last = spans[--stacked];
+            final int first = spans[--stacked];
+            if(last - first < 2)
+                continue;
+
+            int split = first + 1;
+            double deviation = -1;
+            for(int i = first + 1; i < last; i++){
+                final double d = distanceToSegment(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+                if(d > deviation){
+                    deviation = d;
+                    split = i;
+                }
+            }
+            final double dx = xs[last] - xs[first], dy = ys[last] - ys[first];
+            final double length = Math.sqrt(dx * dx + dy * dy) * lengthRatio;
+            if(length > deviation){                                     // Too long, rather than too far off
+                deviation = length;
+                split = (first + last) >>> 1;
+            }
+
+            final float tolerance = (float) Math.min(deviation, parent);
+            tolerances[split] = tolerance;
+            spans[stacked++] = first;
+            spans[stacked++] = split;
+            spans[stacked++] = Float.floatToIntBits(tolerance);
+            spans[stacked++] = split;
+            spans[stacked++] = last;
+            spans[stacked++] = Float.floatToIntBits(tolerance);
+        }
+
+        for(int i = 1; i < count - 1; i++){
+            int zoom = 0;                                               // Kept where the tolerance is lower
+            while(zoom <= PROJECTED_ZOOM && tolerances[i] <= TOLERANCE_PIXELS * (1 << (PROJECTED_ZOOM - zoom)))
+                zoom++;
+            zoomLevels[i] = (byte) zoom;
+        }
+        return zoomLevels;
+    }
+
+    /**
+     * Selects the points drawn at a zoom level.
+     * @param zoomLevels The zoom levels of the points, from <code>getZoomLevels()</code>.
+     * @param zoom The zoom level.
+     * @param indexes Receives the indexes of the points; room for all of them.
+     * @return The number of points selected.
+     */
+    public static int select(byte zoomLevels[], int zoom, int indexes[]){
+        int count = 0;
+        for(int i = 0; i < zoomLevels.length; i++)
+            if(zoomLevels[i] <= zoom)
+                indexes[count++] = i;
+        return count;
+    }
+
+    private static double distanceToSegment(int x, int y, int x1, int y1, int x2, int y2){
+        final double dx = x2 - x1, dy = y2 - y1;
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        final double ex = x - (x1 + t * dx), ey = y - (y1 + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
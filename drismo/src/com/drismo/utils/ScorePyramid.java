@@ -0,0 +1,114 @@
+package com.drismo.utils;
+
+/**
+ * Min/max pyramid of a series (the scores of a trip), for drawing it at the resolution of the screen instead of
+ * one line per sample. Level k splits the series into buckets of 2^k samples, and keeps the lowest and the
+ * highest value of each, in the order they occur: a line through them shows every peak and dip a line through
+ * all the samples would, with at most two points per pixel column.
+ * <p>
+ * Each level is built from the one below it, so the pyramid takes about as much memory as the series.
+ */
+public class ScorePyramid {
+
+    private final int values[];
+    private final int levels[][];                       // Per level from 1: first and second extreme of each bucket
+
+    /**
+     * Builds all the levels, up to a single bucket.
+     * @param values The series. Kept, not copied.
+     */
+    public ScorePyramid(int values[]){
+        this.values = values;
+
+        int levelCount = 1;
+        while(bucketCount(values.length, levelCount - 1) > 1)
+            levelCount++;
+        levels = new int[levelCount][];
+
+        for(int level = 1; level < levelCount; level++){
+            final int count = bucketCount(values.length, level);
+            final int extremes[] = new int[count * 2];
+            final int below = bucketCount(values.length, level - 1);
+            for(int b = 0; b < count; b++){
+                final int left = 2 * b, right = 2 * b + 1;
+                if(right < below)
+                    merge(getFirst(level - 1, left), getSecond(level - 1, left),
+                          getFirst(level - 1, right), getSecond(level - 1, right), extremes, 2 * b);
+                else {                                  // Odd bucket at the end of the level below
+                    extremes[2 * b] = getFirst(level - 1, left);
+                    extremes[2 * b + 1] = getSecond(level - 1, left);
+                }
+            }
+            levels[level] = extremes;
+        }
+    }
+
+    /**
+     * @return The number of samples in the series.
+     */
+    public int size(){
+        return values.length;
+    }
+
+    public int getLevelCount(){
+        return levels.length;
+    }
+
+    /**
+     * @return The number of samples in each bucket of the level (the last bucket may hold fewer).
+     */
+    public static int getBucketSize(int level){
+        return 1 << level;
+    }
+
+    public int getBucketCount(int level){
+        return bucketCount(values.length, level);
+    }
+
+    /**
+     * @return The extreme of the bucket that occurs first.
+     */
+    public int getFirst(int level, int bucket){
+        return level == 0 ? values[bucket] : levels[level][2 * bucket];
+    }
+
+    /**
+     * @return The extreme of the bucket that occurs last; the same as the first if all its samples are equal.
+     */
+    public int getSecond(int level, int bucket){
+        return level == 0 ? values[bucket] : levels[level][2 * bucket + 1];
+    }
+
+    /**
+     * Finds the coarsest level that still has a bucket per pixel: <code>samples</code> samples are then drawn
+     * through fewer than <code>2 * pixels</code> buckets.
+     * @param samples The number of samples to draw.
+     * @param pixels The width to draw them on, in pixels.
+     * @return The level to draw.
+     */
+    public int getLevel(float samples, float pixels){
+        int level = 0;
+        while(level + 1 < levels.length && getBucketSize(level + 1) * pixels <= samples)
+            level++;
+        return level;
+    }
+
+    private static int bucketCount(int size, int level){
+        return (size + getBucketSize(level) - 1) >> level;
+    }
+
+    /**
+     * Stores the lowest and the highest of four values in the order they occur (the first if repeated).
+     */
+    private static void merge(int a, int b, int c, int d, int out[], int pos){
+        int min = a, minIndex = 0, max = a, maxIndex = 0;
+        if(b < min){ min = b; minIndex = 1; }
+        if(b > max){ max = b; maxIndex = 1; }
+        if(c < min){ min = c; minIndex = 2; }
+        if(c > max){ max = c; maxIndex = 2; }
+        if(d < min){ min = d; minIndex = 3; }
+        if(d > max){ max = d; maxIndex = 3; }
+        out[pos] = minIndex <= maxIndex ? min : max;
+        out[pos + 1] = minIndex <= maxIndex ? max : min;
+    }
+}
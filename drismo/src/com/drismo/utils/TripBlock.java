@@ -0,0 +1,75 @@
+package com.drismo.utils;
+
+import com.drismo.model.TripRecordSink;
+
+import java.io.IOException;
+
+import static com.drismo.utils.TripFileFormat.*;
+
+/**
+ * One decoded block of a binary trip file. The payload is copied into <code>payload</code> by the reader, and
+ * decoded into the preallocated columns, so decoding a block creates no objects.
+ * @see TripFileFormat
+ */
+final class TripBlock {
+
+    final byte payload[] = new byte[MAX_BLOCK_RECORDS * MAX_RECORD_BYTES];
+
+    final long times[] = new long[MAX_BLOCK_RECORDS];
+    final int scores[] = new int[MAX_BLOCK_RECORDS];
+    final int latitudes[] = new int[MAX_BLOCK_RECORDS];
+    final int longitudes[] = new int[MAX_BLOCK_RECORDS];
+    final int speeds[] = new int[MAX_BLOCK_RECORDS];
+    int count = 0;
+
+    private int pos;
+    private int length;
+
+    /**
+     * Decodes the columns of the payload.
+     * @param count Number of records in the block.
+     * @param length Length of the payload (bytes).
+     * @throws IOException If the payload is corrupt.
+     */
+    void decode(int count, int length) throws IOException {
+        this.count = 0;
+        this.length = length;
+        pos = 0;
+
+        long previousTime = 0;
+        for(int i = 0; i < count; i++)
+            times[i] = previousTime += readVarLong();
+        readColumn(scores, count);
+        readColumn(latitudes, count);
+        readColumn(longitudes, count);
+        readColumn(speeds, count);
+        this.count = count;
+    }
+
+    /**
+     * Adds the decoded records <code>from</code> (inclusive) to <code>to</code> (exclusive) to a sink.
+     */
+    void emit(int from, int to, TripRecordSink records){
+        for(int i = from; i < to; i++)
+            records.add(times[i], scores[i], latitudes[i], longitudes[i], speeds[i] / SPEED_SCALE);
+    }
+
+    private long readVarLong() throws IOException {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            if(pos == length)
+                throw new IOException("Corrupt trip file block");
+            final byte b = payload[pos++];
+            v |= (long) (b & 0x7F) << shift;
+            if(b >= 0)
+                return (v >>> 1) ^ -(v & 1);
+        }
+        throw new IOException("Corrupt trip file block");
+    }
+
+    private void readColumn(int column[], int count) throws IOException {
+        int previous = 0;
+        for(int i = 0; i < count; i++)
+            column[i] = previous += (int) readVarLong();
+    }
+}
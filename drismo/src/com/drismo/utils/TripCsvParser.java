@@ -0,0 +1,310 @@
+package com.drismo.utils;
+
+import com.drismo.model.TripRecordSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses legacy CSV trip files (<code>millis,score,lat,long,speed</code> lines after a header ending with
+ * <code>:refreshRate</code>) straight from the bytes. Numbers are decoded in place from a reusable byte window
+ * over the stream, so no Strings or other objects are created per line. Lines starting with <code>#</code>
+ * and empty lines are skipped.
+ * <p>
+ * Decimal numbers are decoded into a mantissa and a decimal exponent, so coordinates can be converted to micro
+ * degrees with integer arithmetic only, exactly like they are written in the file.
+ * @see TripFileReader#readCsv(InputStream, TripRecordSink)
+ */
+public class TripCsvParser {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DIGITS = 18;              // Fits in a long
+    private static final double POW10[] = new double[23];  // Exactly representable as doubles
+    private static final long LONG_POW10[] = new long[19];
+
+    static {
+        double d = 1;
+        for(int i = 0; i < POW10.length; i++, d *= 10)
+            POW10[i] = d;
+        long l = 1;
+        for(int i = 0; i < LONG_POW10.length; i++, l *= 10)
+            LONG_POW10[i] = l;
+    }
+
+    private final InputStream in;
+    private final byte buffer[] = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private int line = 0;
+
+    private long mantissa;                                  // The last decimal number read is
+    private int exponent;                                   //  mantissa * 10^exponent.
+
+    /**
+     * @param in The CSV file. Read through an internal buffer, so it needn't be buffered.
+     */
+    public TripCsvParser(InputStream in){
+        this.in = in;
+    }
+
+    /**
+     * Reads the header line, and returns the refresh rate after its last <code>:</code>.
+     * @return The refresh rate (ms), or -1 if the file is empty.
+     * @throws IOException If reading fails, or the header is malformed.
+     */
+    public int readHeader() throws IOException {
+        int b = read();
+        if(b < 0)
+            return -1;
+        line++;
+
+        int refreshRate = -1;
+        for(; b >= 0 && b != '\n'; b = read()){
+            if(b == ':')
+                refreshRate = 0;
+            else if(refreshRate >= 0 && b >= '0' && b <= '9')
+                refreshRate = refreshRate * 10 + (b - '0');
+            else if(refreshRate >= 0 && b != '\r')
+                refreshRate = -1;                           // Not the last ':'
+        }
+        if(refreshRate < 0)
+            throw new IOException("Malformed trip file header");
+        return refreshRate;
+    }
+
+    /**
+     * Parses all the records after the header.
+     * @param records Sink to add the records to.
+     * @throws IOException If reading fails, or a line is malformed.
+     */
+    public void parse(TripRecordSink records) throws IOException {
+        while(nextRecord()){
+            final long time = readLong();
+            readComma();
+            final int score = (int) readLong();
+            readComma();
+            readDecimal();
+            final int latitudeE6 = (int) toFixed(6);
+            readComma();
+            readDecimal();
+            final int longitudeE6 = (int) toFixed(6);
+            readComma();
+            readDecimal();
+            final float speed = (float) toDouble();
+            endRecord();
+
+            records.add(time, score, latitudeE6, longitudeE6, speed);
+        }
+    }
+
+    /**
+     * Counts the records after the header, without decoding them.
+     * @return The number of records.
+     * @throws IOException If reading fails.
+     */
+    public int countRecords() throws IOException {
+        int count = 0;
+        while(nextRecord()){
+            count++;
+            skipLine();
+        }
+        return count;
+    }
+
+    /**
+     * Skips empty and comment lines.
+     * @return True if positioned at the start of a record, false at the end of the file.
+     */
+    private boolean nextRecord() throws IOException {
+        while(true){
+            final int b = peek();
+            if(b < 0)
+                return false;
+            if(b == '\n' || b == '\r'){
+                if(read() == '\n') line++;
+            } else if(b == '#'){
+                line++;
+                skipLine();
+            } else {
+                line++;
+                return true;
+            }
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int b;
+        do {
+            b = read();
+        } while(b >= 0 && b != '\n');
+    }
+
+    private void readComma() throws IOException {
+        if(read() != ',')
+            throw malformed();
+    }
+
+    /**
+     * Reads the line end after the last field of a record, ignoring any extra fields.
+     */
+    private void endRecord() throws IOException {
+        int b = read();
+        if(b == '\r')
+            b = read();
+        if(b == ',')
+            skipLine();
+        else if(b != '\n' && b >= 0)
+            throw malformed();
+    }
+
+    /**
+     * Reads a whole number field, leaving the byte after it unread.
+     */
+    private long readLong() throws IOException {
+        boolean negative = false;
+        int b = read();
+        if(b == '-'){
+            negative = true;
+            b = read();
+        }
+
+        long value = 0;
+        int digits = 0;
+        for(; b >= '0' && b <= '9'; b = read(), digits++)
+            value = value * 10 + (b - '0');
+        if(digits == 0 || digits > MAX_DIGITS)
+            throw malformed();
+        unread(b);
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads a decimal number field (like <code>-12.345</code> or <code>1.0E-4</code>) into
+     * <code>mantissa</code> and <code>exponent</code>, leaving the byte after it unread. Digits beyond
+     * <code>MAX_DIGITS</code> are dropped.
+     */
+    private void readDecimal() throws IOException {
+        boolean negative = false;
+        int b = read();
+        if(b == '-'){
+            negative = true;
+            b = read();
+        }
+
+        long m = 0;
+        int e = 0;
+        int digits = 0;
+        boolean fraction = false;
+        boolean any = false;
+
+        for(;; b = read()){
+            if(b >= '0' && b <= '9'){
+                any = true;
+                if(digits < MAX_DIGITS){
+                    if(m != 0 || b != '0')
+                        digits++;
+                    m = m * 10 + (b - '0');
+                    if(fraction) e--;
+                } else if(!fraction)
+                    e++;
+            } else if(b == '.' && !fraction){
+                fraction = true;
+            } else
+                break;
+        }
+        if(!any)
+            throw malformed();
+
+        if(b == 'E' || b == 'e'){
+            boolean negativeExponent = false;
+            b = read();
+            if(b == '-' || b == '+'){
+                negativeExponent = b == '-';
+                b = read();
+            }
+            int exp = 0;
+            int expDigits = 0;
+            for(; b >= '0' && b <= '9'; b = read(), expDigits++)
+                exp = Math.min(exp * 10 + (b - '0'), 1000);
+            if(expDigits == 0)
+                throw malformed();
+            e += negativeExponent ? -exp : exp;
+        }
+
+        unread(b);
+
+        mantissa = negative ? -m : m;
+        exponent = e;
+    }
+
+    /**
+     * @return The last decimal number read, as a double.
+     */
+    private double toDouble(){
+        if(mantissa == 0)
+            return 0;
+        if(exponent >= 0)
+            return exponent < POW10.length ? mantissa * POW10[exponent] : mantissa * Math.pow(10, exponent);
+        return -exponent < POW10.length ? mantissa / POW10[-exponent] : mantissa / Math.pow(10, -exponent);
+    }
+
+    /**
+     * @param decimals Number of decimals to keep.
+     * @return The last decimal number read, times 10^decimals, rounded like <code>Math.round</code>.
+     */
+    private long toFixed(int decimals) throws IOException {
+        final int shift = exponent + decimals;
+        if(mantissa == 0)
+            return 0;
+
+        if(shift >= 0){
+            if(shift >= LONG_POW10.length || Math.abs(mantissa) > Long.MAX_VALUE / LONG_POW10[shift])
+                throw malformed();
+            return mantissa * LONG_POW10[shift];
+        }
+        if(-shift >= LONG_POW10.length)
+            return 0;
+
+        final long divisor = LONG_POW10[-shift];
+        long quotient = mantissa / divisor;
+        final long remainder = Math.abs(mantissa % divisor) * 2;
+        if(remainder > divisor || (remainder == divisor && mantissa > 0))
+            quotient += mantissa > 0 ? 1 : -1;              // Half up, towards positive infinity on ties
+        return quotient;
+    }
+
+    private IOException malformed(){
+        return new IOException("Malformed trip file, line " + line);
+    }
+
+    private int read() throws IOException {
+        if(pos == limit && !fill())
+            return -1;
+        return buffer[pos++] & 0xFF;
+    }
+
+    private int peek() throws IOException {
+        if(pos == limit && !fill())
+            return -1;
+        return buffer[pos] & 0xFF;
+    }
+
+    /**
+     * Steps back one byte, after <code>read()</code> returned <code>b</code>. Never crosses a refill, since
+     * the byte just read is still in the buffer.
+     */
+    private void unread(int b){
+        if(b >= 0)
+            pos--;
+    }
+
+    private boolean fill() throws IOException {
+        final int n = in.read(buffer, 0, buffer.length);
+        if(n <= 0)
+            return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package com.drismo.utils;
+
+/**
+ * Layout of the binary DriSMo trip file (<code>.dtf</code>). All multi-byte header fields are big endian.
+ * <pre>
+ * Header:  int    MAGIC ("DTF\0")
+ *          short  VERSION
+ *          short  flags (0)
+ *          int    refresh rate (ms between records)
+ *          long   start time (ms since epoch)
+ * Blocks:  varint record count (1..MAX_BLOCK_RECORDS), 0 marks the end of the blocks
+ *          varint payload length (bytes)
+ *          payload: the columns time, score, latitude, longitude, speed, one after another.
+ *                   Each column holds <code>count</code> zigzag varints, every value stored as the
+ *                   difference from the previous value in the same block (the first from 0).
+ * Footer:  sections: byte tag, int payload length, payload. Tag 0 (with no length) ends the sections.
+ *          int    file offset of the first section
+ *          int    FOOTER_MAGIC ("DTFE")
+ * Block index section (TAG_BLOCK_INDEX):
+ *          int    block count
+ *          int    record count
+ *          long   time of the last record
+ *          then for each block: int file offset, int index of the first record, long time of the first record
+ * Statistics section (TAG_STATISTICS): the statistics of all the records, see <code>TripStatistics.writeTo()</code>
+ * </pre>
+ * Time is ms since the trip started, latitude/longitude are micro degrees and speed is cm/s. Every block can be
+ * decoded on its own. A file that was not closed (the app was killed) simply lacks the end marker and the
+ * footer; a partly written last block is ignored by the reader.
+ * <p>
+ * The footer follows the end marker, so readers that stop at the end marker never see it. It is found from the
+ * end of the file, through the fixed size trailer. The block index entries have a fixed size, so the index can
+ * be binary searched where it lies in a memory mapped file. Readers skip sections with unknown tags.
+ * @see TripFileWriter
+ * @see TripFileReader
+ * @see MappedTripFile
+ */
+final class TripFileFormat {
+
+    static final int MAGIC = 0x44544600;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 20;
+
+    static final int FOOTER_MAGIC = 0x44544645;
+    static final int TRAILER_SIZE = 8;
+    static final byte TAG_END = 0;
+    static final byte TAG_BLOCK_INDEX = 1;
+    static final byte TAG_STATISTICS = 2;
+    static final int INDEX_HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    static final int MAX_BLOCK_RECORDS = 32;
+
+    /**
+     * Max size of an encoded record: a 10 byte varint for the time, and 5 bytes for each of the four int columns.
+     */
+    static final int MAX_RECORD_BYTES = 10 + 4 * 5;
+
+    static final double COORDINATE_SCALE = 1e6;
+    static final float SPEED_SCALE = 100f;
+
+    private TripFileFormat(){
+    }
+
+    /**
+     * Writes a zigzag encoded varint.
+     * @return The position after the written bytes.
+     */
+    static int writeVarLong(byte buffer[], int pos, long value){
+        long v = (value << 1) ^ (value >> 63);          // zigzag: small negative values get few bytes too
+        while((v & ~0x7FL) != 0){
+            buffer[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[pos++] = (byte) v;
+        return pos;
+    }
+
+    /**
+     * Writes an unsigned varint.
+     * @return The position after the written bytes.
+     */
+    static int writeUnsignedVarInt(byte buffer[], int pos, int value){
+        while((value & ~0x7F) != 0){
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+}
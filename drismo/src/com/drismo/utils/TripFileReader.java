@@ -0,0 +1,260 @@
+package com.drismo.utils;
+
+import android.content.Context;
+import com.drismo.model.TripRecordSink;
+import com.drismo.model.TripRecords;
+
+import java.io.*;
+
+import static com.drismo.utils.TripFileFormat.*;
+
+/**
+ * Reads binary trip files one block at a time, handing the records straight to a <code>TripRecordSink</code>.
+ * Also reads legacy CSV trip files, and converts binary trip files to CSV for exporting.
+ * @see TripFileFormat
+ * @see TripFileWriter
+ */
+public class TripFileReader {
+
+    private final DataInputStream in;
+    private final int refreshRate;
+    private final long startTime;
+
+    private final TripBlock block = new TripBlock();
+
+    private boolean endReached = false;
+
+    /**
+     * Reads the file header.
+     * @param in Stream positioned at the start of a binary trip file. Should be buffered.
+     * @throws IOException If the header is missing or the file isn't a supported trip file.
+     */
+    public TripFileReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+
+        if(this.in.readInt() != MAGIC)
+            throw new IOException("Not a DriSMo trip file");
+        final short version = this.in.readShort();
+        if(version != VERSION)
+            throw new IOException("Unsupported trip file version " + version);
+        this.in.readShort();                                            // flags, unused
+        refreshRate = this.in.readInt();
+        startTime = this.in.readLong();
+    }
+
+    public int getRefreshRate(){
+        return refreshRate;
+    }
+
+    public long getStartTime(){
+        return startTime;
+    }
+
+    /**
+     * Decodes the next block, and adds its records to the given sink.
+     * @param records Sink to add the records to.
+     * @return The number of records added, or -1 at the end of the file.
+     * @throws IOException If reading fails, or the block is corrupt.
+     */
+    public int readBlock(TripRecordSink records) throws IOException {
+        final int count = readBlockHeader();
+        if(count < 0)
+            return -1;
+
+        final int length = readUnsignedVarInt();
+        if(length < 0)                                                  // Last block partly written.
+            return -1;
+        if(length > block.payload.length)
+            throw new IOException("Corrupt trip file block");
+        try {
+            in.readFully(block.payload, 0, length);
+        } catch (EOFException e) {                                      // Last block partly written.
+            endReached = true;
+            return -1;
+        }
+
+        block.decode(count, length);
+        block.emit(0, count, records);
+        return count;
+    }
+
+    /**
+     * Reads all the remaining records.
+     * @param records Sink to add the records to, after giving it the header.
+     * @throws IOException If reading fails.
+     */
+    public void readAll(TripRecordSink records) throws IOException {
+        records.setHeader(refreshRate, startTime);
+        while(readBlock(records) >= 0);
+    }
+
+    /**
+     * Counts the remaining records without decoding them, by skipping the block payloads.
+     * @return The number of records.
+     * @throws IOException If reading fails.
+     */
+    public int countRecords() throws IOException {
+        int records = 0;
+        int count;
+
+        while((count = readBlockHeader()) >= 0){
+            int remaining = readUnsignedVarInt();
+            if(remaining < 0)
+                return records;
+            while(remaining > 0){
+                final long skipped = in.skip(remaining);
+                if(skipped <= 0){
+                    endReached = true;
+                    return records;                                     // Last block partly written.
+                }
+                remaining -= skipped;
+            }
+            records += count;
+        }
+        return records;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @return The record count of the next block, or -1 at the end marker or the end of the stream.
+     */
+    private int readBlockHeader() throws IOException {
+        if(endReached)
+            return -1;
+
+        final int count = in.read();                                    // A one byte varint, as the count
+        if(count <= 0){                                                 //  is at most MAX_BLOCK_RECORDS.
+            endReached = true;                                          // End marker, or not closed.
+            return -1;
+        }
+        if(count > MAX_BLOCK_RECORDS)
+            throw new IOException("Corrupt trip file block");
+        return count;
+    }
+
+    private int readUnsignedVarInt() throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7){
+            final int b = in.read();
+            if(b < 0){
+                endReached = true;
+                return -1;
+            }
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt trip file block");
+    }
+
+    /**
+     * Loads a trip file from the application's local storage, binary or legacy CSV.
+     * @param c Context owning the file.
+     * @param fileName Name of the trip file. The binary extension is appended if the name has no trip extension.
+     * @return The records of the trip.
+     * @throws IOException If reading fails.
+     */
+    public static TripRecords load(Context c, String fileName) throws IOException {
+        final TripRecords records = new TripRecords();
+        load(c, fileName, records);
+        return records;
+    }
+
+    /**
+     * Streams a trip file from the application's local storage, binary or legacy CSV, to a sink.
+     * @param c Context owning the file.
+     * @param fileName Name of the trip file. The binary extension is appended if the name has no trip extension.
+     * @param records Sink to add the records to.
+     * @throws IOException If reading fails.
+     */
+    public static void load(Context c, String fileName, TripRecordSink records) throws IOException {
+        if(fileName.endsWith(FileController.LEGACY_FILE_EXTENSION)){
+            readCsv(c.openFileInput(fileName), records);
+            return;
+        }
+
+        if(!fileName.endsWith(FileController.FILE_EXTENSION))
+            fileName += FileController.FILE_EXTENSION;
+
+        final TripFileReader reader = new TripFileReader(new BufferedInputStream(c.openFileInput(fileName)));
+        try {
+            reader.readAll(records);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a legacy CSV trip file (<code>millis,score,lat,long,speed</code> lines after a header ending with
+     * <code>:refreshRate</code>), without creating objects per line. The stream is closed.
+     * @see TripCsvParser
+     * @param csv The CSV file.
+     * @param records Sink to add the records to.
+     * @throws IOException If reading fails.
+     */
+    public static void readCsv(InputStream csv, TripRecordSink records) throws IOException {
+        try {
+            final TripCsvParser parser = new TripCsvParser(csv);
+            final int refreshRate = parser.readHeader();
+            if(refreshRate < 0)
+                return;
+            records.setHeader(refreshRate, 0);
+            parser.parse(records);
+        } finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * Converts a binary trip file to the legacy CSV format, one block at a time. Both streams are closed.
+     * @param in The binary trip file.
+     * @param csv Writer for the CSV file.
+     * @throws IOException If reading or writing fails.
+     */
+    public static void exportCsv(InputStream in, Writer csv) throws IOException {
+        final BufferedWriter out = new BufferedWriter(csv);
+        try {
+            final TripFileReader reader = new TripFileReader(new BufferedInputStream(in));
+            final TripRecords block = new TripRecords();
+            final StringBuilder line = new StringBuilder(64);
+
+            out.write("#Time,Score,Lat,Long,Speed,:" + reader.getRefreshRate() + "\n");
+
+            while(reader.readBlock(block) >= 0){
+                for(int i = 0; i < block.size(); i++){
+                    line.setLength(0);
+                    line.append(block.getTime(i)).append(',')
+                        .append(block.getScore(i)).append(',');
+                    appendE6(line, block.getLatitudeE6(i)).append(',');
+                    appendE6(line, block.getLongitudeE6(i)).append(',')
+                        .append(block.getSpeed(i)).append('\n');
+                    out.append(line);
+                }
+                block.clear();
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Appends micro degrees as degrees with 6 decimals, exact (no floating point rounding).
+     */
+    private static StringBuilder appendE6(StringBuilder sb, int e6){
+        long v = e6;
+        if(v < 0){
+            sb.append('-');
+            v = -v;
+        }
+        sb.append(v / 1000000).append('.');
+
+        final String fraction = Long.toString(v % 1000000);
+        for(int i = fraction.length(); i < 6; i++)
+            sb.append('0');
+        return sb.append(fraction);
+    }
+}
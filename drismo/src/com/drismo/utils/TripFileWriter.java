@@ -0,0 +1,218 @@
+package com.drismo.utils;
+
+import com.drismo.model.TripStatistics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.drismo.utils.TripFileFormat.*;
+
+/**
+ * Streams trip records to a binary trip file. The records are buffered in columns, and written as one block
+ * when <code>MAX_BLOCK_RECORDS</code> records are buffered, or when <code>flush()</code> is called.
+ * The column and block buffers are allocated once, so appending a record creates no objects. The position of each
+ * block and the statistics of the records are kept, and written in the footer when the file is finished.
+ * @see TripFileFormat
+ */
+public class TripFileWriter {
+
+    private final DataOutputStream out;
+
+    private final long times[] = new long[MAX_BLOCK_RECORDS];
+    private final int scores[] = new int[MAX_BLOCK_RECORDS];
+    private final int latitudes[] = new int[MAX_BLOCK_RECORDS];
+    private final int longitudes[] = new int[MAX_BLOCK_RECORDS];
+    private final int speeds[] = new int[MAX_BLOCK_RECORDS];
+    private int pending = 0;
+
+    private final byte payload[] = new byte[MAX_BLOCK_RECORDS * MAX_RECORD_BYTES];
+    private final byte prefix[] = new byte[10];
+
+    private long recordCount = 0;
+    private long lastTime = 0;
+    private boolean finished = false;
+
+    private int blockOffsets[] = new int[64];
+    private int blockFirstRecords[] = new int[64];
+    private long blockFirstTimes[] = new long[64];
+    private int blockCount = 0;
+
+    private final TripStatistics statistics = new TripStatistics();
+
+    /**
+     * Writes the file header.
+     * @param out Stream to write to. Closed by <code>close()</code>.
+     * @param refreshRate Time between the records (ms).
+     * @param startTime Wall clock time the trip started (ms since epoch).
+     * @throws IOException If the header can't be written.
+     */
+    public TripFileWriter(OutputStream out, int refreshRate, long startTime) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeShort(0);
+        this.out.writeInt(refreshRate);
+        this.out.writeLong(startTime);
+        statistics.setHeader(refreshRate, startTime);
+    }
+
+    /**
+     * Adds a record. Written to the stream when the current block is full.
+     * @param time Time since the trip started (ms).
+     * @param score The quality score.
+     * @param latitude Latitude in degrees, 0 if there is no GPS fix.
+     * @param longitude Longitude in degrees, 0 if there is no GPS fix.
+     * @param speed Speed (m/s).
+     * @throws IOException If a full block can't be written.
+     */
+    public void append(long time, int score, double latitude, double longitude, float speed) throws IOException {
+        times[pending] = time;
+        scores[pending] = score;
+        latitudes[pending] = (int) Math.round(latitude * COORDINATE_SCALE);
+        longitudes[pending] = (int) Math.round(longitude * COORDINATE_SCALE);
+        speeds[pending] = Math.round(speed * SPEED_SCALE);
+        statistics.add(time, score, latitudes[pending], longitudes[pending], speeds[pending] / SPEED_SCALE);
+        pending++;
+        recordCount++;
+        lastTime = time;
+
+        if(pending == MAX_BLOCK_RECORDS)
+            writeBlock();
+    }
+
+    /**
+     * Writes the buffered records as a (possibly short) block, and flushes the stream.
+     * @throws IOException If writing fails.
+     */
+    public void flush() throws IOException {
+        if(pending > 0)
+            writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Writes the buffered records, the end marker and the footer, and flushes the stream, leaving it open (so the
+     * file can be synced before it is closed). No records can be appended after this.
+     * @throws IOException If writing fails.
+     */
+    public void finish() throws IOException {
+        if(finished)
+            return;
+        if(pending > 0)
+            writeBlock();
+        out.write(0);
+
+        final int footerOffset = out.size();
+        writeStatistics();
+        writeBlockIndex();
+        out.writeByte(TAG_END);
+        out.writeInt(footerOffset);
+        out.writeInt(FOOTER_MAGIC);
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * Finishes the file if that's not done, and closes the stream.
+     * @throws IOException If writing fails. The stream is closed anyway.
+     */
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return The number of records appended.
+     */
+    public long getRecordCount(){
+        return recordCount;
+    }
+
+    /**
+     * @return The statistics of the records appended, updated by every append, as they are read back from
+     *         the file (after the coordinates and speed are rounded to the precision of the file).
+     */
+    public TripStatistics getStatistics(){
+        return statistics;
+    }
+
+    private void writeStatistics() throws IOException {
+        final ByteArrayOutputStream section = new ByteArrayOutputStream(128);
+        statistics.writeTo(new DataOutputStream(section));
+        out.writeByte(TAG_STATISTICS);
+        out.writeInt(section.size());
+        section.writeTo(out);
+    }
+
+    private void writeBlockIndex() throws IOException {
+        out.writeByte(TAG_BLOCK_INDEX);
+        out.writeInt(INDEX_HEADER_SIZE + blockCount * INDEX_ENTRY_SIZE);
+        out.writeInt(blockCount);
+        out.writeInt((int) recordCount);
+        out.writeLong(lastTime);
+        for(int i = 0; i < blockCount; i++){
+            out.writeInt(blockOffsets[i]);
+            out.writeInt(blockFirstRecords[i]);
+            out.writeLong(blockFirstTimes[i]);
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        final int count = pending;
+        int pos = 0;
+
+        if(blockCount == blockOffsets.length)
+            growIndex();
+        blockOffsets[blockCount] = out.size();
+        blockFirstRecords[blockCount] = (int) (recordCount - count);
+        blockFirstTimes[blockCount] = times[0];
+        blockCount++;
+
+        long previousTime = 0;
+        for(int i = 0; i < count; i++){
+            pos = writeVarLong(payload, pos, times[i] - previousTime);
+            previousTime = times[i];
+        }
+        pos = writeColumn(scores, count, pos);
+        pos = writeColumn(latitudes, count, pos);
+        pos = writeColumn(longitudes, count, pos);
+        pos = writeColumn(speeds, count, pos);
+
+        int prefixLength = writeUnsignedVarInt(prefix, 0, count);
+        prefixLength = writeUnsignedVarInt(prefix, prefixLength, pos);
+
+        out.write(prefix, 0, prefixLength);
+        out.write(payload, 0, pos);
+        pending = 0;
+    }
+
+    private void growIndex(){
+        final int capacity = blockOffsets.length * 2;
+
+        int offsets[] = new int[capacity];
+        System.arraycopy(blockOffsets, 0, offsets, 0, blockCount);
+        blockOffsets = offsets;
+
+        int firstRecords[] = new int[capacity];
+        System.arraycopy(blockFirstRecords, 0, firstRecords, 0, blockCount);
+        blockFirstRecords = firstRecords;
+
+        long firstTimes[] = new long[capacity];
+        System.arraycopy(blockFirstTimes, 0, firstTimes, 0, blockCount);
+        blockFirstTimes = firstTimes;
+    }
+
+    private int writeColumn(int column[], int count, int pos){
+        int previous = 0;
+        for(int i = 0; i < count; i++){
+            pos = writeVarLong(payload, pos, (long) column[i] - previous);
+            previous = column[i];
+        }
+        return pos;
+    }
+}
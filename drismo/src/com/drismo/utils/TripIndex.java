@@ -0,0 +1,215 @@
+package com.drismo.utils;
+
+import android.content.Context;
+import android.util.Log;
+import com.drismo.model.TripMetadata;
+import com.drismo.model.TripStatistics;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent index of trip summaries (duration, start time, distance, average score, record count), keyed by
+ * file name. Lets the trip archive show its rows from memory in O(1), instead of reading every trip file.
+ * <p>
+ * The index is kept up to date by <code>TripLogger</code> when a trip is closed, and by
+ * <code>FileController</code> when trips are renamed or deleted. Trips without a valid entry (legacy CSV trips,
+ * or files changed since they were indexed) are summarised by <code>update()</code>, in the background.
+ * @see com.drismo.task.IndexTripsTask
+ */
+public class TripIndex {
+
+    private static final String TAG = "TripIndex";
+    private static final String INDEX_FILE_NAME = "trip-index.bin";
+    private static final String TEMP_FILE_NAME = "trip-index.tmp";
+    private static final int MAGIC = 0x44544958;        // "DTIX"
+    private static final int VERSION = 1;
+
+    private static TripIndex instance;
+
+    private final Context context;
+    private final Map<String, TripMetadata> entries = new HashMap<String, TripMetadata>();
+    private final Object saveLock = new Object();
+
+    public static synchronized TripIndex getInstance(Context c) {
+        if(instance == null)
+            instance = new TripIndex(c.getApplicationContext());
+        return instance;
+    }
+
+    private TripIndex(Context context) {
+        this.context = context;
+        load();
+    }
+
+    /**
+     * @return The summary of the trip, or null if it isn't indexed yet.
+     */
+    public synchronized TripMetadata get(String fileName) {
+        return entries.get(fileName);
+    }
+
+    /**
+     * Adds the summary of a trip that has just been written, and saves the index.
+     * @param fileName Name of the trip file, which must be closed.
+     */
+    public void put(String fileName, long startTime, int durationSeconds, float distanceMeters,
+                    int averageScore, int recordCount) {
+        File file = context.getFileStreamPath(fileName);
+        synchronized (this) {
+            entries.put(fileName, new TripMetadata(file.lastModified(), file.length(), startTime,
+                                                   durationSeconds, distanceMeters, averageScore, recordCount));
+        }
+        save();
+    }
+
+    public void rename(String from, String to) {
+        synchronized (this) {
+            TripMetadata metadata = entries.remove(from);
+            if(metadata == null)
+                return;
+            entries.put(to, metadata);
+        }
+        save();
+    }
+
+    public void remove(String fileName) {
+        synchronized (this) {
+            if(entries.remove(fileName) == null)
+                return;
+        }
+        save();
+    }
+
+    /**
+     * Summarises the trips that have no entry, or have changed since they were indexed, and drops the entries
+     * of trips that are gone. Reads trip files, so don't call this on the UI thread.
+     * @param fileNames The trip files in the archive.
+     * @return The number of trips summarised.
+     */
+    public int update(List<String> fileNames) {
+        int summarised = 0;
+        boolean changed;
+
+        synchronized (this) {
+            changed = entries.keySet().retainAll(new HashSet<String>(fileNames));
+        }
+
+        for(String fileName : fileNames) {
+            File file = context.getFileStreamPath(fileName);
+            TripMetadata metadata = get(fileName);
+
+            if(metadata != null && metadata.getLastModified() == file.lastModified()
+                                && metadata.getFileLength() == file.length())
+                continue;
+
+            try {
+                metadata = summarise(fileName, file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to read " + fileName, e);
+                continue;
+            } catch (RuntimeException e) {                     // Malformed legacy file
+                Log.e(TAG, "Unable to parse " + fileName, e);
+                continue;
+            }
+            synchronized (this) {
+                entries.put(fileName, metadata);
+            }
+            summarised++;
+            changed = true;
+        }
+
+        if(changed)
+            save();
+        return summarised;
+    }
+
+    /**
+     * Summarises a trip file, from the statistics in its footer, or by streaming the records for files without
+     * them (legacy CSV trips, and binary trips that were not closed).
+     * @see MappedTripFile#loadStatistics
+     */
+    private TripMetadata summarise(String fileName, File file) throws IOException {
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        final TripStatistics statistics = MappedTripFile.loadStatistics(context, fileName);
+
+        return new TripMetadata(lastModified, length, statistics.getStartTime(),
+                                TripMetadata.calculateDurationSeconds(statistics.getRefreshRate(), statistics.getRecordCount()),
+                                statistics.getDistanceMeters(), statistics.getAverageScore(), statistics.getRecordCount());
+    }
+
+    private void load() {
+        File file = context.getFileStreamPath(INDEX_FILE_NAME);
+        if(!file.exists())
+            return;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                    return;                                     // Rebuilt by update()
+
+                int count = in.readInt();
+                for(int i = 0; i < count; i++) {
+                    String fileName = in.readUTF();
+                    entries.put(fileName, new TripMetadata(in.readLong(), in.readLong(), in.readLong(),
+                                                           in.readInt(), in.readFloat(), in.readInt(), in.readInt()));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to load the trip index, it will be rebuilt", e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file, and renames it over the old index, so a crash never leaves a
+     * half written index.
+     */
+    private void save() {
+        synchronized (saveLock) {
+            String fileNames[];
+            TripMetadata metadata[];
+
+            synchronized (this) {
+                fileNames = entries.keySet().toArray(new String[entries.size()]);
+                metadata = new TripMetadata[fileNames.length];
+                for(int i = 0; i < fileNames.length; i++)
+                    metadata[i] = entries.get(fileNames[i]);
+            }
+
+            File temp = context.getFileStreamPath(TEMP_FILE_NAME);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(fileNames.length);
+                    for(int i = 0; i < fileNames.length; i++) {
+                        out.writeUTF(fileNames[i]);
+                        out.writeLong(metadata[i].getLastModified());
+                        out.writeLong(metadata[i].getFileLength());
+                        out.writeLong(metadata[i].getStartTime());
+                        out.writeInt(metadata[i].getDurationSeconds());
+                        out.writeFloat(metadata[i].getDistanceMeters());
+                        out.writeInt(metadata[i].getAverageScore());
+                        out.writeInt(metadata[i].getRecordCount());
+                    }
+                } finally {
+                    out.close();
+                }
+
+                if(!temp.renameTo(context.getFileStreamPath(INDEX_FILE_NAME)))
+                    Log.e(TAG, "Unable to replace the trip index");
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to save the trip index", e);
+            }
+        }
+    }
+}